@@ -0,0 +1,188 @@
+package com.chatflow.benchmarks;
+
+import com.chatflow.server.rabbit.AckMode;
+import com.chatflow.server.rabbit.AckTracker;
+import com.chatflow.server.rabbit.AdaptivePrefetch;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Consumer throughput (deliveries/s), acks/s and delivery-to-broadcast p99 for one shard
+ * consumer under single acks, cumulative acks, and cumulative acks with adaptive prefetch.
+ *
+ * The broker is simulated: the queue always has a backlog, it delivers while fewer than
+ * prefetch deliveries are unacked, and an ack only frees credit {@code ackRttMicros} after
+ * it was sent. Sending an ack burns {@code ackCost} JMH CPU tokens on the calling thread,
+ * broadcasting one delivery burns {@code broadcastCost} on its lane. The adaptive controller
+ * ticks every 100 ms instead of every second so it settles within a measurement iteration.
+ * Acks/s and the p99 are printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Threads(1)
+@Fork(1)
+public class AckPrefetchBenchmark {
+
+    public enum Setting { SINGLE_FIXED, CUMULATIVE_FIXED, CUMULATIVE_ADAPTIVE }
+
+    private static final int MAX_LATENCY_US = 1_000_000;
+    private static final int PREFETCH_MAX = 2048;
+
+    @Param({"SINGLE_FIXED", "CUMULATIVE_FIXED", "CUMULATIVE_ADAPTIVE"})
+    private Setting setting;
+
+    @Param({"250"})
+    private int prefetch;
+
+    @Param({"4"})
+    private int lanes;
+
+    @Param({"500"})
+    private long ackRttMicros;
+
+    @Param({"500"})
+    private long ackCost;
+
+    @Param({"1000"})
+    private long broadcastCost;
+
+    private AckTracker tracker;
+    private AdaptivePrefetch adaptive;
+    private volatile int currentPrefetch;
+    private BlockingQueue<long[]>[] laneQueues;
+    private Thread[] laneThreads;
+    private ScheduledExecutorService scheduler;
+    private final ConcurrentLinkedQueue<long[]> acksInFlight = new ConcurrentLinkedQueue<>();
+    private final AtomicLong settled = new AtomicLong();
+    private AtomicLongArray latencyMicros;
+    private long nextTag;
+    private long lastCumulativeTag;
+    private long startNanos;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        AckMode mode = setting == Setting.SINGLE_FIXED ? AckMode.SINGLE : AckMode.CUMULATIVE;
+        tracker = new AckTracker(new SimulatedBroker(), mode, 64, PREFETCH_MAX * 2);
+        currentPrefetch = prefetch;
+        latencyMicros = new AtomicLongArray(MAX_LATENCY_US + 1);
+
+        laneQueues = new BlockingQueue[lanes];
+        laneThreads = new Thread[lanes];
+        for (int i = 0; i < lanes; i++) {
+            BlockingQueue<long[]> queue = new LinkedBlockingQueue<>();
+            laneQueues[i] = queue;
+            laneThreads[i] = new Thread(() -> runLane(queue), "lane-" + i);
+            laneThreads[i].setDaemon(true);
+            laneThreads[i].start();
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "acks");
+            t.setDaemon(true);
+            return t;
+        });
+        if (mode == AckMode.CUMULATIVE) {
+            scheduler.scheduleWithFixedDelay(this::flush, 10, 10, TimeUnit.MILLISECONDS);
+        }
+        if (setting == Setting.CUMULATIVE_ADAPTIVE) {
+            adaptive = new AdaptivePrefetch(prefetch, 16, PREFETCH_MAX, TimeUnit.MILLISECONDS.toNanos(50));
+            scheduler.scheduleWithFixedDelay(() -> currentPrefetch =
+                    adaptive.update(1, tracker.drainMeanUnackedNanos(), tracker.unacked()), 100, 100, TimeUnit.MILLISECONDS);
+        }
+        startNanos = System.nanoTime();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        scheduler.shutdownNow();
+        for (Thread lane : laneThreads) lane.interrupt();
+        System.out.printf("%nsetting=%s prefetch=%d acks/s=%.0f p50=%dus p99=%dus%n", setting, currentPrefetch,
+                tracker.getAcksSent() / seconds, percentile(0.50), percentile(0.99));
+    }
+
+    /** One delivery from the broker, made as soon as there is prefetch credit for it. */
+    @Benchmark
+    public void deliver() {
+        long tag = ++nextTag;
+        while (tag - settled() > currentPrefetch) {
+            LockSupport.parkNanos(10_000);
+        }
+        tracker.delivered(tag);
+        laneQueues[(int) (tag % lanes)].add(new long[]{tag, System.nanoTime()});
+    }
+
+    private long settled() {
+        long now = System.nanoTime();
+        long rttNanos = ackRttMicros * 1_000;
+        for (long[] ack; (ack = acksInFlight.peek()) != null && now - ack[2] >= rttNanos; ) {
+            acksInFlight.poll();
+            if (ack[1] == 1) {
+                settled.addAndGet(ack[0] - lastCumulativeTag);
+                lastCumulativeTag = ack[0];
+            } else {
+                settled.incrementAndGet();
+            }
+        }
+        return settled.get();
+    }
+
+    private void runLane(BlockingQueue<long[]> queue) {
+        try {
+            while (true) {
+                long[] delivery = queue.take();
+                Blackhole.consumeCPU(broadcastCost);
+                long micros = (System.nanoTime() - delivery[1]) / 1_000;
+                latencyMicros.incrementAndGet((int) Math.min(Math.max(micros, 0), MAX_LATENCY_US));
+                tracker.complete(delivery[0], true);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void flush() {
+        try {
+            tracker.flush();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long percentile(double p) {
+        long total = 0;
+        for (int i = 0; i <= MAX_LATENCY_US; i++) total += latencyMicros.get(i);
+        long target = (long) Math.ceil(total * p);
+        long seen = 0;
+        for (int i = 0; i <= MAX_LATENCY_US; i++) {
+            seen += latencyMicros.get(i);
+            if (seen >= target && seen > 0) return i;
+        }
+        return MAX_LATENCY_US;
+    }
+
+    private final class SimulatedBroker implements AckTracker.AckSink {
+
+        @Override
+        public void ack(long deliveryTag, boolean multiple) {
+            Blackhole.consumeCPU(ackCost);
+            acksInFlight.add(new long[]{deliveryTag, multiple ? 1 : 0, System.nanoTime()});
+        }
+
+        @Override
+        public void nack(long deliveryTag) {
+            ack(deliveryTag, false);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,22 @@
+package com.chatflow.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of benchmarks.jar: the JMH command line, except that results are written as
+ * JSON (to jmh-result.json unless -rff says otherwise) when no -rf is given, so every run
+ * leaves a file {@link CompareResults} can diff against another commit's.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-rf")) {
+            options.add("-rf");
+            options.add("json");
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
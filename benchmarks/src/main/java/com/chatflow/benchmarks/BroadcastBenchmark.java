@@ -0,0 +1,82 @@
+package com.chatflow.benchmarks;
+
+import com.chatflow.server.handler.OutboundSession;
+import com.chatflow.server.handler.OverflowPolicy;
+import com.chatflow.server.handler.RoomBroadcaster;
+import com.chatflow.server.handler.RoomSessionManager;
+import com.chatflow.server.model.UserInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out of one broker delivery to a room of mock sessions.
+ *
+ * Run with the GC profiler and compare gc.alloc.rate.norm across roomSize:
+ *   java -jar target/benchmarks.jar BroadcastBenchmark -prof gc
+ * "broadcast" stays flat (one frame per delivery), "perSessionFrame" grows with the room.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    private static final String ROOM_ID = "room1";
+
+    @Param({"10", "100", "1000", "10000"})
+    private int roomSize;
+
+    private RoomSessionManager roomSessionManager;
+    private RoomBroadcaster roomBroadcaster;
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        roomSessionManager = new RoomSessionManager(1024, OverflowPolicy.DROP_OLDEST, 4, 65536, 5000, new SimpleMeterRegistry());
+        roomBroadcaster = new RoomBroadcaster(roomSessionManager, Jackson2ObjectMapperBuilder.json().build(), new SimpleMeterRegistry());
+
+        for (int i = 0; i < roomSize; i++) {
+            WebSocketSession session = new NoopWebSocketSession("s" + i);
+            UserInfo user = new UserInfo(String.valueOf(i + 1), "user" + (i + 1), ROOM_ID);
+            roomSessionManager.addUserSession(session, user);
+            roomSessionManager.addUserToRoom(session, ROOM_ID, user);
+        }
+
+        body = ("{\"messageId\":\"5f0c1d2e-8a4b-4c6d-9e7f-0a1b2c3d4e5f\",\"userId\":\"1234\","
+                + "\"username\":\"user1234\",\"message\":\"How are you\",\"timestamp\":\"2025-10-31T12:00:00Z\","
+                + "\"messageType\":\"TEXT\",\"roomId\":\"room1\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() {
+        roomSessionManager.shutdown();
+    }
+
+    @Benchmark
+    public int broadcast() {
+        return roomBroadcaster.broadcast(ROOM_ID, body);
+    }
+
+    /** The previous consumer path: decode the body once, then build a new frame per session. */
+    @Benchmark
+    public int perSessionFrame() throws Exception {
+        String message = new String(body, StandardCharsets.UTF_8);
+        int sent = 0;
+        for (OutboundSession outbound : roomSessionManager.getRoomSnapshot(ROOM_ID)) {
+            WebSocketSession session = outbound.getSession();
+            if (session.isOpen()) {
+                session.sendMessage(new TextMessage(message));
+                sent++;
+            }
+        }
+        return sent;
+    }
+}
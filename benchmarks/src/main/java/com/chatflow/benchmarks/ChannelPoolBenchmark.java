@@ -0,0 +1,81 @@
+package com.chatflow.benchmarks;
+
+import com.chatflow.server.rabbit.ChannelPool;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Channel borrow and return from many threads, against in-memory channels so only the
+ * pool's own slot claiming is measured. With more threads than channels, borrowers also
+ * pay for backing off until a slot frees up.
+ *
+ *   java -jar target/benchmarks.jar ChannelPoolBenchmark
+ * "work" is how long each borrower holds its channel, in Blackhole tokens, standing in
+ * for basicPublish.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+public class ChannelPoolBenchmark {
+
+    @Param({"8", "50"})
+    private int poolSize;
+
+    @Param({"0", "200"})
+    private int work;
+
+    private ChannelPool channelPool;
+
+    @Setup
+    public void setup() throws Exception {
+        channelPool = new ChannelPool("bench", new InMemoryConnectionFactory(), poolSize, 4, 10_000,
+                new SimpleMeterRegistry(), connection -> { }, channel -> { });
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        channelPool.close();
+    }
+
+    @Benchmark
+    public void borrowReturn() throws Exception {
+        Channel channel = channelPool.borrowChannel();
+        if (work > 0) Blackhole.consumeCPU(work);
+        channelPool.returnChannel(channel);
+    }
+
+    /** Hands out connections and channels that are always open and do nothing. */
+    static final class InMemoryConnectionFactory extends ConnectionFactory {
+
+        @Override
+        public Connection newConnection(String clientProvidedName) {
+            return stub(Connection.class, (proxy, method, args) -> switch (method.getName()) {
+                case "createChannel" -> stub(Channel.class, (p, m, a) -> m.getName().equals("isOpen") ? true : defaultValue(m.getReturnType()));
+                case "isOpen" -> true;
+                default -> defaultValue(method.getReturnType());
+            });
+        }
+
+        private static <T> T stub(Class<T> type, java.lang.reflect.InvocationHandler handler) {
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+        }
+
+        private static Object defaultValue(Class<?> type) {
+            if (type == boolean.class) return false;
+            if (type == int.class) return 0;
+            if (type == long.class) return 0L;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.chatflow.benchmarks;
+
+import com.chatflow.server.rabbit.CircuitBreaker;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The breaker check every publish makes, from 8 threads at once. CLOSED is the normal
+ * path; OPEN is what publishers see during a broker outage, before the cooldown ends.
+ *
+ *   java -jar target/benchmarks.jar CircuitBreakerBenchmark
+ * "publishPath" adds the recordSuccess that follows every successful publish.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class CircuitBreakerBenchmark {
+
+    @Param({"CLOSED", "OPEN"})
+    private CircuitBreaker.State state;
+
+    private CircuitBreaker circuitBreaker;
+
+    @Setup
+    public void setup() {
+        circuitBreaker = new CircuitBreaker(1, TimeUnit.HOURS.toMillis(1));
+        if (state == CircuitBreaker.State.OPEN) {
+            circuitBreaker.recordFailure();
+        }
+    }
+
+    @Benchmark
+    public boolean allowRequest() {
+        return circuitBreaker.allowRequest();
+    }
+
+    @Benchmark
+    public boolean publishPath() {
+        boolean allowed = circuitBreaker.allowRequest();
+        if (allowed) circuitBreaker.recordSuccess();
+        return allowed;
+    }
+}
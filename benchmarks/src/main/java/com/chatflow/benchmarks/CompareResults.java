@@ -0,0 +1,105 @@
+package com.chatflow.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Diffs two JMH JSON result files, usually from two commits:
+ *   java -cp target/benchmarks.jar com.chatflow.benchmarks.CompareResults base.json head.json [threshold-%]
+ *
+ * Scores are matched by benchmark, mode and params; group members and profiler metrics
+ * (-prof gc) are compared too. A change counts as a regression when it is worse than the
+ * threshold (default 10%) and larger than the two runs' error bars combined. Rates in ops
+ * per time unit are worse when lower, everything else when higher. Exits with 1 if
+ * anything regressed, so it can gate a build.
+ */
+public class CompareResults {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: CompareResults <base.json> <head.json> [threshold-%]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+        Map<String, JsonNode> base = load(args[0]);
+        Map<String, JsonNode> head = load(args[1]);
+
+        List<String> regressions = new ArrayList<>();
+        System.out.printf("%-72s %14s %14s %9s%n", "Benchmark", "Base", "Head", "Change");
+        for (Map.Entry<String, JsonNode> entry : head.entrySet()) {
+            JsonNode before = base.get(entry.getKey());
+            JsonNode after = entry.getValue();
+            String unit = after.get("scoreUnit").asText();
+            if (before == null) {
+                System.out.printf("%-72s %14s %14.3f %9s  %s%n", entry.getKey(), "-", after.get("score").asDouble(), "new", unit);
+                continue;
+            }
+
+            double was = before.get("score").asDouble();
+            double now = after.get("score").asDouble();
+            double change = was == 0 ? 0 : (now - was) * 100 / was;
+            boolean higherIsBetter = unit.startsWith("ops/");
+            double worse = higherIsBetter ? -change : change;
+            double noise = error(before) + error(after);
+            boolean regressed = worse > threshold && Math.abs(now - was) > noise;
+            if (regressed) regressions.add(entry.getKey());
+
+            System.out.printf("%-72s %14.3f %14.3f %+8.1f%%  %s%s%n", entry.getKey(), was, now, change, unit,
+                    regressed ? "  REGRESSION" : "");
+        }
+        for (String key : base.keySet()) {
+            if (!head.containsKey(key)) {
+                System.out.printf("%-72s %14.3f %14s %9s%n", key, base.get(key).get("score").asDouble(), "-", "gone");
+            }
+        }
+
+        System.out.println("");
+        System.out.println(regressions.isEmpty()
+                ? "No regressions over " + threshold + "%"
+                : regressions.size() + " regression(s) over " + threshold + "%");
+        System.exit(regressions.isEmpty() ? 0 : 1);
+    }
+
+    /** Every metric of every result, keyed as described on {@link #key(JsonNode)}. */
+    private static Map<String, JsonNode> load(String file) throws Exception {
+        Map<String, JsonNode> metrics = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(new File(file))) {
+            String key = key(result);
+            metrics.put(key, result.get("primaryMetric"));
+            Iterator<Map.Entry<String, JsonNode>> secondary = result.path("secondaryMetrics").fields();
+            while (secondary.hasNext()) {
+                Map.Entry<String, JsonNode> metric = secondary.next();
+                metrics.put(key + " :" + metric.getKey(), metric.getValue());
+            }
+        }
+        return metrics;
+    }
+
+    /** Name, mode and params, e.g. "BroadcastBenchmark.broadcast avgt roomSize=100". */
+    private static String key(JsonNode result) {
+        String name = result.get("benchmark").asText();
+        StringBuilder key = new StringBuilder(name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1));
+        key.append(' ').append(result.get("mode").asText());
+        JsonNode params = result.get("params");
+        if (params != null) {
+            Iterator<Map.Entry<String, JsonNode>> fields = params.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> param = fields.next();
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText());
+            }
+        }
+        return key.toString();
+    }
+
+    private static double error(JsonNode metric) {
+        double error = metric.path("scoreError").asDouble(0);
+        return Double.isNaN(error) ? 0 : error;
+    }
+}
@@ -0,0 +1,94 @@
+package com.chatflow.benchmarks;
+
+import com.chatflow.server.handler.BinaryFrameCodec;
+import com.chatflow.server.handler.ChatMessageScanner;
+import com.chatflow.server.model.ChatMessage;
+import com.chatflow.server.validation.ChatMessageValidator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import jakarta.validation.ValidatorFactory;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.socket.TextMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame ingress cost: the bind / validate / re-serialize path against the
+ * single-pass streaming scan, both ending with the bytes handed to the broker.
+ *
+ * A node taking 10k-100k msg/s has a 100-10 us budget per frame; dividing the target
+ * rate by the ops/s reported here gives the number of cores spent on ingress parsing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IngressBenchmark {
+
+    @Param({"11", "480"})
+    private int messageLength;
+
+    private ObjectMapper objectMapper;
+    private ValidatorFactory validatorFactory;
+    private Validator validator;
+    private ChatMessageScanner scanner;
+    private TextMessage frame;
+    private ByteBuffer binaryFrame;
+
+    @Setup
+    public void setup() throws Exception {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        validatorFactory = Validation.buildDefaultValidatorFactory();
+        validator = validatorFactory.getValidator();
+        scanner = new ChatMessageScanner(objectMapper.getFactory());
+
+        String text = "x".repeat(messageLength);
+        frame = new TextMessage("{\"messageId\":\"5f0c1d2e-8a4b-4c6d-9e7f-0a1b2c3d4e5f\",\"userId\":\"1234\","
+                + "\"username\":\"user1234\",\"message\":\"" + text + "\",\"roomId\":\"room7\","
+                + "\"messageType\":\"TEXT\",\"timestamp\":1761912000.123456789}");
+        binaryFrame = ByteBuffer.wrap(BinaryFrameCodec.encode(
+                objectMapper.readValue(frame.getPayload(), ChatMessage.class)));
+    }
+
+    @TearDown
+    public void tearDown() {
+        validatorFactory.close();
+    }
+
+    @Benchmark
+    public byte[] bindValidateSerialize() throws Exception {
+        ChatMessage chatMessage = objectMapper.readValue(frame.getPayload(), ChatMessage.class);
+        Set<ConstraintViolation<ChatMessage>> violations = validator.validate(chatMessage);
+        if (!violations.isEmpty()) return null;
+        return objectMapper.writeValueAsString(chatMessage).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] bindCompiledValidateSerialize() throws Exception {
+        ChatMessage chatMessage = objectMapper.readValue(frame.getPayload(), ChatMessage.class);
+        if (ChatMessageValidator.validate(chatMessage) != 0) return null;
+        return objectMapper.writeValueAsString(chatMessage).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Binary-protocol ingress: decode, validate, publish in the JSON broker form. */
+    @Benchmark
+    public byte[] binaryDecodeValidate() throws Exception {
+        ChatMessage chatMessage = BinaryFrameCodec.decode(binaryFrame);
+        if (ChatMessageValidator.validate(chatMessage) != 0) return null;
+        return objectMapper.writeValueAsBytes(chatMessage);
+    }
+
+    @Benchmark
+    public byte[] streamingScan() {
+        byte[] body = frame.asBytes();
+        return scanner.scan(body) != null ? body : null;
+    }
+}
@@ -0,0 +1,55 @@
+package com.chatflow.benchmarks;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory session that accepts every frame and keeps only a reference to the last one,
+ * so benchmarks measure the server's fan-out cost rather than socket I/O.
+ */
+public class NoopWebSocketSession implements WebSocketSession {
+
+    private final String id;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private volatile boolean open = true;
+    private WebSocketMessage<?> lastMessage;
+
+    public NoopWebSocketSession(String id) {
+        this.id = id;
+    }
+
+    public WebSocketMessage<?> getLastMessage() { return lastMessage; }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) {
+        lastMessage = message;
+    }
+
+    @Override public String getId() { return id; }
+    @Override public URI getUri() { return null; }
+    @Override public HttpHeaders getHandshakeHeaders() { return HttpHeaders.EMPTY; }
+    @Override public Map<String, Object> getAttributes() { return attributes; }
+    @Override public Principal getPrincipal() { return null; }
+    @Override public InetSocketAddress getLocalAddress() { return null; }
+    @Override public InetSocketAddress getRemoteAddress() { return null; }
+    @Override public String getAcceptedProtocol() { return null; }
+    @Override public void setTextMessageSizeLimit(int messageSizeLimit) {}
+    @Override public int getTextMessageSizeLimit() { return Integer.MAX_VALUE; }
+    @Override public void setBinaryMessageSizeLimit(int messageSizeLimit) {}
+    @Override public int getBinaryMessageSizeLimit() { return Integer.MAX_VALUE; }
+    @Override public List<WebSocketExtension> getExtensions() { return Collections.emptyList(); }
+    @Override public boolean isOpen() { return open; }
+    @Override public void close() { open = false; }
+    @Override public void close(CloseStatus status) { open = false; }
+}
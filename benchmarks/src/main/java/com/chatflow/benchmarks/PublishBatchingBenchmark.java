@@ -0,0 +1,97 @@
+package com.chatflow.benchmarks;
+
+import com.chatflow.server.rabbit.BatchEnvelope;
+import com.chatflow.server.rabbit.BatchingPublisher;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Producer throughput and enqueue-to-publish p99 for the micro-batching publisher at
+ * several linger settings ({@code lingerMs = 0} publishes every message on its own).
+ *
+ * The sink stands in for the broker: each publish burns {@code publishCost} JMH CPU tokens,
+ * roughly the channel borrow plus one AMQP frame. The p99 is printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Threads(8)
+@Fork(1)
+public class PublishBatchingBenchmark {
+
+    private static final int MAX_LATENCY_US = 100_000;
+
+    @Param({"0", "1", "2", "5", "10"})
+    private long lingerMs;
+
+    @Param({"20"})
+    private int rooms;
+
+    @Param({"2000"})
+    private long publishCost;
+
+    private String[] roomIds;
+    private BatchingPublisher publisher;
+    private AtomicLongArray latencyMicros;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        roomIds = new String[rooms];
+        for (int i = 0; i < rooms; i++) roomIds[i] = "room" + (i + 1);
+        latencyMicros = new AtomicLongArray(MAX_LATENCY_US + 1);
+        publisher = lingerMs > 0 ? new BatchingPublisher(this::publish, lingerMs, 64) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (publisher != null) publisher.shutdown();
+        System.out.printf("%nlingerMs=%d p50=%dus p99=%dus%n", lingerMs, percentile(0.50), percentile(0.99));
+    }
+
+    @Benchmark
+    public void send() {
+        byte[] body = new byte[200];
+        ByteBuffer.wrap(body).putLong(System.nanoTime());
+        String roomId = roomIds[ThreadLocalRandom.current().nextInt(rooms)];
+
+        if (publisher != null) {
+            publisher.add(roomId, body);
+        } else {
+            publish(roomId, body, 0, 0);
+        }
+    }
+
+    private void publish(String roomId, byte[] body, int count, long ingressNanos) {
+        Blackhole.consumeCPU(publishCost);
+        long now = System.nanoTime();
+        if (count > 0) {
+            BatchEnvelope.unpack(body, message -> record(now, message));
+        } else {
+            record(now, body);
+        }
+    }
+
+    private void record(long now, byte[] message) {
+        long micros = (now - ByteBuffer.wrap(message).getLong()) / 1_000;
+        latencyMicros.incrementAndGet((int) Math.min(Math.max(micros, 0), MAX_LATENCY_US));
+    }
+
+    private long percentile(double p) {
+        long total = 0;
+        for (int i = 0; i <= MAX_LATENCY_US; i++) total += latencyMicros.get(i);
+        long target = (long) Math.ceil(total * p);
+        long seen = 0;
+        for (int i = 0; i <= MAX_LATENCY_US; i++) {
+            seen += latencyMicros.get(i);
+            if (seen >= target && seen > 0) return i;
+        }
+        return MAX_LATENCY_US;
+    }
+}
@@ -0,0 +1,110 @@
+package com.chatflow.benchmarks;
+
+import com.chatflow.server.handler.OutboundSession;
+import com.chatflow.server.handler.OverflowPolicy;
+import com.chatflow.server.handler.RoomSessionManager;
+import com.chatflow.server.model.UserInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Session registry under contention. Every room starts with a few resident members, so
+ * joins and leaves change membership without activating or deactivating the room; fewer
+ * rooms means more threads updating the same room snapshot.
+ *
+ *   java -jar target/benchmarks.jar RoomSessionManagerBenchmark
+ * "membership" runs joinLeave and lookup side by side: 4 threads change membership while
+ * 4 read room snapshots, like broadcasts racing joins. "connectDisconnect" is a session's
+ * whole life from 8 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoomSessionManagerBenchmark {
+
+    private static final int RESIDENTS_PER_ROOM = 8;
+
+    @Param({"16", "4096"})
+    private int rooms;
+
+    private RoomSessionManager roomSessionManager;
+    private String[] roomIds;
+    private final AtomicInteger nextSession = new AtomicInteger();
+
+    @Setup
+    public void setup() {
+        roomSessionManager = new RoomSessionManager(1024, OverflowPolicy.DROP_OLDEST, 4, 1 << 20, 5000, new SimpleMeterRegistry());
+        roomIds = new String[rooms];
+        for (int r = 0; r < rooms; r++) {
+            roomIds[r] = "room" + r;
+            for (int i = 0; i < RESIDENTS_PER_ROOM; i++) {
+                WebSocketSession session = new NoopWebSocketSession("resident-" + r + "-" + i);
+                UserInfo user = new UserInfo(String.valueOf(r * RESIDENTS_PER_ROOM + i + 1), "resident" + i, roomIds[r]);
+                roomSessionManager.addUserSession(session, user);
+                roomSessionManager.addUserToRoom(session, roomIds[r], user);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        roomSessionManager.shutdown();
+    }
+
+    /** One benchmark thread's own session and its walk over the rooms. */
+    @State(Scope.Thread)
+    public static class Member {
+        WebSocketSession session;
+        UserInfo user;
+        int cursor;
+
+        @Setup
+        public void setup(RoomSessionManagerBenchmark benchmark) {
+            int id = benchmark.nextSession.incrementAndGet();
+            session = new NoopWebSocketSession("member-" + id);
+            user = new UserInfo(String.valueOf(1_000_000 + id), "member" + id, null);
+            benchmark.roomSessionManager.addUserSession(session, user);
+            cursor = id * 7919;
+        }
+
+        String nextRoom(String[] roomIds) {
+            cursor = cursor * 1_103_515_245 + 12_345;
+            return roomIds[(cursor >>> 1) % roomIds.length];
+        }
+    }
+
+    @Benchmark
+    @Group("membership")
+    @GroupThreads(4)
+    public void joinLeave(Member member) {
+        String roomId = member.nextRoom(roomIds);
+        roomSessionManager.addUserToRoom(member.session, roomId, member.user);
+        roomSessionManager.removeUserFromRoom(member.session, roomId);
+    }
+
+    @Benchmark
+    @Group("membership")
+    @GroupThreads(4)
+    public OutboundSession[] lookup(Member member) {
+        return roomSessionManager.getRoomSnapshot(member.nextRoom(roomIds));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean connectDisconnect(Member member) {
+        String roomId = member.nextRoom(roomIds);
+        WebSocketSession session = new NoopWebSocketSession(roomId);
+        roomSessionManager.addUserSession(session, member.user);
+        roomSessionManager.addUserToRoom(session, roomId, member.user);
+        boolean registered = roomSessionManager.getOutbound(session) != null;
+        roomSessionManager.removeSession(session);
+        return registered;
+    }
+}
@@ -0,0 +1,90 @@
+package com.chatflow.client;
+
+import com.chatflow.client.model.ChatMessage;
+import com.chatflow.client.model.MessageType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Client side of the server's binary chat frame (see the server's BinaryFrameCodec):
+ * version, message type, numeric user and room ids, 128-bit message id,
+ * epoch-nanosecond timestamp, then length-prefixed username and message. The client sends
+ * version 1; the server answers with version 2, which adds the server message id and the
+ * room's node sequence number after the timestamp. The message id is rendered in the
+ * server's 13-character text form, so binary and JSON frames carry the same {@code sid}.
+ */
+public final class BinaryFrameCodec {
+
+    private static final byte VERSION = 1;
+    private static final byte STAMPED_VERSION = 2;
+    private static final int HEADER_LENGTH = 1 + 1 + 8 + 4 + 16 + 8;
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+    // Crockford base32, as the server's MessageIdGenerator formats ids
+    private static final char[] SID_ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final int SID_LENGTH = 13;
+
+    private BinaryFrameCodec() {}
+
+    public static byte[] encode(ChatMessage m) {
+        byte[] username = m.getUsername().getBytes(StandardCharsets.UTF_8);
+        byte[] message = m.getMessage().getBytes(StandardCharsets.UTF_8);
+        UUID messageId = UUID.fromString(m.getMessageId());
+        Instant timestamp = m.getTimestamp();
+
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_LENGTH + 1 + username.length + 2 + message.length);
+        buf.put(VERSION);
+        buf.put((byte) m.getMessageType().ordinal());
+        buf.putLong(Long.parseLong(m.getUserId()));
+        buf.putInt(Integer.parseInt(m.getRoomId().replace("room", "")));
+        buf.putLong(messageId.getMostSignificantBits());
+        buf.putLong(messageId.getLeastSignificantBits());
+        buf.putLong(timestamp.getEpochSecond() * 1_000_000_000L + timestamp.getNano());
+        buf.put((byte) username.length);
+        buf.put(username);
+        buf.putShort((short) message.length);
+        buf.put(message);
+        return buf.array();
+    }
+
+    public static ChatMessage decode(ByteBuffer frame) {
+        ByteBuffer buf = frame.duplicate();
+        byte version = buf.get();
+        if (version != VERSION && version != STAMPED_VERSION) throw new IllegalArgumentException("Unsupported frame version");
+
+        ChatMessage m = new ChatMessage();
+        m.setMessageType(MESSAGE_TYPES[buf.get() & 0xFF]);
+        m.setUserId(Long.toString(buf.getLong()));
+        m.setRoomId("room" + buf.getInt());
+        m.setMessageId(new UUID(buf.getLong(), buf.getLong()).toString());
+        long epochNanos = buf.getLong();
+        m.setTimestamp(Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L),
+                Math.floorMod(epochNanos, 1_000_000_000L)));
+        if (version == STAMPED_VERSION) {
+            long sid = buf.getLong();
+            long seq = buf.getLong();
+            m.setSid(sid != 0 ? formatSid(sid) : null);
+            m.setSeq(seq != 0 ? seq : null);
+        }
+        m.setUsername(readString(buf, buf.get() & 0xFF));
+        m.setMessage(readString(buf, buf.getShort() & 0xFFFF));
+        return m;
+    }
+
+    static String formatSid(long sid) {
+        char[] text = new char[SID_LENGTH];
+        for (int i = SID_LENGTH - 1; i >= 0; i--) {
+            text[i] = SID_ALPHABET[(int) (sid & 31)];
+            sid >>>= 5;
+        }
+        return new String(text);
+    }
+
+    private static String readString(ByteBuffer buf, int length) {
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
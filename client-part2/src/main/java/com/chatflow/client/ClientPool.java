@@ -1,6 +1,8 @@
 package com.chatflow.client;
 
 import com.chatflow.client.model.ChatMessage;
+import com.chatflow.client.model.WireProtocol;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.net.URI;
@@ -13,11 +15,16 @@ public class ClientPool {
     private static final int CLIENT_COUNT = 100;
     private final List<ClientWorker> clients = new ArrayList<>();
     private ExecutorService executorService;
+    private final WireProtocol protocol;
+
+    public ClientPool(@Value("${chatflow.protocol:JSON}") WireProtocol protocol) {
+        this.protocol = protocol;
+    }
 
     public void startClients(BlockingQueue<ChatMessage> queue, String serverUrl,
                              MetricsCollector metrics) throws Exception {
 
-        System.out.println("Starting " + CLIENT_COUNT + " clients");
+        System.out.println("Starting " + CLIENT_COUNT + " clients (" + protocol + " protocol)");
 
         executorService = Executors.newFixedThreadPool(CLIENT_COUNT);
 
@@ -26,7 +33,7 @@ public class ClientPool {
             String username = "user" + userId;
 
             ClientWorker worker = new ClientWorker(
-                    new URI(serverUrl), userId, username, queue, metrics
+                    new URI(serverUrl), userId, username, queue, metrics, protocol
             );
 
             clients.add(worker);
@@ -7,6 +7,7 @@ import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
@@ -24,9 +25,20 @@ public class ClientWorker implements Runnable {
     private WebSocketClient client;
     private final Map<String, Instant> pendingMessages = new ConcurrentHashMap<>();
     private final String assignedRoomId;
+    private final WireProtocol protocol;
+    // Last seq seen, in the connected server's node sequence; broadcasts arrive on the socket's read thread only
+    private long lastSeq = 0;
+    // The server takes the session out of the room on LEAVE; the worker thread re-joins before sending on
+    private boolean inRoom = true;
 
     public ClientWorker(URI serverUri, String userId, String username,
                         BlockingQueue<ChatMessage> messageQueue, MetricsCollector metrics) {
+        this(serverUri, userId, username, messageQueue, metrics, WireProtocol.JSON);
+    }
+
+    public ClientWorker(URI serverUri, String userId, String username,
+                        BlockingQueue<ChatMessage> messageQueue, MetricsCollector metrics,
+                        WireProtocol protocol) {
         this.serverUri = serverUri;
         this.userId = userId;
         this.username = username;
@@ -35,6 +47,7 @@ public class ClientWorker implements Runnable {
         this.objectMapper = new ObjectMapper();
         this.objectMapper.registerModule(new JavaTimeModule());
         this.assignedRoomId = "room" + random.nextInt(1, 21);
+        this.protocol = protocol;
     }
 
     @Override
@@ -48,6 +61,9 @@ public class ClientWorker implements Runnable {
             while (running) {
                 ChatMessage msg = messageQueue.poll(200, TimeUnit.MILLISECONDS);
                 if (msg != null) {
+                    if (!inRoom && msg.getMessageType() != MessageType.JOIN) {
+                        sendJoin();
+                    }
                     sendMessage(msg);
                 }
             }
@@ -69,6 +85,11 @@ public class ClientWorker implements Runnable {
                 handleBroadcast(message);
             }
 
+            @Override
+            public void onMessage(ByteBuffer bytes) {
+                handleBinaryBroadcast(bytes);
+            }
+
             @Override
             public void onClose(int code, String reason, boolean remote) {}
 
@@ -84,6 +105,7 @@ public class ClientWorker implements Runnable {
             userInfo.put("userId", userId);
             userInfo.put("username", username);
             userInfo.put("roomId", assignedRoomId);
+            userInfo.put("protocol", protocol.name());
 
             client.send(objectMapper.writeValueAsString(userInfo));
         } catch (Exception e) {}
@@ -93,7 +115,28 @@ public class ClientWorker implements Runnable {
         try {
             Map<String, Object> msg = objectMapper.readValue(message, Map.class);
 
-            if ("REGISTERED".equals(msg.get("status"))) return;
+            if ("REGISTERED".equals(msg.get("status")) || "PRESENCE".equals(msg.get("status"))) return;
+            if ("THROTTLED".equals(msg.get("status"))) {
+                Instant sendTime = pendingMessages.remove((String) msg.get("messageId"));
+                if (sendTime != null) {
+                    metrics.recordMessageSent(sendTime, Instant.now(), (String) msg.get("messageType"),
+                            (String) msg.get("roomId"), 429, false);
+                }
+                return;
+            }
+            if ("RECENT".equals(msg.get("status"))) {
+                // Catch-up frames only seed the sequence; they are not counted as deliveries
+                if (lastSeq == 0 && msg.get("messages") instanceof List<?> recent && !recent.isEmpty()
+                        && recent.get(recent.size() - 1) instanceof Map<?, ?> newest
+                        && newest.get("seq") instanceof Number seq) {
+                    lastSeq = seq.longValue();
+                }
+                return;
+            }
+
+            if (msg.get("seq") instanceof Number seq) {
+                trackSequence(seq.longValue());
+            }
 
             String messageId = (String) msg.get("messageId");
             if (messageId != null && pendingMessages.containsKey(messageId)) {
@@ -102,12 +145,51 @@ public class ClientWorker implements Runnable {
 
                 String messageType = (String) msg.getOrDefault("messageType", "TEXT");
                 String roomId = (String) msg.getOrDefault("roomId", "unknown");
+                if ("LEAVE".equals(messageType)) {
+                    // Frames sent while out of the room are not gaps; the re-join's catch-up reseeds
+                    lastSeq = 0;
+                }
 
                 metrics.recordMessageSent(sendTime, ackTime, messageType, roomId, 200, true);
+                if (msg.get("stages") instanceof Map<?, ?> stages) {
+                    metrics.recordStages(epochNanos(sendTime), stages, epochNanos(ackTime));
+                }
             }
         } catch (Exception e) {}
     }
 
+    private void handleBinaryBroadcast(ByteBuffer bytes) {
+        try {
+            ChatMessage msg = BinaryFrameCodec.decode(bytes);
+            if (msg.getSeq() != null) {
+                trackSequence(msg.getSeq());
+            }
+            Instant sendTime = pendingMessages.remove(msg.getMessageId());
+            if (sendTime != null) {
+                if (msg.getMessageType() == MessageType.LEAVE) {
+                    lastSeq = 0;
+                }
+                metrics.recordMessageSent(sendTime, Instant.now(), msg.getMessageType().name(),
+                        msg.getRoomId(), 200, true);
+            }
+        } catch (Exception e) {}
+    }
+
+    private static long epochNanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    private void trackSequence(long seq) {
+        if (lastSeq != 0) {
+            if (seq > lastSeq + 1) {
+                metrics.recordSequenceGap(seq - lastSeq - 1);
+            } else if (seq <= lastSeq) {
+                metrics.recordOutOfOrder();
+            }
+        }
+        lastSeq = Math.max(lastSeq, seq);
+    }
+
     private void sendMessage(ChatMessage chatMessage) {
         try {
             if (client != null && client.isOpen()) {
@@ -115,7 +197,12 @@ public class ClientWorker implements Runnable {
                 chatMessage.setRoomId(assignedRoomId);
 
                 pendingMessages.put(chatMessage.getMessageId(), sendTime);
-                client.send(objectMapper.writeValueAsString(chatMessage));
+                inRoom = chatMessage.getMessageType() != MessageType.LEAVE;
+                if (protocol == WireProtocol.BINARY) {
+                    client.send(BinaryFrameCodec.encode(chatMessage));
+                } else {
+                    client.send(objectMapper.writeValueAsString(chatMessage));
+                }
             }
         } catch (Exception e) {}
     }
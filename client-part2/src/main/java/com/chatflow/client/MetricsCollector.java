@@ -11,10 +11,23 @@ public class MetricsCollector {
     private final AtomicInteger successCount = new AtomicInteger(0);
     private final AtomicInteger failureCount = new AtomicInteger(0);
     private final AtomicInteger connections = new AtomicInteger(0);
+    private final AtomicLong sequenceGaps = new AtomicLong(0);
+    private final AtomicInteger outOfOrder = new AtomicInteger(0);
     private final List<MessageMetric> metrics = Collections.synchronizedList(new ArrayList<>());
     private final AtomicLong startTime = new AtomicLong(0);
     private final AtomicLong endTime = new AtomicLong(0);
 
+    /** Stage names in path order; each span runs from the previous timestamp to its own. */
+    private static final String[] STAGES = {"ingress", "publish", "deliver", "broadcast", "receive"};
+    private static final String[] STAGE_LABELS = {"Client -> server", "Server queue", "Broker", "Fan-out", "Server -> client"};
+    private final List<List<Long>> stageMicros = new ArrayList<>();
+
+    {
+        for (int i = 0; i < STAGES.length; i++) {
+            stageMicros.add(Collections.synchronizedList(new ArrayList<>()));
+        }
+    }
+
     public static class MessageMetric {
         public final Instant sendTime;
         public final Instant ackTime;
@@ -49,6 +62,33 @@ public class MetricsCollector {
         }
     }
 
+    /**
+     * Splits one message's round trip using the server's {@code "stages"} trailer. Times are
+     * epoch nanoseconds; spans crossing machines are only as good as their clock sync. A
+     * span is skipped when either end is missing.
+     */
+    public void recordStages(long sendNanos, Map<?, ?> stages, long receiveNanos) {
+        long previous = sendNanos;
+        for (int i = 0; i < STAGES.length; i++) {
+            long at = i == STAGES.length - 1 ? receiveNanos
+                    : stages.get(STAGES[i]) instanceof Number n ? n.longValue() : 0;
+            if (at > 0 && previous > 0) {
+                stageMicros.get(i).add((at - previous) / 1_000);
+            }
+            previous = at;
+        }
+    }
+
+    /** Broadcasts skipped between two received sequence numbers on one connection. */
+    public void recordSequenceGap(long missing) {
+        sequenceGaps.addAndGet(missing);
+    }
+
+    /** A broadcast whose room sequence number was not above the last one seen. */
+    public void recordOutOfOrder() {
+        outOfOrder.incrementAndGet();
+    }
+
     public void incrementConnections() {
         connections.incrementAndGet();
     }
@@ -73,6 +113,10 @@ public class MetricsCollector {
         System.out.println("  Failed: " + failureCount.get());
         System.out.println("  Connections: " + connections.get());
 
+        System.out.println("\nOrdering:");
+        System.out.println("  Missing (sequence gaps): " + sequenceGaps.get());
+        System.out.println("  Out of order / repeated: " + outOfOrder.get());
+
         System.out.println("\nPerformance:");
         System.out.printf("  Runtime: %.2f seconds%n", totalSec);
         System.out.printf("  Throughput: %.2f msg/s%n", successCount.get() / totalSec);
@@ -101,6 +145,21 @@ public class MetricsCollector {
             System.out.printf("  Max: %d ms%n", max);
         }
 
+        if (!stageMicros.get(STAGES.length - 1).isEmpty()) {
+            System.out.println("\nLatency by Stage (ms, mean / p50 / p99):");
+            for (int i = 0; i < STAGES.length; i++) {
+                List<Long> spans;
+                synchronized (stageMicros.get(i)) {
+                    spans = new ArrayList<>(stageMicros.get(i));
+                }
+                if (spans.isEmpty()) continue;
+                Collections.sort(spans);
+                double mean = spans.stream().mapToLong(Long::longValue).average().orElse(0) / 1000.0;
+                System.out.printf("  %-18s %8.2f / %8.2f / %8.2f%n", STAGE_LABELS[i] + ":", mean,
+                        spans.get(spans.size() / 2) / 1000.0, spans.get((int) (spans.size() * 0.99)) / 1000.0);
+            }
+        }
+
         System.out.println("\n" + "=".repeat(60));
     }
 
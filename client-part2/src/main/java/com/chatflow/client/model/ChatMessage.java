@@ -1,5 +1,6 @@
 package com.chatflow.client.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.time.Instant;
 import java.util.UUID;
@@ -21,6 +22,13 @@ public class ChatMessage {
     private MessageType messageType;
     private Instant timestamp;
 
+    // Set by the server on broadcasts: its message id and the room's sequence number
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String sid;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long seq;
+
     public ChatMessage() {
         this.messageId = UUID.randomUUID().toString();
     }
@@ -57,4 +65,10 @@ public class ChatMessage {
 
     public Instant getTimestamp() { return timestamp; }
     public void setTimestamp(Instant timestamp) { this.timestamp = timestamp; }
+
+    public String getSid() { return sid; }
+    public void setSid(String sid) { this.sid = sid; }
+
+    public Long getSeq() { return seq; }
+    public void setSeq(Long seq) { this.seq = seq; }
 }
\ No newline at end of file
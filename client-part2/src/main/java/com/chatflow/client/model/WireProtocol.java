@@ -0,0 +1,6 @@
+package com.chatflow.client.model;
+
+public enum WireProtocol {
+    JSON,
+    BINARY
+}
@@ -0,0 +1,56 @@
+package com.chatflow.client;
+
+import com.chatflow.client.model.ChatMessage;
+import com.chatflow.client.model.MessageType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BinaryFrameCodecTest {
+
+    @Test
+    void stampedFrameCarriesTheServersTextSid() {
+        ChatMessage m = BinaryFrameCodec.decode(stampedFrame(0x0123456789ABCDEFL, 42));
+
+        // Same 13-character form as "sid" in the server's JSON frames
+        assertEquals("028T5CY4TQKFF", m.getSid());
+        assertEquals(42L, m.getSeq());
+        assertEquals("room7", m.getRoomId());
+        assertEquals("alice", m.getUsername());
+        assertEquals("hi", m.getMessage());
+    }
+
+    @Test
+    void unstampedFieldsDecodeAsMissing() {
+        ChatMessage m = BinaryFrameCodec.decode(stampedFrame(0, 0));
+        assertNull(m.getSid());
+        assertNull(m.getSeq());
+    }
+
+    @Test
+    void formatKeepsLeadingZeros() {
+        assertEquals("0000000000001", BinaryFrameCodec.formatSid(1));
+        assertEquals("0000000000010", BinaryFrameCodec.formatSid(32));
+    }
+
+    private static ByteBuffer stampedFrame(long sid, long seq) {
+        byte[] username = "alice".getBytes(StandardCharsets.UTF_8);
+        byte[] message = "hi".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(64 + username.length + message.length);
+        buf.put((byte) 2);
+        buf.put((byte) MessageType.TEXT.ordinal());
+        buf.putLong(17);
+        buf.putInt(7);
+        buf.putLong(1).putLong(2);
+        buf.putLong(1_700_000_000_000_000_000L);
+        buf.putLong(sid);
+        buf.putLong(seq);
+        buf.put((byte) username.length).put(username);
+        buf.putShort((short) message.length).put(message);
+        return buf.flip();
+    }
+}
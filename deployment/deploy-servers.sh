@@ -85,9 +85,11 @@ INSTANCE_IPS=$(aws ec2 describe-instances \
     --query 'Reservations[*].Instances[*].PublicIpAddress' \
     --output text)
 
+# Each server needs its own message id node (0-1023)
+NODE=0
 for IP in $INSTANCE_IPS; do
     echo ""
-    echo "📦 Deploying to $IP..."
+    echo "📦 Deploying to $IP (message id node $NODE)..."
 
     # Copy JAR
     scp -i ~/.ssh/your-key.pem \
@@ -98,14 +100,14 @@ for IP in $INSTANCE_IPS; do
     # Create systemd service
     ssh -i ~/.ssh/your-key.pem \
         -o StrictHostKeyChecking=no \
-        ec2-user@$IP << 'EOF'
+        ec2-user@$IP "MESSAGE_ID_NODE=$NODE bash -s" << 'EOF'
 # Install Java if not present
 if ! command -v java &> /dev/null; then
     sudo yum install -y java-17-amazon-corretto
 fi
 
 # Create systemd service
-sudo tee /etc/systemd/system/chatflow.service > /dev/null << 'SERVICE'
+sudo tee /etc/systemd/system/chatflow.service > /dev/null << SERVICE
 [Unit]
 Description=ChatFlow Server
 After=network.target
@@ -113,7 +115,7 @@ After=network.target
 [Service]
 User=ec2-user
 WorkingDirectory=/home/ec2-user
-ExecStart=/usr/bin/java -jar /home/ec2-user/chatflow-server.jar
+ExecStart=/usr/bin/java -jar /home/ec2-user/chatflow-server.jar --chatflow.message-id.node=${MESSAGE_ID_NODE}
 SuccessExitStatus=143
 TimeoutStopSec=10
 Restart=on-failure
@@ -132,6 +134,7 @@ echo "✅ Service started"
 EOF
 
     echo "✅ Deployed to $IP"
+    NODE=$((NODE + 1))
 done
 
 echo ""
@@ -0,0 +1,213 @@
+package com.chatflow.monitoring;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Reads a flight recording from a ChatFlow server and summarizes the chatflow.* events:
+ * latency percentiles per stage and per room, and the sessions with the most slow writes.
+ * Events are streamed from the file one at a time; only their durations are kept.
+ */
+public class JfrSummary {
+
+    private static final String INGRESS = "chatflow.Ingress";
+    private static final String PUBLISH = "chatflow.Publish";
+    private static final String BROADCAST = "chatflow.Broadcast";
+    private static final String SESSION_WRITE = "chatflow.SessionWrite";
+    private static final List<String> STAGES = List.of(INGRESS, PUBLISH, BROADCAST, SESSION_WRITE);
+
+    private final String jfrFile;
+    private final int topRooms;
+    private final int topSessions;
+
+    private final Map<String, Samples> stages = new LinkedHashMap<>();
+    private final Map<String, Map<String, Samples>> rooms = new HashMap<>();
+    private final Map<String, Samples> sessions = new HashMap<>();
+    private final Map<String, Integer> outcomes = new TreeMap<>();
+    private final Samples fanOut = new Samples();
+    private long publishFailures;
+    private long writeFailures;
+
+    public JfrSummary(String jfrFile, int topRooms, int topSessions) {
+        this.jfrFile = jfrFile;
+        this.topRooms = topRooms;
+        this.topSessions = topSessions;
+        for (String stage : STAGES) {
+            stages.put(stage, new Samples());
+        }
+    }
+
+    public void analyze() {
+        try {
+            read();
+            print();
+        } catch (Exception e) {
+            System.err.println("Error reading recording: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void read() throws IOException {
+        try (RecordingFile recording = new RecordingFile(Path.of(jfrFile))) {
+            while (recording.hasMoreEvents()) {
+                RecordedEvent event = recording.readEvent();
+                String stage = event.getEventType().getName();
+                Samples samples = stages.get(stage);
+                if (samples == null) continue;
+
+                long nanos = event.getDuration().toNanos();
+                samples.add(nanos);
+
+                switch (stage) {
+                    case INGRESS:
+                        outcomes.merge(String.valueOf(event.getString("outcome")), 1, Integer::sum);
+                        addRoom(event.getString("roomId"), stage, nanos);
+                        break;
+                    case PUBLISH:
+                        if (!event.getBoolean("published")) publishFailures++;
+                        addRoom(event.getString("roomId"), stage, nanos);
+                        break;
+                    case BROADCAST:
+                        fanOut.add(event.getInt("fanOut"));
+                        addRoom(event.getString("roomId"), stage, nanos);
+                        break;
+                    default:
+                        if (event.getBoolean("failed")) writeFailures++;
+                        sessions.computeIfAbsent(event.getString("sessionId"), id -> new Samples()).add(nanos);
+                }
+            }
+        }
+    }
+
+    private void addRoom(String roomId, String stage, long nanos) {
+        if (roomId == null) return;
+        rooms.computeIfAbsent(roomId, id -> new HashMap<>())
+                .computeIfAbsent(stage, s -> new Samples())
+                .add(nanos);
+    }
+
+    private void print() {
+        System.out.println("=".repeat(60));
+        System.out.println("JFR SUMMARY: " + jfrFile);
+        System.out.println("=".repeat(60));
+        System.out.println("");
+
+        System.out.println("Latency by Stage (ms):");
+        printHeader("Stage");
+        stages.forEach((stage, samples) -> printRow(stage.substring("chatflow.".length()), samples));
+        System.out.println("  (SessionWrite only holds writes over the event threshold)");
+
+        System.out.println("");
+        System.out.println("Ingress Outcomes:");
+        outcomes.forEach((outcome, count) -> System.out.printf("  %s: %d%n", outcome, count));
+        System.out.println("  Failed publishes: " + publishFailures);
+        if (fanOut.size() > 0) {
+            fanOut.sort();
+            System.out.printf("  Broadcast fan-out: mean %.1f, max %d%n", fanOut.mean(), fanOut.max());
+        }
+
+        System.out.println("");
+        System.out.println("Latency by Room (ms), busiest " + topRooms + ":");
+        printHeader("Room / Stage");
+        rooms.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, Map<String, Samples>> e) -> total(e.getValue())).reversed())
+                .limit(topRooms)
+                .forEach(e -> {
+                    System.out.println("  " + e.getKey());
+                    for (String stage : STAGES) {
+                        Samples samples = e.getValue().get(stage);
+                        if (samples != null) printRow("  " + stage.substring("chatflow.".length()), samples);
+                    }
+                });
+
+        System.out.println("");
+        System.out.println("Slowest Sessions (by total slow-write time), top " + topSessions + ":");
+        System.out.printf("  %-40s %8s %10s %10s%n", "Session", "Writes", "Total", "Max");
+        sessions.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, Samples> e) -> e.getValue().sum()).reversed())
+                .limit(topSessions)
+                .forEach(e -> {
+                    Samples samples = e.getValue();
+                    samples.sort();
+                    System.out.printf("  %-40s %8d %10.2f %10.2f%n", e.getKey(), samples.size(),
+                            millis(samples.sum()), millis(samples.max()));
+                });
+        System.out.println("  Failed writes: " + writeFailures);
+
+        System.out.println("");
+        System.out.println("=".repeat(60));
+    }
+
+    private static long total(Map<String, Samples> byStage) {
+        long total = 0;
+        for (Samples samples : byStage.values()) {
+            total += samples.size();
+        }
+        return total;
+    }
+
+    private static void printHeader(String name) {
+        System.out.printf("  %-24s %10s %8s %8s %8s %8s%n", name, "Count", "P50", "P95", "P99", "Max");
+    }
+
+    private static void printRow(String name, Samples samples) {
+        if (samples.size() == 0) {
+            System.out.printf("  %-24s %10d %8s %8s %8s %8s%n", name, 0, "-", "-", "-", "-");
+            return;
+        }
+        samples.sort();
+        System.out.printf("  %-24s %10d %8.3f %8.3f %8.3f %8.3f%n", name, samples.size(),
+                millis(samples.percentile(0.50)), millis(samples.percentile(0.95)),
+                millis(samples.percentile(0.99)), millis(samples.max()));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    /** Growable array of longs; recordings hold millions of events, so no boxing. */
+    static class Samples {
+        private long[] values = new long[64];
+        private int size;
+        private long sum;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+            sum += value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long sum() {
+            return sum;
+        }
+
+        double mean() {
+            return size == 0 ? 0 : (double) sum / size;
+        }
+
+        void sort() {
+            Arrays.sort(values, 0, size);
+        }
+
+        /** Nearest-rank percentile; call {@link #sort()} first. */
+        long percentile(double p) {
+            int rank = (int) Math.ceil(p * size);
+            return values[Math.max(0, Math.min(size - 1, rank - 1))];
+        }
+
+        /** Call {@link #sort()} first. */
+        long max() {
+            return size == 0 ? 0 : values[size - 1];
+        }
+    }
+}
\ No newline at end of file
@@ -13,7 +13,8 @@ public class MonitoringApp {
         switch (command) {
             case "queue-monitor":
                 String rabbitHost = args.length > 1 ? args[1] : "localhost";
-                new QueueMonitor(rabbitHost).start();
+                int shards = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+                new QueueMonitor(rabbitHost, shards).start();
                 break;
 
             case "server-health":
@@ -26,6 +27,13 @@ public class MonitoringApp {
                 new MetricsAnalyzer(csvFile).analyze();
                 break;
 
+            case "jfr-summary":
+                String jfrFile = args.length > 1 ? args[1] : "chatflow.jfr";
+                int topRooms = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+                int topSessions = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+                new JfrSummary(jfrFile, topRooms, topSessions).analyze();
+                break;
+
             default:
                 System.out.println("Unknown command: " + command);
                 printUsage();
@@ -37,13 +45,15 @@ public class MonitoringApp {
         System.out.println("Usage: java -jar chatflow-monitoring.jar <command> [options]");
         System.out.println("");
         System.out.println("Commands:");
-        System.out.println("  queue-monitor [rabbitmq-host]     Monitor RabbitMQ queues");
+        System.out.println("  queue-monitor [rabbitmq-host] [shards]  Monitor this host's shard queues");
         System.out.println("  server-health [server-url]        Monitor server health");
         System.out.println("  metrics-analyzer [csv-file]       Analyze performance metrics");
+        System.out.println("  jfr-summary [jfr-file] [rooms] [sessions]  Summarize a server flight recording");
         System.out.println("");
         System.out.println("Examples:");
         System.out.println("  java -jar chatflow-monitoring.jar queue-monitor localhost");
         System.out.println("  java -jar chatflow-monitoring.jar server-health http://localhost:8080");
         System.out.println("  java -jar chatflow-monitoring.jar metrics-analyzer metrics.csv");
+        System.out.println("  java -jar chatflow-monitoring.jar jfr-summary chatflow.jfr 20 10");
     }
 }
\ No newline at end of file
@@ -8,11 +8,17 @@ import java.util.concurrent.TimeoutException;
 public class QueueMonitor {
 
     private final String rabbitHost;
+    private final int shardCount;
     private Connection connection;
     private Channel channel;
 
     public QueueMonitor(String rabbitHost) {
+        this(rabbitHost, 8);
+    }
+
+    public QueueMonitor(String rabbitHost, int shardCount) {
         this.rabbitHost = rabbitHost;
+        this.shardCount = shardCount;
     }
 
     public void start() {
@@ -58,8 +64,8 @@ public class QueueMonitor {
             long totalReady = 0;
             long totalUnacked = 0;
 
-            for (int i = 1; i <= 20; i++) {
-                String queueName = "queue_" + getHostname() + "_room" + i;
+            for (int i = 0; i < shardCount; i++) {
+                String queueName = "queue_" + getHostname() + "_shard" + i;
 
                 try {
                     AMQP.Queue.DeclareOk declareOk = channel.queueDeclarePassive(queueName);
@@ -74,6 +80,7 @@ public class QueueMonitor {
                 } catch (IOException e) {
                     System.out.printf("%-40s %12s %12s %12s%n",
                             queueName, "N/A", "N/A", "N/A");
+                    reopenChannel();
                 }
             }
 
@@ -90,6 +97,15 @@ public class QueueMonitor {
         }
     }
 
+    /** A failed passive declare closes the channel, so open a fresh one for the next queue. */
+    private void reopenChannel() {
+        try {
+            if (!channel.isOpen()) channel = connection.createChannel();
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
     private void clearScreen() {
         System.out.print("\033[H\033[2J");
         System.out.flush();
@@ -0,0 +1,180 @@
+package com.chatflow.server.bus;
+
+import com.chatflow.server.handler.RoomDispatcher;
+import com.chatflow.server.handler.StageTimes;
+import com.chatflow.server.rabbit.StageHeaders;
+import com.chatflow.server.rabbit.StageMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bus for a single server with no broker. Rooms hash onto a fixed set of
+ * {@link RingBuffer}s, each drained by its own thread into the RoomDispatcher, so publishing
+ * costs one CAS and the WebSocket threads never wait on delivery. A full ring makes the
+ * publisher wait, like a full lane does. Frames for rooms nobody here is in are dropped,
+ * as the broker drops unrouted ones.
+ *
+ * <p>Every frame is this server's own, so with local short-circuit delivery on there is
+ * nothing left to deliver and publishing does nothing.
+ */
+@Component
+@ConditionalOnProperty(name = "chatflow.bus.type", havingValue = "inprocess")
+public class InProcessMessageBus implements MessageBus {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final RoomDispatcher roomDispatcher;
+    private final StageMetrics stageMetrics;
+    private final boolean deliveredLocally;
+    private final boolean stageTrailer;
+    private final Ring[] rings;
+    private final Set<String> subscribed = ConcurrentHashMap.newKeySet();
+
+    private final Counter unrouted;
+    private final Counter fullWaits;
+
+    public InProcessMessageBus(RoomDispatcher roomDispatcher,
+                               StageMetrics stageMetrics,
+                               @Value("${chatflow.delivery.local-short-circuit:false}") boolean deliveredLocally,
+                               @Value("${chatflow.bus.inprocess.rings:4}") int ringCount,
+                               @Value("${chatflow.bus.inprocess.ring-capacity:65536}") int ringCapacity,
+                               @Value("${chatflow.stages.trailer:false}") boolean stageTrailer,
+                               MeterRegistry registry) {
+        this.roomDispatcher = roomDispatcher;
+        this.stageMetrics = stageMetrics;
+        this.deliveredLocally = deliveredLocally;
+        this.stageTrailer = stageTrailer;
+        this.rings = new Ring[ringCount];
+        for (int i = 0; i < ringCount; i++) {
+            rings[i] = new Ring(i, ringCapacity);
+            rings[i].start();
+        }
+
+        this.unrouted = Counter.builder("chatflow.bus.unrouted")
+                .description("Frames published to rooms with no local members").register(registry);
+        this.fullWaits = Counter.builder("chatflow.bus.full")
+                .description("Publishes that waited for room in a full ring").register(registry);
+        Gauge.builder("chatflow.bus.depth", this, InProcessMessageBus::depth)
+                .description("Frames waiting in the rings, summed").register(registry);
+        System.out.println("In-process message bus: " + ringCount + " rings of " + rings[0].buffer.capacity());
+    }
+
+    @Override
+    public void publish(String roomId, byte[] body, long ingressNanos) {
+        if (deliveredLocally) return;
+        Ring ring = rings[Math.floorMod(roomId.hashCode(), rings.length)];
+        Delivery delivery = new Delivery(roomId, body, ingressNanos, StageHeaders.now());
+        if (!ring.buffer.offer(delivery)) {
+            fullWaits.increment();
+            do {
+                ring.wake();
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+                if (Thread.currentThread().isInterrupted()) return;
+            } while (!ring.buffer.offer(delivery));
+        }
+        ring.wake();
+    }
+
+    @Override
+    public void subscribe(String roomId) {
+        subscribed.add(roomId);
+    }
+
+    @Override
+    public void unsubscribe(String roomId) {
+        subscribed.remove(roomId);
+    }
+
+    private double depth() {
+        long total = 0;
+        for (Ring ring : rings) {
+            total += ring.buffer.size();
+        }
+        return total;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Ring ring : rings) {
+            ring.interrupt();
+        }
+    }
+
+    private static final class Delivery {
+        final String roomId;
+        final byte[] body;
+        final long ingressNanos;
+        final long publishNanos;
+
+        Delivery(String roomId, byte[] body, long ingressNanos, long publishNanos) {
+            this.roomId = roomId;
+            this.body = body;
+            this.ingressNanos = ingressNanos;
+            this.publishNanos = publishNanos;
+        }
+    }
+
+    private final class Ring extends Thread {
+
+        final RingBuffer<Delivery> buffer;
+        private volatile boolean sleeping;
+
+        Ring(int index, int capacity) {
+            super("bus-ring-" + index);
+            setDaemon(true);
+            this.buffer = new RingBuffer<>(capacity);
+        }
+
+        void wake() {
+            if (sleeping) {
+                LockSupport.unpark(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    Delivery delivery = buffer.poll();
+                    if (delivery == null) {
+                        sleeping = true;
+                        // A publisher that missed the flag left its frame where this sees it
+                        delivery = buffer.poll();
+                        if (delivery == null) {
+                            LockSupport.parkNanos(IDLE_PARK_NANOS);
+                        }
+                        sleeping = false;
+                        if (delivery == null) continue;
+                    }
+                    deliver(delivery);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void deliver(Delivery delivery) throws InterruptedException {
+            if (!subscribed.contains(delivery.roomId)) {
+                unrouted.increment();
+                return;
+            }
+            long received = System.nanoTime();
+            long deliverNanos = StageHeaders.now();
+            StageTimes stages = stageTrailer ? new StageTimes(delivery.ingressNanos, delivery.publishNanos, deliverNanos) : null;
+            roomDispatcher.dispatch(delivery.roomId, delivery.body, delivered -> stageMetrics.record(delivery.roomId,
+                    delivery.ingressNanos, delivery.publishNanos, deliverNanos, deliverNanos + (System.nanoTime() - received)),
+                    stages);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,27 @@
+package com.chatflow.server.bus;
+
+import com.chatflow.server.rabbit.StageHeaders;
+
+import java.io.IOException;
+
+/**
+ * Carries room frames between servers. A published frame reaches every server subscribed to
+ * its room, this one included, and is handed to that server's RoomDispatcher. What this server
+ * subscribes to is decided by {@link RoomSubscriptions}; chatflow.bus.type picks the
+ * implementation.
+ */
+public interface MessageBus {
+
+    /** {@code ingressNanos} is when this server received the frame, in {@link StageHeaders#now()} time. */
+    void publish(String roomId, byte[] body, long ingressNanos);
+
+    default void publish(String roomId, byte[] body) {
+        publish(roomId, body, StageHeaders.now());
+    }
+
+    /** Starts delivering the room's frames here. Called from one thread at a time. */
+    void subscribe(String roomId) throws IOException;
+
+    /** Stops delivering the room's frames here. Called from one thread at a time. */
+    void unsubscribe(String roomId) throws IOException;
+}
\ No newline at end of file
@@ -0,0 +1,71 @@
+package com.chatflow.server.bus;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue for many producers and one consumer. Every slot carries a sequence
+ * number: a producer claims the next position with one CAS on the tail, fills the slot and
+ * then publishes it by advancing the slot's sequence; the consumer takes a slot only once its
+ * sequence says it is filled, and hands it back to producers a lap later. Capacity is
+ * rounded up to a power of two.
+ */
+final class RingBuffer<E> {
+
+    private final int mask;
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // Written by the consumer only; volatile so size() can be read from anywhere
+    private volatile long head;
+
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.slots = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /** Returns false when the ring is full. Any thread. */
+    boolean offer(E element) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long lag = sequences.get(index) - position;
+            if (lag == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = element;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (lag < 0) {
+                // The slot still holds the element from a lap ago
+                return false;
+            }
+        }
+    }
+
+    /** Returns null when the ring is empty. Consumer thread only. */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long position = head;
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) return null;
+        E element = (E) slots[index];
+        slots[index] = null;
+        sequences.set(index, position + slots.length);
+        head = position + 1;
+        return element;
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,98 @@
+package com.chatflow.server.bus;
+
+import com.chatflow.server.handler.RoomInterestListener;
+import com.chatflow.server.handler.RoomSessionManager;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the bus subscribed to exactly the rooms this server has local members in. A room is
+ * subscribed on its first local join; the last leave unsubscribes it after
+ * unsubscribe-delay-ms unless someone joined again. All subscription changes run on one
+ * thread, in the order the room's interest changed.
+ */
+@Component
+public class RoomSubscriptions implements RoomInterestListener {
+
+    private final RoomSessionManager roomSessionManager;
+    private final MessageBus messageBus;
+    private final long unsubscribeDelayMs;
+    private final ScheduledExecutorService subscriptionExecutor;
+    private final Set<String> subscribed = new HashSet<>();
+    private final Map<String, Long> lastDeactivated = new ConcurrentHashMap<>();
+    private final AtomicInteger subscribedCount = new AtomicInteger(0);
+
+    public RoomSubscriptions(RoomSessionManager roomSessionManager,
+                             MessageBus messageBus,
+                             @Value("${chatflow.consumer.unsubscribe-delay-ms:30000}") long unsubscribeDelayMs,
+                             MeterRegistry registry) {
+        this.roomSessionManager = roomSessionManager;
+        this.messageBus = messageBus;
+        this.unsubscribeDelayMs = unsubscribeDelayMs;
+        this.subscriptionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "room-subscriptions");
+            t.setDaemon(true);
+            return t;
+        });
+        Gauge.builder("chatflow.consumer.subscribed.rooms", subscribedCount, AtomicInteger::get).register(registry);
+
+        roomSessionManager.addRoomInterestListener(this);
+        for (String roomId : roomSessionManager.getActiveRooms()) {
+            roomActivated(roomId);
+        }
+    }
+
+    public int getSubscribedRoomCount() {
+        return subscribedCount.get();
+    }
+
+    @Override
+    public void roomActivated(String roomId) {
+        subscriptionExecutor.execute(() -> reconcile(roomId));
+    }
+
+    @Override
+    public void roomDeactivated(String roomId) {
+        lastDeactivated.put(roomId, System.currentTimeMillis());
+        subscriptionExecutor.schedule(() -> reconcile(roomId), unsubscribeDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void reconcile(String roomId) {
+        boolean wanted = roomSessionManager.hasLocalMembers(roomId);
+        try {
+            if (wanted && !subscribed.contains(roomId)) {
+                messageBus.subscribe(roomId);
+                subscribed.add(roomId);
+                subscribedCount.incrementAndGet();
+            } else if (!wanted && subscribed.contains(roomId)) {
+                Long leftAt = lastDeactivated.get(roomId);
+                // A later leave scheduled its own check; let that one decide
+                if (leftAt != null && System.currentTimeMillis() - leftAt < unsubscribeDelayMs) return;
+                messageBus.unsubscribe(roomId);
+                subscribed.remove(roomId);
+                subscribedCount.decrementAndGet();
+                lastDeactivated.remove(roomId);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to update subscription for " + roomId + ": " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscriptionExecutor.shutdownNow();
+    }
+}
\ No newline at end of file
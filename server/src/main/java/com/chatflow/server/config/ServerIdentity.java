@@ -0,0 +1,26 @@
+package com.chatflow.server.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Name of this server in the cluster: used for its shard queue names, its spill journal
+ * directory and the origin tag on its publishes. Defaults to the host name; set
+ * chatflow.server-id when several servers share a host.
+ */
+@Component
+public class ServerIdentity {
+
+    private final String serverId;
+
+    public ServerIdentity(@Value("${chatflow.server-id:}") String serverId) throws UnknownHostException {
+        this.serverId = serverId.isBlank() ? InetAddress.getLocalHost().getHostName() : serverId;
+    }
+
+    public String getServerId() {
+        return serverId;
+    }
+}
\ No newline at end of file
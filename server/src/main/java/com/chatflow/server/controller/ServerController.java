@@ -1,15 +1,57 @@
 package com.chatflow.server.controller;
 
+import com.chatflow.server.handler.IngressRateLimiter;
+import com.chatflow.server.handler.OutboundSession;
+import com.chatflow.server.handler.RoomSessionManager;
+import com.chatflow.server.history.HistoryRange;
+import com.chatflow.server.history.RecentFrames;
+import com.chatflow.server.history.RoomHistory;
+import com.chatflow.server.model.UserInfo;
+import com.chatflow.server.presence.RoomPresence;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.channels.Channels;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
 public class ServerController {
 
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    private static final long SENDFILE_LEASE_MS = 30_000;
+
+    private final RoomSessionManager roomSessionManager;
+    private final RoomHistory roomHistory;
+    private final RecentFrames recentFrames;
+    private final RoomPresence roomPresence;
+    private final IngressRateLimiter rateLimiter;
+
+    public ServerController(RoomSessionManager roomSessionManager, RoomHistory roomHistory,
+                            RecentFrames recentFrames, RoomPresence roomPresence,
+                            IngressRateLimiter rateLimiter) {
+        this.roomSessionManager = roomSessionManager;
+        this.roomHistory = roomHistory;
+        this.recentFrames = recentFrames;
+        this.roomPresence = roomPresence;
+        this.rateLimiter = rateLimiter;
+    }
+
     @GetMapping("/health")
     public String health() {
         return "OK";
@@ -27,4 +69,94 @@ public class ServerController {
         }
         return info;
     }
+
+    @GetMapping("/sessions/outbound")
+    public List<Map<String, Object>> outboundSessions() {
+        List<Map<String, Object>> sessions = new ArrayList<>();
+        for (OutboundSession outbound : roomSessionManager.getOutboundSessions()) {
+            UserInfo user = roomSessionManager.getUser(outbound.getSession());
+            Map<String, Object> info = new HashMap<>();
+            info.put("sessionId", outbound.getSession().getId());
+            info.put("userId", user != null ? user.getUserId() : null);
+            info.put("queueDepth", outbound.getQueueDepth());
+            info.put("dropped", outbound.getDroppedCount());
+            sessions.add(info);
+        }
+        return sessions;
+    }
+
+    /** Frames refused by the ingress rate limits since startup, per room. */
+    @GetMapping("/ratelimit/throttled")
+    public Map<String, Long> throttledByRoom() {
+        return rateLimiter.getThrottledByRoom();
+    }
+
+    /** The room's most recent frames on this server, oldest first, as a JSON array. */
+    @GetMapping(value = "/rooms/{roomId}/recent", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> recentMessages(@PathVariable String roomId) {
+        if (!recentFrames.isEnabled()) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(recentFrames.snapshotJson(roomId));
+    }
+
+    /** Users in the room on this server, as of the last presence flush. */
+    @GetMapping(value = "/rooms/{roomId}/presence", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> presence(@PathVariable String roomId) {
+        if (!roomPresence.isEnabled()) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok(roomPresence.snapshot(roomId));
+    }
+
+    /**
+     * The room's logged frames as newline-delimited JSON, from {@code fromSeq} (inclusive) or
+     * from {@code fromTime} (ISO-8601), or everything retained. A range inside one segment is
+     * handed to Tomcat's sendfile; longer ranges are copied with FileChannel.transferTo. The
+     * segment files are opened, and leased from retention, before the length is sent. A
+     * seq range this server cannot serve in full, such as one from another {@code node}, is
+     * refused with 409.
+     */
+    @GetMapping("/rooms/{roomId}/messages")
+    public void roomMessages(@PathVariable String roomId,
+                             @RequestParam(required = false) Long fromSeq,
+                             @RequestParam(required = false) String fromTime,
+                             @RequestParam(required = false) String node,
+                             HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!roomHistory.isEnabled()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "History is disabled");
+            return;
+        }
+        String unavailable = fromSeq != null ? roomHistory.seqUnavailable(roomId, fromSeq, node) : null;
+        if (unavailable != null) {
+            response.sendError(HttpServletResponse.SC_CONFLICT, unavailable);
+            return;
+        }
+        long fromMillis = 0;
+        if (fromSeq == null && fromTime != null) {
+            try {
+                fromMillis = Instant.parse(fromTime).toEpochMilli();
+            } catch (DateTimeParseException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "fromTime must be an ISO-8601 instant");
+                return;
+            }
+        }
+
+        HistoryRange range = roomHistory.read(roomId, fromSeq != null ? fromSeq : fromTime != null ? -1 : 0, fromMillis);
+        response.setContentType("application/x-ndjson");
+        if (range == null) {
+            response.setContentLength(0);
+            return;
+        }
+        try (range) {
+            // Pin the files before promising a length; sendfile reopens by name, hence the lease
+            range.open(SENDFILE_LEASE_MS);
+            response.setContentLengthLong(range.bytes());
+            if (range.regionCount() == 0) return;
+
+            if (range.regionCount() == 1 && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+                request.setAttribute(SENDFILE_FILENAME, range.file(0).toAbsolutePath().toString());
+                request.setAttribute(SENDFILE_START, range.start(0));
+                request.setAttribute(SENDFILE_END, range.end(0));
+                return;
+            }
+            range.transferTo(Channels.newChannel(response.getOutputStream()));
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,148 @@
+package com.chatflow.server.handler;
+
+import com.chatflow.server.model.ChatMessage;
+import com.chatflow.server.model.MessageType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Compact binary chat frame, used by sessions that register with {@code "protocol":"BINARY"}.
+ * All integers are big-endian:
+ * <pre>
+ *   u8  version (1 or 2)
+ *   u8  messageType ordinal
+ *   i64 userId
+ *   i32 room number ("room7" is 7)
+ *   i64 messageId, most significant bits
+ *   i64 messageId, least significant bits
+ *   i64 timestamp, epoch nanoseconds
+ *   i64 server message id (version 2 only, 0 if unassigned)
+ *   i64 room sequence number (version 2 only, 0 if unassigned)
+ *   u8  username length, then username bytes (UTF-8)
+ *   u16 message length, then message bytes (UTF-8)
+ * </pre>
+ * Clients may send either version; the server always sends version 2.
+ */
+public final class BinaryFrameCodec {
+
+    public static final byte VERSION = 2;
+
+    private static final byte VERSION_1 = 1;
+    private static final int HEADER_LENGTH = 1 + 1 + 8 + 4 + 16 + 8;
+    private static final int STAMPS_LENGTH = 8 + 8;
+    private static final String ROOM_PREFIX = "room";
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+
+    private BinaryFrameCodec() {}
+
+    /**
+     * Reads one frame. Throws IllegalArgumentException if the frame is truncated or malformed;
+     * constraint checks are left to the caller.
+     */
+    public static ChatMessage decode(ByteBuffer frame) {
+        ByteBuffer buf = frame.duplicate();
+        if (buf.remaining() < HEADER_LENGTH + 3) throw new IllegalArgumentException("Frame too short");
+        byte version = buf.get();
+        if (version != VERSION && version != VERSION_1) throw new IllegalArgumentException("Unsupported frame version");
+
+        int type = buf.get() & 0xFF;
+        if (type >= MESSAGE_TYPES.length) throw new IllegalArgumentException("Unknown message type " + type);
+
+        long userId = buf.getLong();
+        int room = buf.getInt();
+        UUID messageId = new UUID(buf.getLong(), buf.getLong());
+        long epochNanos = buf.getLong();
+        long sid = 0;
+        long seq = 0;
+        if (version == VERSION) {
+            if (buf.remaining() < STAMPS_LENGTH + 3) throw new IllegalArgumentException("Frame too short");
+            sid = buf.getLong();
+            seq = buf.getLong();
+        }
+        String username = readString(buf, buf.get() & 0xFF);
+        if (buf.remaining() < 2) throw new IllegalArgumentException("Frame too short");
+        String message = readString(buf, buf.getShort() & 0xFFFF);
+
+        ChatMessage m = new ChatMessage();
+        m.setMessageType(MESSAGE_TYPES[type]);
+        m.setUserId(Long.toString(userId));
+        m.setRoomId(roomId(room));
+        m.setMessageId(messageId.toString());
+        m.setTimestamp(Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L),
+                Math.floorMod(epochNanos, 1_000_000_000L)));
+        m.setUsername(username);
+        m.setMessage(message);
+        m.setSid(sid != 0 ? MessageIdGenerator.format(sid) : null);
+        m.setSeq(seq != 0 ? seq : null);
+        return m;
+    }
+
+    /**
+     * Writes one frame. Throws IllegalArgumentException if the message has ids that have no
+     * binary form (non-numeric user or room, non-UUID message id) or oversized text.
+     */
+    public static byte[] encode(ChatMessage m) {
+        byte[] username = m.getUsername().getBytes(StandardCharsets.UTF_8);
+        byte[] message = m.getMessage().getBytes(StandardCharsets.UTF_8);
+        if (username.length > 0xFF || message.length > 0xFFFF) {
+            throw new IllegalArgumentException("Text too long for binary frame");
+        }
+
+        UUID messageId = UUID.fromString(m.getMessageId());
+        Instant timestamp = m.getTimestamp();
+
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_LENGTH + STAMPS_LENGTH + 1 + username.length + 2 + message.length);
+        buf.put(VERSION);
+        buf.put((byte) m.getMessageType().ordinal());
+        buf.putLong(Long.parseLong(m.getUserId()));
+        buf.putInt(roomNumber(m.getRoomId()));
+        buf.putLong(messageId.getMostSignificantBits());
+        buf.putLong(messageId.getLeastSignificantBits());
+        buf.putLong(timestamp.getEpochSecond() * 1_000_000_000L + timestamp.getNano());
+        buf.putLong(m.getSid() != null ? MessageIdGenerator.parse(m.getSid()) : 0);
+        buf.putLong(m.getSeq() != null ? m.getSeq() : 0);
+        buf.put((byte) username.length);
+        buf.put(username);
+        buf.putShort((short) message.length);
+        buf.put(message);
+        return buf.array();
+    }
+
+    /**
+     * Whether the room id survives a round trip through the frame, i.e. is exactly
+     * {@code "room"} followed by a non-negative int without leading zeros.
+     */
+    public static boolean canEncodeRoom(String roomId) {
+        if (roomId == null || !roomId.startsWith(ROOM_PREFIX)) return false;
+        try {
+            int number = roomNumber(roomId);
+            return number >= 0 && roomId(number).equals(roomId);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public static int roomNumber(String roomId) {
+        String digits = roomId.startsWith(ROOM_PREFIX) ? roomId.substring(ROOM_PREFIX.length()) : roomId;
+        return Integer.parseInt(digits);
+    }
+
+    public static String roomId(int roomNumber) {
+        return ROOM_PREFIX + roomNumber;
+    }
+
+    private static String readString(ByteBuffer buf, int length) {
+        if (buf.remaining() < length) throw new IllegalArgumentException("Frame too short");
+        if (buf.hasArray()) {
+            String value = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+            buf.position(buf.position() + length);
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,175 @@
+package com.chatflow.server.handler;
+
+import com.chatflow.server.model.MessageType;
+import com.chatflow.server.validation.FieldRules;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Validates a chat frame in a single streaming pass and extracts only the room id.
+ * Applies the same rules as binding to {@link com.chatflow.server.model.ChatMessage}
+ * and running its constraints: all fields present and non-null, username 3-20
+ * alphanumerics, message 1-500 characters, a parseable timestamp and a known message type.
+ * Unknown properties are skipped, as the bind path ignores them too. The server-assigned
+ * {@code sid} and {@code seq} fields are rejected so clients cannot forge them.
+ */
+public class ChatMessageScanner {
+
+    private static final int MESSAGE_ID = 1;
+    private static final int USER_ID = 1 << 1;
+    private static final int USERNAME = 1 << 2;
+    private static final int MESSAGE = 1 << 3;
+    private static final int TIMESTAMP = 1 << 4;
+    private static final int MESSAGE_TYPE = 1 << 5;
+    private static final int ROOM_ID = 1 << 6;
+    private static final int ALL_FIELDS = (1 << 7) - 1;
+
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+
+    /** What the ingress path needs from a valid frame. */
+    public static final class ScannedFrame {
+        public final String messageId;
+        public final String roomId;
+        public final MessageType messageType;
+
+        ScannedFrame(String messageId, String roomId, MessageType messageType) {
+            this.messageId = messageId;
+            this.roomId = roomId;
+            this.messageType = messageType;
+        }
+    }
+
+    private final JsonFactory jsonFactory;
+
+    public ChatMessageScanner(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * Returns the frame's roomId, or null if the frame is malformed or violates a constraint.
+     */
+    public String scan(byte[] payload) {
+        ScannedFrame frame = scanFrame(payload);
+        return frame != null ? frame.roomId : null;
+    }
+
+    /** Like {@link #scan}, but also returns the message id and type. */
+    public ScannedFrame scanFrame(byte[] payload) {
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return null;
+
+            int seen = 0;
+            String messageId = null;
+            String roomId = null;
+            MessageType messageType = null;
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+
+                switch (field) {
+                    case "messageId":
+                        if (!isScalar(value)) return null;
+                        messageId = parser.getText();
+                        seen |= MESSAGE_ID;
+                        break;
+                    case "userId":
+                        if (!isScalar(value)) return null;
+                        seen |= USER_ID;
+                        break;
+                    case "username":
+                        if (!isScalar(value) || !FieldRules.isAlphanumeric(parser.getTextCharacters(),
+                                parser.getTextOffset(), parser.getTextLength(), 3, 20)) return null;
+                        seen |= USERNAME;
+                        break;
+                    case "message":
+                        if (!isScalar(value)) return null;
+                        int length = parser.getTextLength();
+                        if (length < 1 || length > 500) return null;
+                        seen |= MESSAGE;
+                        break;
+                    case "timestamp":
+                        if (!isValidTimestamp(parser, value)) return null;
+                        seen |= TIMESTAMP;
+                        break;
+                    case "messageType":
+                        messageType = messageTypeOf(parser, value);
+                        if (messageType == null) return null;
+                        seen |= MESSAGE_TYPE;
+                        break;
+                    case "roomId":
+                        if (!isScalar(value)) return null;
+                        roomId = parser.getText();
+                        seen |= ROOM_ID;
+                        break;
+                    case "sid":
+                    case "seq":
+                        return null;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+
+            if (token != JsonToken.END_OBJECT || seen != ALL_FIELDS) return null;
+            return new ScannedFrame(messageId, roomId, messageType);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** Non-null values Jackson would coerce into a String field. */
+    private static boolean isScalar(JsonToken token) {
+        return token != null && token.isScalarValue() && token != JsonToken.VALUE_NULL;
+    }
+
+    private static boolean isValidTimestamp(JsonParser parser, JsonToken value) throws Exception {
+        if (value == JsonToken.VALUE_NUMBER_INT || value == JsonToken.VALUE_NUMBER_FLOAT) return true;
+        if (value != JsonToken.VALUE_STRING) return false;
+
+        String text = parser.getText().trim();
+        if (text.isEmpty()) return false;
+        if (isDecimalTimestamp(text)) return true;
+        try {
+            Instant.parse(text);
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /** Numeric strings such as "1761912000.123" are read as epoch seconds by Jackson. */
+    private static boolean isDecimalTimestamp(String text) {
+        int start = text.charAt(0) == '-' ? 1 : 0;
+        int digits = 0;
+        int periods = 0;
+        for (int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '.') {
+                if (++periods > 1) return false;
+            } else if (c >= '0' && c <= '9') {
+                digits++;
+            } else {
+                return false;
+            }
+        }
+        return digits > 0;
+    }
+
+    private static MessageType messageTypeOf(JsonParser parser, JsonToken value) throws Exception {
+        if (value == JsonToken.VALUE_NUMBER_INT) {
+            int ordinal = parser.getIntValue();
+            return ordinal >= 0 && ordinal < MESSAGE_TYPES.length ? MESSAGE_TYPES[ordinal] : null;
+        }
+        if (value != JsonToken.VALUE_STRING) return null;
+
+        String text = parser.getText();
+        for (MessageType type : MESSAGE_TYPES) {
+            if (type.name().equals(text)) return type;
+        }
+        return null;
+    }
+}
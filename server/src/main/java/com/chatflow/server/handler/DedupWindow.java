@@ -0,0 +1,91 @@
+package com.chatflow.server.handler;
+
+import java.util.Arrays;
+
+/**
+ * Rotating Bloom filter over recent message ids. Two generations of equal size are kept;
+ * ids go into the current one and are looked up in both, and once the current one holds
+ * its capacity the older generation is cleared and becomes current. Any id is therefore
+ * remembered for at least {@code capacity} further insertions, at a fixed memory cost.
+ * Not thread-safe: each room lane owns one.
+ */
+final class DedupWindow {
+
+    private static final double LN2 = Math.log(2);
+
+    private final int mask;
+    private final int hashes;
+    private final int capacity;
+    private long[] current;
+    private long[] previous;
+    private int currentCount;
+    private int previousCount;
+
+    /** Sizes the filter for {@code memoryBytes} in total and a target false-positive rate. */
+    DedupWindow(long memoryBytes, double falsePositiveRate) {
+        long bitsPerGeneration = Math.max(64, Math.min(1L << 31, memoryBytes * 8 / 2));
+        bitsPerGeneration = Long.highestOneBit(bitsPerGeneration);
+        this.mask = (int) (bitsPerGeneration - 1);
+        this.capacity = (int) Math.max(1, -bitsPerGeneration * LN2 * LN2 / Math.log(falsePositiveRate));
+        this.hashes = (int) Math.max(1, Math.round((double) bitsPerGeneration / capacity * LN2));
+        this.current = new long[(int) (bitsPerGeneration / 64)];
+        this.previous = new long[current.length];
+    }
+
+    /** Records the id; returns false if it was (probably) recorded already. */
+    boolean add(long id) {
+        long hash = mix(id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+
+        boolean inCurrent = true;
+        boolean inPrevious = true;
+        for (int i = 0; i < hashes && (inCurrent || inPrevious); i++) {
+            int bit = (h1 + i * h2) & mask;
+            long word = 1L << bit;
+            inCurrent &= (current[bit >>> 6] & word) != 0;
+            inPrevious &= (previous[bit >>> 6] & word) != 0;
+        }
+        if (inCurrent || inPrevious) return false;
+
+        if (currentCount >= capacity) rotate();
+        for (int i = 0; i < hashes; i++) {
+            int bit = (h1 + i * h2) & mask;
+            current[bit >>> 6] |= 1L << bit;
+        }
+        currentCount++;
+        return true;
+    }
+
+    /** Ids guaranteed to be remembered. */
+    int capacity() {
+        return capacity;
+    }
+
+    long memoryBytes() {
+        return (current.length + previous.length) * 8L;
+    }
+
+    /** False-positive rate of a lookup at the current fill of both generations. */
+    double estimatedFalsePositiveRate() {
+        double bits = mask + 1.0;
+        double pCurrent = Math.pow(1 - Math.exp(-hashes * currentCount / bits), hashes);
+        double pPrevious = Math.pow(1 - Math.exp(-hashes * previousCount / bits), hashes);
+        return 1 - (1 - pCurrent) * (1 - pPrevious);
+    }
+
+    private void rotate() {
+        long[] cleared = previous;
+        Arrays.fill(cleared, 0L);
+        previous = current;
+        previousCount = currentCount;
+        current = cleared;
+        currentCount = 0;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,149 @@
+package com.chatflow.server.handler;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splices server-assigned fields into a JSON chat frame without re-serializing it: the
+ * message id {@code "sid"} goes first, right after the opening brace, and the per-room
+ * {@code "seq"} goes last, before the closing brace. The input must be a JSON object.
+ */
+public final class FrameStamps {
+
+    private static final byte[] SID_FIELD = "\"sid\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SEQ_FIELD = ",\"seq\":".getBytes(StandardCharsets.US_ASCII);
+
+    /** Returned by {@link #readId} when the frame does not start with a server id. */
+    public static final long NO_ID = -1;
+
+    private FrameStamps() {}
+
+    /** The server message id at the front of a stamped frame, or {@link #NO_ID}. */
+    public static long readId(byte[] json) {
+        int pos = skipWhitespace(json, 0);
+        if (pos >= json.length || json[pos] != '{') return NO_ID;
+        pos = skipWhitespace(json, pos + 1);
+        int end = pos + SID_FIELD.length + MessageIdGenerator.TEXT_LENGTH;
+        if (end >= json.length || json[end] != '"') return NO_ID;
+        for (int i = 0; i < SID_FIELD.length; i++) {
+            if (json[pos + i] != SID_FIELD[i]) return NO_ID;
+        }
+        try {
+            return MessageIdGenerator.parse(new String(json, pos + SID_FIELD.length,
+                    MessageIdGenerator.TEXT_LENGTH, StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException e) {
+            return NO_ID;
+        }
+    }
+
+    /** The {@code "seq"} that ends a sequenced frame, or -1. */
+    public static long readSeq(byte[] json) {
+        int close = json.length - 1;
+        while (close >= 0 && isWhitespace(json[close])) close--;
+        if (close < 0 || json[close] != '}') return -1;
+        int start = close;
+        while (start > 0 && json[start - 1] >= '0' && json[start - 1] <= '9') start--;
+        if (start == close || start - SEQ_FIELD.length + 1 < 0) return -1;
+        // The comma is absent when seq is the only field
+        for (int i = 1; i < SEQ_FIELD.length; i++) {
+            if (json[start - SEQ_FIELD.length + i] != SEQ_FIELD[i]) return -1;
+        }
+        long seq = 0;
+        for (int i = start; i < close; i++) {
+            seq = seq * 10 + (json[i] - '0');
+        }
+        return seq;
+    }
+
+    public static byte[] withId(byte[] json, String sid) {
+        int open = skipWhitespace(json, 0);
+        if (open >= json.length || json[open] != '{') throw new IllegalArgumentException("Not a JSON object");
+        int first = skipWhitespace(json, open + 1);
+        boolean empty = first < json.length && json[first] == '}';
+
+        byte[] out = new byte[json.length + SID_FIELD.length + sid.length() + 1 + (empty ? 0 : 1)];
+        int pos = 0;
+        System.arraycopy(json, 0, out, 0, open + 1);
+        pos += open + 1;
+        System.arraycopy(SID_FIELD, 0, out, pos, SID_FIELD.length);
+        pos += SID_FIELD.length;
+        for (int i = 0; i < sid.length(); i++) {
+            out[pos++] = (byte) sid.charAt(i);
+        }
+        out[pos++] = '"';
+        if (!empty) out[pos++] = ',';
+        System.arraycopy(json, open + 1, out, pos, json.length - open - 1);
+        return out;
+    }
+
+    public static byte[] withSeq(byte[] json, long seq) {
+        int close = json.length - 1;
+        while (close >= 0 && isWhitespace(json[close])) close--;
+        if (close < 0 || json[close] != '}') throw new IllegalArgumentException("Not a JSON object");
+        int previous = close - 1;
+        while (previous >= 0 && isWhitespace(json[previous])) previous--;
+        boolean empty = previous >= 0 && json[previous] == '{';
+
+        int digits = stringSize(seq);
+        int fieldLength = empty ? SEQ_FIELD.length - 1 : SEQ_FIELD.length;
+        byte[] out = new byte[close + fieldLength + digits + 1];
+        System.arraycopy(json, 0, out, 0, close);
+        System.arraycopy(SEQ_FIELD, empty ? 1 : 0, out, close, fieldLength);
+        int end = close + fieldLength + digits;
+        for (int i = end - 1; i >= close + fieldLength; i--) {
+            out[i] = (byte) ('0' + seq % 10);
+            seq /= 10;
+        }
+        out[end] = '}';
+        return out;
+    }
+
+    /**
+     * Appends {@code "stages":{"ingress":..,"publish":..,"deliver":..,"broadcast":..}} after
+     * everything else, leaving out unknown stages. Only for frames on their way to clients:
+     * a frame with a trailer no longer ends with its seq.
+     */
+    public static byte[] withStages(byte[] json, StageTimes stages, long broadcastNanos) {
+        int close = json.length - 1;
+        while (close >= 0 && isWhitespace(json[close])) close--;
+        if (close < 0 || json[close] != '}') throw new IllegalArgumentException("Not a JSON object");
+
+        StringBuilder trailer = new StringBuilder(96).append(",\"stages\":{");
+        int start = trailer.length();
+        appendStage(trailer, start, "ingress", stages.ingressNanos);
+        appendStage(trailer, start, "publish", stages.publishNanos);
+        appendStage(trailer, start, "deliver", stages.deliverNanos);
+        appendStage(trailer, start, "broadcast", broadcastNanos);
+        trailer.append("}}");
+
+        byte[] out = new byte[close + trailer.length()];
+        System.arraycopy(json, 0, out, 0, close);
+        for (int i = 0; i < trailer.length(); i++) {
+            out[close + i] = (byte) trailer.charAt(i);
+        }
+        return out;
+    }
+
+    private static void appendStage(StringBuilder trailer, int start, String name, long nanos) {
+        if (nanos <= 0) return;
+        if (trailer.length() > start) trailer.append(',');
+        trailer.append('"').append(name).append("\":").append(nanos);
+    }
+
+    private static int stringSize(long value) {
+        int size = 1;
+        while (value >= 10) {
+            value /= 10;
+            size++;
+        }
+        return size;
+    }
+
+    private static int skipWhitespace(byte[] json, int from) {
+        while (from < json.length && isWhitespace(json[from])) from++;
+        return from;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
\ No newline at end of file
@@ -0,0 +1,11 @@
+package com.chatflow.server.handler;
+
+/**
+ * How {@link WebSocketHandler} turns an inbound chat frame into a broker publish.
+ */
+public enum IngressMode {
+    /** Bind to ChatMessage, run ChatMessageValidator, re-serialize. */
+    BIND,
+    /** Validate in one streaming pass and forward the original bytes. */
+    STREAMING
+}
@@ -0,0 +1,200 @@
+package com.chatflow.server.handler;
+
+import com.chatflow.server.model.MessageType;
+import com.chatflow.server.model.UserInfo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token buckets on inbound chat frames, one per message type for each session and one per
+ * message type shared by all sessions of a userId (the one given at registration, not the
+ * one in the frame). A frame must get a token from both.
+ *
+ * <p>Each bucket is a single long, the time at which it will be full again (the GCRA form of
+ * a token bucket): taking a token moves it forward by one emission interval with a CAS, and
+ * the bucket is empty while it is more than the burst ahead of now. Checking a frame is a
+ * map lookup and one or two CAS loops; it never locks or allocates. A rate of 0 leaves that
+ * message type unlimited.
+ */
+@Component
+public class IngressRateLimiter {
+
+    /** Returned by {@link #acquire} when the frame may go through. */
+    public static final long ALLOWED = 0;
+
+    private static final MessageType[] TYPES = MessageType.values();
+
+    private final boolean enabled;
+    private final long[] sessionInterval = new long[TYPES.length];
+    private final long[] sessionTolerance = new long[TYPES.length];
+    private final long[] userInterval = new long[TYPES.length];
+    private final long[] userTolerance = new long[TYPES.length];
+    private final int maxTrackedRooms;
+
+    private final Map<WebSocketSession, Limits> sessions = new ConcurrentHashMap<>();
+    private final Map<String, UserBuckets> users = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> throttledByRoom = new ConcurrentHashMap<>();
+    private final Counter[] sessionThrottled = new Counter[TYPES.length];
+    private final Counter[] userThrottled = new Counter[TYPES.length];
+
+    public IngressRateLimiter(@Value("${chatflow.ratelimit.enabled:true}") boolean enabled,
+                              @Value("${chatflow.ratelimit.burst-seconds:1.0}") double burstSeconds,
+                              @Value("${chatflow.ratelimit.text.session-per-second:1000}") double textPerSession,
+                              @Value("${chatflow.ratelimit.text.user-per-second:2000}") double textPerUser,
+                              @Value("${chatflow.ratelimit.join.session-per-second:100}") double joinPerSession,
+                              @Value("${chatflow.ratelimit.join.user-per-second:200}") double joinPerUser,
+                              @Value("${chatflow.ratelimit.leave.session-per-second:100}") double leavePerSession,
+                              @Value("${chatflow.ratelimit.leave.user-per-second:200}") double leavePerUser,
+                              @Value("${chatflow.ratelimit.max-tracked-rooms:10000}") int maxTrackedRooms,
+                              MeterRegistry registry) {
+        this.enabled = enabled;
+        this.maxTrackedRooms = maxTrackedRooms;
+        configure(MessageType.TEXT, textPerSession, textPerUser, burstSeconds);
+        configure(MessageType.JOIN, joinPerSession, joinPerUser, burstSeconds);
+        configure(MessageType.LEAVE, leavePerSession, leavePerUser, burstSeconds);
+
+        for (MessageType type : TYPES) {
+            sessionThrottled[type.ordinal()] = Counter.builder("chatflow.ratelimit.throttled")
+                    .tag("scope", "session").tag("type", type.name()).register(registry);
+            userThrottled[type.ordinal()] = Counter.builder("chatflow.ratelimit.throttled")
+                    .tag("scope", "user").tag("type", type.name()).register(registry);
+        }
+    }
+
+    private void configure(MessageType type, double perSession, double perUser, double burstSeconds) {
+        int i = type.ordinal();
+        sessionInterval[i] = interval(perSession);
+        sessionTolerance[i] = tolerance(perSession, burstSeconds);
+        userInterval[i] = interval(perUser);
+        userTolerance[i] = tolerance(perUser, burstSeconds);
+    }
+
+    private static long interval(double perSecond) {
+        return perSecond > 0 ? Math.max(1, (long) (1_000_000_000L / perSecond)) : 0;
+    }
+
+    /** How far ahead of now a bucket may run: room for a burst of rate x burst-seconds. */
+    private static long tolerance(double perSecond, double burstSeconds) {
+        if (perSecond <= 0) return 0;
+        long burst = Math.max(1, (long) Math.ceil(perSecond * burstSeconds));
+        return (burst - 1) * interval(perSecond);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Gives a registered session its buckets and joins it to its user's. */
+    public void register(WebSocketSession session, UserInfo user) {
+        if (!enabled) return;
+        String userId = user != null && user.getUserId() != null ? user.getUserId() : session.getId();
+        UserBuckets shared = users.compute(userId, (id, existing) -> {
+            UserBuckets buckets = existing != null ? existing : new UserBuckets(id);
+            buckets.sessions++;
+            return buckets;
+        });
+        sessions.put(session, new Limits(fullBuckets(), shared));
+    }
+
+    public void unregister(WebSocketSession session) {
+        Limits limits = sessions.remove(session);
+        if (limits == null) return;
+        users.computeIfPresent(limits.user.userId, (id, buckets) -> --buckets.sessions > 0 ? buckets : null);
+    }
+
+    /**
+     * Takes a token for the frame from the session's and the user's bucket. Returns
+     * {@link #ALLOWED}, or the nanoseconds until a token is free when either bucket is empty;
+     * the frame is then counted against its room.
+     */
+    public long acquire(WebSocketSession session, String roomId, MessageType type) {
+        if (!enabled) return ALLOWED;
+        Limits limits = sessions.get(session);
+        if (limits == null) return ALLOWED;
+
+        int i = type.ordinal();
+        long now = System.nanoTime();
+        long wait = take(limits.session, i, sessionInterval[i], sessionTolerance[i], now);
+        if (wait != ALLOWED) {
+            throttled(sessionThrottled[i], roomId);
+            return wait;
+        }
+        wait = take(limits.user.tat, i, userInterval[i], userTolerance[i], now);
+        if (wait != ALLOWED) {
+            // Hand back the session's token; the frame is not going anywhere
+            if (sessionInterval[i] > 0) limits.session.addAndGet(i, -sessionInterval[i]);
+            throttled(userThrottled[i], roomId);
+            return wait;
+        }
+        return ALLOWED;
+    }
+
+    private static long take(AtomicLongArray tat, int i, long interval, long tolerance, long now) {
+        if (interval == 0) return ALLOWED;
+        while (true) {
+            long current = tat.get(i);
+            // A bucket left idle is simply full: never let it start behind now
+            long from = current - now > 0 ? current : now;
+            long ahead = from - now;
+            if (ahead > tolerance) return ahead - tolerance;
+            if (tat.compareAndSet(i, current, from + interval)) return ALLOWED;
+        }
+    }
+
+    /** Buckets that are full as of now; nanoTime has an arbitrary origin, so 0 will not do. */
+    private static AtomicLongArray fullBuckets() {
+        long now = System.nanoTime();
+        AtomicLongArray tat = new AtomicLongArray(TYPES.length);
+        for (int i = 0; i < TYPES.length; i++) {
+            tat.set(i, now);
+        }
+        return tat;
+    }
+
+    private void throttled(Counter counter, String roomId) {
+        counter.increment();
+        LongAdder room = throttledByRoom.get(roomId);
+        if (room == null && throttledByRoom.size() < maxTrackedRooms) {
+            room = throttledByRoom.computeIfAbsent(roomId, id -> new LongAdder());
+        }
+        if (room != null) room.increment();
+    }
+
+    /** Throttled frames per room since startup, for up to max-tracked-rooms rooms. */
+    public Map<String, Long> getThrottledByRoom() {
+        Map<String, Long> counts = new HashMap<>();
+        throttledByRoom.forEach((roomId, count) -> counts.put(roomId, count.sum()));
+        return Collections.unmodifiableMap(counts);
+    }
+
+    private static final class Limits {
+        final AtomicLongArray session;
+        final UserBuckets user;
+
+        Limits(AtomicLongArray session, UserBuckets user) {
+            this.session = session;
+            this.user = user;
+        }
+    }
+
+    private static final class UserBuckets {
+        final String userId;
+        final AtomicLongArray tat = fullBuckets();
+        // Guarded by the users map's compute for this userId
+        int sessions;
+
+        UserBuckets(String userId) {
+            this.userId = userId;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,100 @@
+package com.chatflow.server.handler;
+
+import com.chatflow.server.config.ServerIdentity;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-assigned message ids: 64 bits laid out as 42 bits of milliseconds since 2024-01-01,
+ * 10 bits of node id and a 12-bit counter, so ids from one server increase strictly and ids
+ * from different servers sort by time. The text form is 13 Crockford base32 characters,
+ * which sort the same way as the numbers.
+ *
+ * <p>Ids are unique only if every server has its own node id. Two servers sharing one mint
+ * the same id whenever they stamp the same counter value in the same millisecond, and room
+ * lanes then drop the second message as a redelivery. With the RabbitMQ bus the node id
+ * must therefore be set explicitly; only a single in-process server may derive it from its
+ * server id.
+ */
+@Component
+public class MessageIdGenerator {
+
+    public static final int TEXT_LENGTH = 13;
+
+    private static final long EPOCH_MS = 1_704_067_200_000L;
+    private static final int NODE_BITS = 10;
+    private static final int COUNTER_BITS = 12;
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final byte[] DIGITS = new byte[128];
+
+    static {
+        Arrays.fill(DIGITS, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DIGITS[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    private final long node;
+    // Milliseconds and counter of the last id; the counter carries into the next millisecond
+    private final AtomicLong last = new AtomicLong(0);
+
+    public MessageIdGenerator(ServerIdentity serverIdentity,
+                              @Value("${chatflow.message-id.node:-1}") int node,
+                              @Value("${chatflow.bus.type:rabbitmq}") String busType) {
+        if (node >= 1 << NODE_BITS) {
+            throw new IllegalArgumentException("chatflow.message-id.node must be below " + (1 << NODE_BITS));
+        }
+        if (node < 0 && !"inprocess".equals(busType)) {
+            throw new IllegalStateException("Set chatflow.message-id.node to a value unique to this server (0-"
+                    + ((1 << NODE_BITS) - 1) + "); servers sharing a node id mint duplicate message ids");
+        }
+        this.node = node >= 0 ? node : Math.floorMod(serverIdentity.getServerId().hashCode(), 1 << NODE_BITS);
+    }
+
+    public long next() {
+        while (true) {
+            long previous = last.get();
+            long now = (System.currentTimeMillis() - EPOCH_MS) << COUNTER_BITS;
+            long candidate = now > previous ? now : previous + 1;
+            if (last.compareAndSet(previous, candidate)) {
+                long millis = candidate >>> COUNTER_BITS;
+                long counter = candidate & ((1 << COUNTER_BITS) - 1);
+                return (millis << (NODE_BITS + COUNTER_BITS)) | (node << COUNTER_BITS) | counter;
+            }
+        }
+    }
+
+    public String nextText() {
+        return format(next());
+    }
+
+    public static String format(long id) {
+        char[] text = new char[TEXT_LENGTH];
+        for (int i = TEXT_LENGTH - 1; i >= 0; i--) {
+            text[i] = ALPHABET[(int) (id & 31)];
+            id >>>= 5;
+        }
+        return new String(text);
+    }
+
+    /** Wall-clock milliseconds at which the id was generated. */
+    public static long timestampMillis(long id) {
+        return (id >>> (NODE_BITS + COUNTER_BITS)) + EPOCH_MS;
+    }
+
+    /** Inverse of {@link #format}; throws IllegalArgumentException for anything else. */
+    public static long parse(CharSequence text) {
+        if (text.length() != TEXT_LENGTH) throw new IllegalArgumentException("Bad message id length");
+        long id = 0;
+        for (int i = 0; i < TEXT_LENGTH; i++) {
+            char c = text.charAt(i);
+            int digit = c < 128 ? DIGITS[c] : -1;
+            if (digit < 0 || (i == 0 && digit > 15)) throw new IllegalArgumentException("Bad message id");
+            id = (id << 5) | digit;
+        }
+        return id;
+    }
+}
\ No newline at end of file
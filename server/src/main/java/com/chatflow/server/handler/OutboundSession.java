@@ -0,0 +1,275 @@
+package com.chatflow.server.handler;
+
+import com.chatflow.server.jfr.SessionWriteEvent;
+import com.chatflow.server.model.WireProtocol;
+import io.micrometer.core.instrument.Timer;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded outbound buffer for one WebSocket session. Producers only enqueue; a single
+ * drain task at a time runs on the shared writer pool, so frames to one session are
+ * written in order.
+ * <p>
+ * Text and binary frames go out as async sends with a deadline: the drain hands the frame
+ * to the container and returns its writer thread, and the completion schedules the next
+ * drain. While a write is pending the queue keeps filling and the overflow policy applies;
+ * a write that misses the deadline closes the session. Sessions without a native endpoint
+ * fall back to blocking writes.
+ */
+public class OutboundSession {
+
+    private static final int DRAIN_BATCH = 64;
+    private static final long RETRY_DELAY_MS = 50;
+
+    private final WebSocketSession session;
+    private final WireProtocol protocol;
+    private final BlockingQueue<WebSocketMessage<?>> queue;
+    private final OverflowPolicy policy;
+    private final Executor writer;
+    private final ScheduledExecutorService retryTimer;
+    private final RemoteEndpoint.Async async;
+    private final LongAdder droppedTotal;
+    private final LongAdder rejectedDrains;
+    private final Timer sendTimer;
+
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final Runnable drainTask = this::drain;
+    private final Runnable retryTask = this::retryDrain;
+    private final SendHandler sentHandler = this::onSent;
+    private WebSocketMessage<?> inFlight;
+    private SessionWriteEvent inFlightEvent;
+    private long inFlightStart;
+    private volatile boolean closeRequested;
+    private volatile boolean closed;
+
+    public OutboundSession(WebSocketSession session, WireProtocol protocol, int capacity, OverflowPolicy policy,
+                           Executor writer, ScheduledExecutorService retryTimer, long sendTimeoutMs,
+                           LongAdder droppedTotal, LongAdder rejectedDrains, Timer sendTimer) {
+        this.session = session;
+        this.protocol = protocol;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.writer = writer;
+        this.retryTimer = retryTimer;
+        this.async = asyncEndpoint(session, sendTimeoutMs);
+        this.droppedTotal = droppedTotal;
+        this.rejectedDrains = rejectedDrains;
+        this.sendTimer = sendTimer;
+    }
+
+    /**
+     * Queues a frame for this session. Returns false if the frame itself was dropped.
+     */
+    public boolean send(WebSocketMessage<?> frame) {
+        if (closed || closeRequested) return false;
+
+        boolean accepted = queue.offer(frame);
+        if (!accepted) {
+            switch (policy) {
+                case DROP_OLDEST:
+                    while (!accepted) {
+                        if (queue.poll() != null) recordDrop();
+                        accepted = queue.offer(frame);
+                    }
+                    break;
+                case DROP_NEWEST:
+                    recordDrop();
+                    break;
+                case DISCONNECT:
+                    recordDrop();
+                    closeRequested = true;
+                    break;
+            }
+        }
+
+        scheduleDrain();
+        return accepted;
+    }
+
+    /** Stops accepting frames and discards anything still buffered. */
+    public void close() {
+        closed = true;
+        queue.clear();
+    }
+
+    public WebSocketSession getSession() { return session; }
+
+    public WireProtocol getProtocol() { return protocol; }
+
+    public int getQueueDepth() { return queue.size(); }
+
+    public long getDroppedCount() { return dropped.get(); }
+
+    private void recordDrop() {
+        dropped.incrementAndGet();
+        droppedTotal.increment();
+    }
+
+    private static RemoteEndpoint.Async asyncEndpoint(WebSocketSession session, long sendTimeoutMs) {
+        if (!(session instanceof NativeWebSocketSession nativeSession)) return null;
+        Session endpoint = nativeSession.getNativeSession(Session.class);
+        if (endpoint == null) return null;
+        RemoteEndpoint.Async async = endpoint.getAsyncRemote();
+        async.setSendTimeout(sendTimeoutMs);
+        return async;
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            submitDrain();
+        }
+    }
+
+    /** Runs the next drain on the writer pool; the caller already owns {@code draining}. */
+    private void submitDrain() {
+        try {
+            writer.execute(drainTask);
+        } catch (RejectedExecutionException e) {
+            // Queued frames must not wait for new traffic, which may never come in a quiet room
+            rejectedDrains.increment();
+            try {
+                retryTimer.schedule(retryTask, RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException shutdown) {
+                draining.set(false);
+            }
+        }
+    }
+
+    private void retryDrain() {
+        if (closed) {
+            draining.set(false);
+            return;
+        }
+        submitDrain();
+    }
+
+    private void drain() {
+        boolean pending = false;
+        try {
+            WebSocketMessage<?> frame;
+            int written = 0;
+            while (written < DRAIN_BATCH && !closeRequested && (frame = queue.poll()) != null) {
+                if (closed || !session.isOpen()) {
+                    queue.clear();
+                    break;
+                }
+                if (async != null && (frame instanceof TextMessage || frame instanceof BinaryMessage)) {
+                    pending = sendAsync(frame);
+                    break;
+                }
+                sendBlocking(frame);
+                written++;
+            }
+            if (!pending) {
+                closeIfRequested();
+            }
+        } finally {
+            if (!pending) {
+                draining.set(false);
+            }
+        }
+
+        if (!pending && !closed && !queue.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    /** Starts an async write; returns false if the container refused it outright. */
+    private boolean sendAsync(WebSocketMessage<?> frame) {
+        inFlight = frame;
+        inFlightEvent = beginEvent();
+        inFlightStart = System.nanoTime();
+        try {
+            if (frame instanceof TextMessage text) {
+                async.sendText(text.getPayload(), sentHandler);
+            } else {
+                async.sendBinary(((BinaryMessage) frame).getPayload(), sentHandler);
+            }
+            return true;
+        } catch (Exception e) {
+            closeRequested = true;
+            finishWrite(false);
+            return false;
+        }
+    }
+
+    /** Container callback, possibly on an I/O thread: record the write and continue on the pool. */
+    private void onSent(SendResult result) {
+        if (!result.isOK()) {
+            closeRequested = true;
+        }
+        finishWrite(result.isOK());
+        submitDrain();
+    }
+
+    private void finishWrite(boolean ok) {
+        if (ok) {
+            sendTimer.record(System.nanoTime() - inFlightStart, TimeUnit.NANOSECONDS);
+        }
+        commit(inFlightEvent, inFlight, !ok);
+        inFlight = null;
+        inFlightEvent = null;
+    }
+
+    private void sendBlocking(WebSocketMessage<?> frame) {
+        SessionWriteEvent event = beginEvent();
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            session.sendMessage(frame);
+            sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        } catch (Exception e) {
+            closeRequested = true;
+            failed = true;
+        }
+        commit(event, frame, failed);
+    }
+
+    /** Null while no recording wants write events, so a frame allocates none. */
+    private static SessionWriteEvent beginEvent() {
+        if (!SessionWriteEvent.enabled()) return null;
+        SessionWriteEvent event = new SessionWriteEvent();
+        event.begin();
+        return event;
+    }
+
+    private void commit(SessionWriteEvent event, WebSocketMessage<?> frame, boolean failed) {
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.sessionId = session.getId();
+            event.payloadBytes = frame.getPayloadLength();
+            event.failed = failed;
+            event.commit();
+        }
+    }
+
+    private void closeIfRequested() {
+        if (closeRequested && !closed) {
+            close();
+            try {
+                session.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (Exception e) {}
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.chatflow.server.handler;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Outbound buffer metrics, plus a {@code chatflow.room.sessions} gauge per room with local
+ * members. Room gauges come and go with the room's interest, so the series count follows
+ * the rooms this server is in rather than every room ever seen.
+ */
+@Component
+public class OutboundSessionMetrics implements MeterBinder, RoomInterestListener {
+
+    private final RoomSessionManager roomSessionManager;
+    private final Map<String, Gauge> roomGauges = new ConcurrentHashMap<>();
+    private volatile MeterRegistry registry;
+
+    public OutboundSessionMetrics(RoomSessionManager roomSessionManager) {
+        this.roomSessionManager = roomSessionManager;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("chatflow.outbound.queued", roomSessionManager, OutboundSessionMetrics::totalQueued)
+                .description("Frames waiting in all per-session outbound buffers")
+                .register(registry);
+        Gauge.builder("chatflow.outbound.depth.max", roomSessionManager, OutboundSessionMetrics::maxDepth)
+                .description("Deepest per-session outbound buffer")
+                .register(registry);
+        FunctionCounter.builder("chatflow.outbound.dropped", roomSessionManager, RoomSessionManager::getDroppedFrames)
+                .description("Frames dropped by the slow-consumer overflow policy")
+                .register(registry);
+        FunctionCounter.builder("chatflow.outbound.drain.rejected", roomSessionManager, RoomSessionManager::getRejectedDrains)
+                .description("Drains the writer pool refused to schedule")
+                .register(registry);
+
+        this.registry = registry;
+        roomSessionManager.addRoomInterestListener(this);
+        for (String roomId : roomSessionManager.getActiveRooms()) {
+            roomActivated(roomId);
+        }
+    }
+
+    @Override
+    public void roomActivated(String roomId) {
+        MeterRegistry target = registry;
+        if (target == null) return;
+        roomGauges.computeIfAbsent(roomId, id -> Gauge.builder("chatflow.room.sessions",
+                        roomSessionManager, manager -> manager.getRoomSnapshot(id).length)
+                .tag("room", id).register(target));
+    }
+
+    @Override
+    public void roomDeactivated(String roomId) {
+        // Listener calls can race; only drop the gauge if the room really is empty now
+        roomGauges.computeIfPresent(roomId, (id, gauge) -> {
+            if (roomSessionManager.hasLocalMembers(id)) return gauge;
+            registry.remove(gauge);
+            return null;
+        });
+    }
+
+    private static double totalQueued(RoomSessionManager manager) {
+        long total = 0;
+        for (OutboundSession outbound : manager.getOutboundSessions()) {
+            total += outbound.getQueueDepth();
+        }
+        return total;
+    }
+
+    private static double maxDepth(RoomSessionManager manager) {
+        int max = 0;
+        for (OutboundSession outbound : manager.getOutboundSessions()) {
+            max = Math.max(max, outbound.getQueueDepth());
+        }
+        return max;
+    }
+}
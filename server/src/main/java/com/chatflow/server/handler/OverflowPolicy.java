@@ -0,0 +1,10 @@
+package com.chatflow.server.handler;
+
+/**
+ * What an {@link OutboundSession} does with a frame when its buffer is full.
+ */
+public enum OverflowPolicy {
+    DROP_OLDEST,
+    DROP_NEWEST,
+    DISCONNECT
+}
@@ -0,0 +1,111 @@
+package com.chatflow.server.handler;
+
+import com.chatflow.server.jfr.BroadcastEvent;
+import com.chatflow.server.model.ChatMessage;
+import com.chatflow.server.model.WireProtocol;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.nio.ByteBuffer;
+
+@Component
+public class RoomBroadcaster {
+
+    private final RoomSessionManager roomSessionManager;
+    private final ObjectMapper objectMapper;
+    private final Counter binarySkipped;
+
+    public RoomBroadcaster(RoomSessionManager roomSessionManager, ObjectMapper objectMapper, MeterRegistry registry) {
+        this.roomSessionManager = roomSessionManager;
+        this.objectMapper = objectMapper;
+        this.binarySkipped = Counter.builder("chatflow.broadcast.binary.skipped")
+                .description("Deliveries to binary sessions of frames that have no binary form")
+                .register(registry);
+    }
+
+    /**
+     * Wraps the delivered UTF-8 bytes in a single immutable frame and queues that
+     * frame on every open session in the room. Returns the number of sessions that
+     * accepted it; the writes themselves happen on each session's outbound writer.
+     * Binary-protocol members get the frame transcoded once per delivery, on demand; if it
+     * has no binary form (say, a non-numeric user id) they are skipped and counted.
+     */
+    public int broadcast(String roomId, byte[] body) {
+        BroadcastEvent event = beginEvent();
+        TextMessage text = new TextMessage(body);
+        ByteBuffer binary = null;
+        boolean binaryUnavailable = false;
+
+        int sent = 0;
+        for (OutboundSession outbound : roomSessionManager.getRoomSnapshot(roomId)) {
+            if (!outbound.getSession().isOpen()) continue;
+
+            WebSocketMessage<?> frame = text;
+            if (outbound.getProtocol() == WireProtocol.BINARY) {
+                if (binary == null && !binaryUnavailable) {
+                    binary = toBinary(body);
+                    binaryUnavailable = binary == null;
+                }
+                if (binaryUnavailable) {
+                    binarySkipped.increment();
+                    continue;
+                }
+                // The container consumes the buffer while writing, so each session gets its own view.
+                frame = new BinaryMessage(binary.duplicate());
+            }
+
+            if (outbound.send(frame)) {
+                sent++;
+            }
+        }
+        commit(event, roomId, body, sent);
+        return sent;
+    }
+
+    /** Queues the frame as text on every open session in the room, whatever its protocol. */
+    public int broadcastText(String roomId, byte[] body) {
+        BroadcastEvent event = beginEvent();
+        TextMessage text = new TextMessage(body);
+        int sent = 0;
+        for (OutboundSession outbound : roomSessionManager.getRoomSnapshot(roomId)) {
+            if (outbound.getSession().isOpen() && outbound.send(text)) {
+                sent++;
+            }
+        }
+        commit(event, roomId, body, sent);
+        return sent;
+    }
+
+    /** Null while no recording wants broadcast events, so a fan-out allocates none. */
+    private static BroadcastEvent beginEvent() {
+        if (!BroadcastEvent.enabled()) return null;
+        BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+        return event;
+    }
+
+    private static void commit(BroadcastEvent event, String roomId, byte[] body, int sent) {
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.roomId = roomId;
+            event.payloadBytes = body.length;
+            event.fanOut = sent;
+            event.commit();
+        }
+    }
+
+    private ByteBuffer toBinary(byte[] body) {
+        try {
+            ChatMessage chatMessage = objectMapper.readValue(body, ChatMessage.class);
+            return ByteBuffer.wrap(BinaryFrameCodec.encode(chatMessage));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
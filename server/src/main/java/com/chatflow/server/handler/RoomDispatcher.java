@@ -0,0 +1,246 @@
+package com.chatflow.server.handler;
+
+import com.chatflow.server.history.RecentFrames;
+import com.chatflow.server.history.RoomHistory;
+import com.chatflow.server.presence.RoomPresence;
+import com.chatflow.server.rabbit.StageHeaders;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.ToLongFunction;
+
+/**
+ * Demultiplexes deliveries by room onto a fixed set of single-threaded lanes. A room always
+ * hashes to the same lane, so its messages are broadcast in arrival order, while the thread
+ * count stays fixed no matter how many rooms exist. A full lane blocks the caller, which
+ * pushes back on the broker consumer through its prefetch.
+ *
+ * <p>The lane is also the room's sequencer on this server: each frame gets the next
+ * {@code "seq"} in the room's node sequence before it is broadcast, so the server's members
+ * can spot gaps. There is no cluster-wide room sequence; another server numbers the same
+ * message differently, and frames broadcast while this server had no members in the room
+ * are never numbered here. Clients learn whose sequence they see from the {@code "node"}
+ * in their REGISTERED reply. Counters live on the lane thread and are dropped when the room
+ * has no local members left. With {@link RoomHistory} on, each sequenced frame is also
+ * appended to the room's log, and a room's counter starts from the last seq in that log.
+ * The frame is also kept in the room's {@link RecentFrames} ring for catching up joiners.
+ * {@link RoomPresence} diffs pass through the same lanes but are broadcast as they are,
+ * without a seq.
+ *
+ * <p>Before sequencing, each lane checks the frame's server message id against its
+ * {@link DedupWindow}; a frame already broadcast, for example one redelivered after a lost
+ * ack, is acknowledged and dropped.
+ */
+@Component
+public class RoomDispatcher implements RoomInterestListener {
+
+    /** Told once the lane has finished with a dispatched message. */
+    public interface Completion {
+        void complete(boolean delivered);
+    }
+
+    private final RoomBroadcaster roomBroadcaster;
+    private final RoomSessionManager roomSessionManager;
+    private final RoomHistory roomHistory;
+    private final RecentFrames recentFrames;
+    private final Lane[] lanes;
+    private final Counter duplicates;
+
+    public RoomDispatcher(RoomBroadcaster roomBroadcaster,
+                          RoomSessionManager roomSessionManager,
+                          RoomHistory roomHistory,
+                          RecentFrames recentFrames,
+                          @Value("${chatflow.dispatch.lanes:8}") int laneCount,
+                          @Value("${chatflow.dispatch.lane-capacity:4096}") int laneCapacity,
+                          @Value("${chatflow.dedup.enabled:true}") boolean dedupEnabled,
+                          @Value("${chatflow.dedup.memory-bytes:8388608}") long dedupMemoryBytes,
+                          @Value("${chatflow.dedup.false-positive-rate:0.0001}") double dedupFalsePositiveRate,
+                          MeterRegistry registry) {
+        this.roomBroadcaster = roomBroadcaster;
+        this.roomSessionManager = roomSessionManager;
+        this.roomHistory = roomHistory;
+        this.recentFrames = recentFrames;
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            DedupWindow dedup = dedupEnabled
+                    ? new DedupWindow(dedupMemoryBytes / laneCount, dedupFalsePositiveRate)
+                    : null;
+            lanes[i] = new Lane(i, laneCapacity, dedup);
+            lanes[i].start();
+        }
+        this.duplicates = Counter.builder("chatflow.dedup.duplicates")
+                .description("Frames dropped because their message id was already broadcast").register(registry);
+        Gauge.builder("chatflow.dispatch.queued", this, RoomDispatcher::queued).register(registry);
+        if (dedupEnabled) {
+            Gauge.builder("chatflow.dedup.memory", this, d -> d.sumDedup(DedupWindow::memoryBytes))
+                    .baseUnit("bytes").register(registry);
+            Gauge.builder("chatflow.dedup.window", this, d -> d.sumDedup(DedupWindow::capacity))
+                    .description("Most recent message ids each lane is guaranteed to remember, summed").register(registry);
+            Gauge.builder("chatflow.dedup.false.positive.rate", this, RoomDispatcher::worstFalsePositiveRate)
+                    .description("Estimated at current fill; the highest lane").register(registry);
+            Gauge.builder("chatflow.dedup.false.positive.target", () -> dedupFalsePositiveRate).register(registry);
+        }
+        roomSessionManager.addRoomInterestListener(this);
+    }
+
+    /**
+     * Queues the message on its room's lane. {@code completion} may be null; otherwise it is
+     * called on the lane thread after the broadcast. The body must be a JSON object.
+     */
+    public void dispatch(String roomId, byte[] body, Completion completion) throws InterruptedException {
+        dispatch(roomId, body, completion, null);
+    }
+
+    /**
+     * Like {@link #dispatch(String, byte[], Completion)}; with {@code stages}, the broadcast
+     * copy gets a {@code "stages"} trailer ending with the broadcast time. The logged and
+     * recent copies never carry it.
+     */
+    public void dispatch(String roomId, byte[] body, Completion completion, StageTimes stages) throws InterruptedException {
+        laneFor(roomId).queue.put(new Task(roomId, body, completion, stages));
+    }
+
+    @Override
+    public void roomActivated(String roomId) {}
+
+    @Override
+    public void roomDeactivated(String roomId) {
+        // Best effort: if the lane is full the counter just lives until the next deactivation
+        laneFor(roomId).queue.offer(new Task(roomId, null, null, null));
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    public int laneIndex(String roomId) {
+        return Math.floorMod(roomId.hashCode(), lanes.length);
+    }
+
+    private Lane laneFor(String roomId) {
+        return lanes[laneIndex(roomId)];
+    }
+
+    private double sumDedup(ToLongFunction<DedupWindow> metric) {
+        long total = 0;
+        for (Lane lane : lanes) {
+            total += metric.applyAsLong(lane.dedup);
+        }
+        return total;
+    }
+
+    private double worstFalsePositiveRate() {
+        double worst = 0;
+        for (Lane lane : lanes) {
+            worst = Math.max(worst, lane.dedup.estimatedFalsePositiveRate());
+        }
+        return worst;
+    }
+
+    private int queued() {
+        int total = 0;
+        for (Lane lane : lanes) {
+            total += lane.queue.size();
+        }
+        return total;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Lane lane : lanes) {
+            lane.interrupt();
+        }
+    }
+
+    private static final class Task {
+        final String roomId;
+        final byte[] body;
+        final Completion completion;
+        final StageTimes stages;
+
+        Task(String roomId, byte[] body, Completion completion, StageTimes stages) {
+            this.roomId = roomId;
+            this.body = body;
+            this.completion = completion;
+            this.stages = stages;
+        }
+    }
+
+    private final class Lane extends Thread {
+        final BlockingQueue<Task> queue;
+        // Node sequence per room, see the class comment
+        final Map<String, long[]> sequences = new HashMap<>();
+        final DedupWindow dedup;
+
+        Lane(int index, int capacity, DedupWindow dedup) {
+            super("room-lane-" + index);
+            setDaemon(true);
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.dedup = dedup;
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                Task task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (task.body == null) {
+                    if (!roomSessionManager.hasLocalMembers(task.roomId)) {
+                        sequences.remove(task.roomId);
+                        roomHistory.release(task.roomId);
+                    }
+                    continue;
+                }
+
+                if (dedup != null) {
+                    long id = FrameStamps.readId(task.body);
+                    if (id != FrameStamps.NO_ID && !dedup.add(id)) {
+                        duplicates.increment();
+                        if (task.completion != null) {
+                            task.completion.complete(true);
+                        }
+                        continue;
+                    }
+                }
+
+                boolean delivered = true;
+                try {
+                    if (RoomPresence.isPresenceFrame(task.body)) {
+                        // Presence diffs are state, not conversation: no seq, not logged
+                        roomBroadcaster.broadcastText(task.roomId, task.body);
+                        if (task.completion != null) {
+                            task.completion.complete(true);
+                        }
+                        continue;
+                    }
+                    long[] sequence = sequences.computeIfAbsent(task.roomId, id -> new long[]{roomHistory.lastSeq(id)});
+                    byte[] frame = FrameStamps.withSeq(task.body, sequence[0] + 1);
+                    sequence[0]++;
+                    roomHistory.append(task.roomId, sequence[0], frame);
+                    recentFrames.append(task.roomId, frame);
+                    roomBroadcaster.broadcast(task.roomId, task.stages != null
+                            ? FrameStamps.withStages(frame, task.stages, StageHeaders.now()) : frame);
+                } catch (Exception e) {
+                    delivered = false;
+                    System.err.println("Broadcast failed for " + task.roomId + ": " + e.getMessage());
+                }
+                if (task.completion != null) {
+                    task.completion.complete(delivered);
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,13 @@
+package com.chatflow.server.handler;
+
+/**
+ * Told when a room gains its first local member or loses its last one. Calls happen on the
+ * joining or leaving thread and can arrive out of order under concurrent membership changes,
+ * so listeners should re-check {@link RoomSessionManager#hasLocalMembers(String)}.
+ */
+public interface RoomInterestListener {
+
+    void roomActivated(String roomId);
+
+    void roomDeactivated(String roomId);
+}
\ No newline at end of file
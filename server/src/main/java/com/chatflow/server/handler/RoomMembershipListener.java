@@ -0,0 +1,15 @@
+package com.chatflow.server.handler;
+
+import com.chatflow.server.model.UserInfo;
+
+/**
+ * Told when a session joins or leaves a room on this server. Calls happen on the joining or
+ * leaving thread, once per actual change: joining a room the session is already in, or
+ * leaving one it is not in, is not reported.
+ */
+public interface RoomMembershipListener {
+
+    void memberJoined(String roomId, UserInfo user);
+
+    void memberLeft(String roomId, UserInfo user);
+}
\ No newline at end of file
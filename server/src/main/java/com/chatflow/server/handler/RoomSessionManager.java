@@ -1,44 +1,235 @@
 package com.chatflow.server.handler;
 
 import com.chatflow.server.model.UserInfo;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.WebSocketSession;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 @Component
 public class RoomSessionManager {
 
     private final Map<WebSocketSession, UserInfo> sessionUsers = new ConcurrentHashMap<>();
-    private final Map<String, Set<WebSocketSession>> roomSessions = new ConcurrentHashMap<>();
+    private final Map<WebSocketSession, OutboundSession> outboundSessions = new ConcurrentHashMap<>();
+    private final Map<WebSocketSession, Set<String>> sessionRooms = new ConcurrentHashMap<>();
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final List<RoomInterestListener> interestListeners = new CopyOnWriteArrayList<>();
+    private final List<RoomMembershipListener> membershipListeners = new CopyOnWriteArrayList<>();
+
+    private final int outboundCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long sendTimeoutMs;
+    private final ExecutorService writerExecutor;
+    private final ScheduledExecutorService retryExecutor;
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder rejectedDrains = new LongAdder();
+    private final Timer sendTimer;
+
+    public RoomSessionManager(@Value("${chatflow.outbound.capacity:1024}") int outboundCapacity,
+                              @Value("${chatflow.outbound.overflow-policy:DROP_OLDEST}") OverflowPolicy overflowPolicy,
+                              @Value("${chatflow.outbound.writer-threads:16}") int writerThreads,
+                              @Value("${chatflow.outbound.max-sessions:65536}") int maxSessions,
+                              @Value("${chatflow.outbound.send-timeout-ms:5000}") long sendTimeoutMs,
+                              MeterRegistry registry) {
+        this.outboundCapacity = outboundCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.sendTimeoutMs = sendTimeoutMs;
+
+        AtomicInteger threadIndex = new AtomicInteger(0);
+        // Each session has at most one drain task pending, so an array-backed queue sized for
+        // the session count never fills up and scheduling a drain does not allocate.
+        this.writerExecutor = new ThreadPoolExecutor(writerThreads, writerThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxSessions), r -> {
+            Thread t = new Thread(r, "ws-writer-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.retryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ws-writer-retry");
+            t.setDaemon(true);
+            return t;
+        });
+        this.sendTimer = Timer.builder("chatflow.outbound.send")
+                .description("Time to write one frame to a session's socket").register(registry);
+    }
 
     public boolean hasSession(WebSocketSession session) {
         return sessionUsers.containsKey(session);
     }
 
     public void addUserSession(WebSocketSession session, UserInfo user) {
+        outboundSessions.computeIfAbsent(session, s ->
+                new OutboundSession(s, user.getProtocol(), outboundCapacity, overflowPolicy, writerExecutor, retryExecutor,
+                        sendTimeoutMs, droppedFrames, rejectedDrains, sendTimer));
         sessionUsers.put(session, user);
     }
 
     public void addUserToRoom(WebSocketSession session, String roomId, UserInfo user) {
-        roomSessions.computeIfAbsent(roomId, r -> ConcurrentHashMap.newKeySet()).add(session);
+        OutboundSession outbound = outboundSessions.get(session);
+        if (outbound == null) return;
+
+        boolean added = sessionRooms.computeIfAbsent(session, s -> ConcurrentHashMap.newKeySet()).add(roomId);
+        boolean[] activated = {false};
+        rooms.compute(roomId, (id, room) -> {
+            Room target = room != null ? room : new Room();
+            target.add(outbound);
+            activated[0] = room == null;
+            return target;
+        });
+        if (activated[0]) {
+            for (RoomInterestListener listener : interestListeners) {
+                listener.roomActivated(roomId);
+            }
+        }
+        if (added) {
+            for (RoomMembershipListener listener : membershipListeners) {
+                listener.memberJoined(roomId, user);
+            }
+        }
+    }
+
+    public void removeUserFromRoom(WebSocketSession session, String roomId) {
+        Set<String> joined = sessionRooms.get(session);
+        OutboundSession outbound = outboundSessions.get(session);
+        if (joined == null || outbound == null || !joined.remove(roomId)) return;
+
+        leaveRoom(roomId, outbound, sessionUsers.get(session));
     }
 
     public void removeSession(WebSocketSession session) {
         UserInfo user = sessionUsers.remove(session);
-        if (user != null) {
-            for (Set<WebSocketSession> sessions : roomSessions.values()) {
-                sessions.remove(session);
+        OutboundSession outbound = outboundSessions.remove(session);
+        Set<String> joined = sessionRooms.remove(session);
+        if (outbound == null) return;
+
+        outbound.close();
+        if (joined != null) {
+            for (String roomId : joined) {
+                leaveRoom(roomId, outbound, user);
             }
         }
     }
 
-    public Set<WebSocketSession> getSessionsInRoom(String roomId) {
-        return roomSessions.getOrDefault(roomId, Collections.emptySet());
+    /**
+     * Current members of the room. The array is an immutable snapshot that is replaced
+     * on every membership change, so callers can iterate it without locking or copying.
+     */
+    public OutboundSession[] getRoomSnapshot(String roomId) {
+        Room room = rooms.get(roomId);
+        return room != null ? room.members : Room.EMPTY;
+    }
+
+    public boolean hasLocalMembers(String roomId) {
+        return rooms.containsKey(roomId);
+    }
+
+    /** Rooms with at least one local member. */
+    public Set<String> getActiveRooms() {
+        return Collections.unmodifiableSet(rooms.keySet());
+    }
+
+    public void addRoomInterestListener(RoomInterestListener listener) {
+        interestListeners.add(listener);
+    }
+
+    public void addMembershipListener(RoomMembershipListener listener) {
+        membershipListeners.add(listener);
+    }
+
+    public Set<String> getRoomsForSession(WebSocketSession session) {
+        Set<String> joined = sessionRooms.get(session);
+        return joined != null ? Collections.unmodifiableSet(joined) : Collections.emptySet();
     }
 
     public UserInfo getUser(WebSocketSession session) {
         return sessionUsers.get(session);
     }
+
+    public OutboundSession getOutbound(WebSocketSession session) {
+        return outboundSessions.get(session);
+    }
+
+    public Collection<OutboundSession> getOutboundSessions() {
+        return outboundSessions.values();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    /** Drains the writer pool refused; each one is retried shortly after on a timer. */
+    public long getRejectedDrains() {
+        return rejectedDrains.sum();
+    }
+
+    private void leaveRoom(String roomId, OutboundSession outbound, UserInfo user) {
+        boolean[] deactivated = {false};
+        rooms.computeIfPresent(roomId, (id, room) -> {
+            room.remove(outbound);
+            deactivated[0] = room.members.length == 0;
+            return deactivated[0] ? null : room;
+        });
+        if (deactivated[0]) {
+            for (RoomInterestListener listener : interestListeners) {
+                listener.roomDeactivated(roomId);
+            }
+        }
+        for (RoomMembershipListener listener : membershipListeners) {
+            listener.memberLeft(roomId, user);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryExecutor.shutdownNow();
+        writerExecutor.shutdownNow();
+    }
+
+    /**
+     * Copy-on-write member array for one room. Mutations only happen inside
+     * ConcurrentHashMap.compute for the room's key, which serializes writers;
+     * readers just load the volatile array.
+     */
+    private static final class Room {
+        static final OutboundSession[] EMPTY = new OutboundSession[0];
+
+        volatile OutboundSession[] members = EMPTY;
+
+        void add(OutboundSession outbound) {
+            OutboundSession[] current = members;
+            for (OutboundSession member : current) {
+                if (member == outbound) return;
+            }
+            OutboundSession[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = outbound;
+            members = next;
+        }
+
+        void remove(OutboundSession outbound) {
+            OutboundSession[] current = members;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == outbound) {
+                    OutboundSession[] next = new OutboundSession[current.length - 1];
+                    System.arraycopy(current, 0, next, 0, i);
+                    System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                    members = current.length == 1 ? EMPTY : next;
+                    return;
+                }
+            }
+        }
+    }
 }
\ No newline at end of file
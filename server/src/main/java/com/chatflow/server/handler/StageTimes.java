@@ -0,0 +1,19 @@
+package com.chatflow.server.handler;
+
+/**
+ * Stage times of one delivery, in {@link com.chatflow.server.rabbit.StageHeaders#now()}
+ * nanoseconds, 0 where unknown. Given to {@link RoomDispatcher} when broadcast frames should
+ * carry a {@code "stages"} trailer.
+ */
+public final class StageTimes {
+
+    public final long ingressNanos;
+    public final long publishNanos;
+    public final long deliverNanos;
+
+    public StageTimes(long ingressNanos, long publishNanos, long deliverNanos) {
+        this.ingressNanos = ingressNanos;
+        this.publishNanos = publishNanos;
+        this.deliverNanos = deliverNanos;
+    }
+}
\ No newline at end of file
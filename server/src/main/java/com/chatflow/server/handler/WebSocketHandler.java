@@ -1,31 +1,87 @@
 package com.chatflow.server.handler;
 
+import com.chatflow.server.bus.MessageBus;
+import com.chatflow.server.config.ServerIdentity;
+import com.chatflow.server.history.HistoryReplay;
+import com.chatflow.server.history.RecentFrames;
+import com.chatflow.server.jfr.IngressEvent;
 import com.chatflow.server.model.ChatMessage;
+import com.chatflow.server.model.MessageType;
+import com.chatflow.server.model.ResumeRequest;
 import com.chatflow.server.model.UserInfo;
-import com.chatflow.server.rabbit.RabbitMQSender;
+import com.chatflow.server.model.WireProtocol;
+import com.chatflow.server.presence.RoomPresence;
+import com.chatflow.server.rabbit.StageHeaders;
+import com.chatflow.server.validation.ChatMessageValidator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import jakarta.validation.ConstraintViolation;
-import jakarta.validation.Validator;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.*;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 @Component
-public class WebSocketHandler extends TextWebSocketHandler {
+public class WebSocketHandler extends AbstractWebSocketHandler {
+
+    private static final byte[] RECENT_PREFIX = "{\"status\":\"RECENT\",\"roomId\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] THROTTLED_PREFIX = "{\"status\":\"THROTTLED\",\"messageId\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RECENT_MESSAGES = ",\"messages\":".getBytes(StandardCharsets.US_ASCII);
 
     private final ObjectMapper objectMapper;
-    private final Validator validator;
-    private final RabbitMQSender rabbitMQSender;
+    private final MessageBus messageBus;
     private final RoomSessionManager roomSessionManager;
+    private final IngressMode ingressMode;
+    private final ChatMessageScanner chatMessageScanner;
+    private final RoomDispatcher roomDispatcher;
+    private final MessageIdGenerator messageIdGenerator;
+    private final HistoryReplay historyReplay;
+    private final RecentFrames recentFrames;
+    private final RoomPresence roomPresence;
+    private final IngressRateLimiter rateLimiter;
+    private final String serverId;
+    private final boolean localShortCircuit;
+    private final boolean stageTrailer;
+    private final Timer parseTimer;
+    private final Timer validateTimer;
+    private final Timer binaryParseTimer;
+    private final Timer binaryValidateTimer;
 
-    public WebSocketHandler(ObjectMapper objectMapper, Validator validator,
-                            RabbitMQSender rabbitMQSender, RoomSessionManager roomSessionManager) {
+    public WebSocketHandler(ObjectMapper objectMapper,
+                            MessageBus messageBus, RoomSessionManager roomSessionManager,
+                            RoomDispatcher roomDispatcher, MessageIdGenerator messageIdGenerator,
+                            HistoryReplay historyReplay, RecentFrames recentFrames, RoomPresence roomPresence,
+                            IngressRateLimiter rateLimiter, ServerIdentity serverIdentity,
+                            @Value("${chatflow.ingress.mode:STREAMING}") IngressMode ingressMode,
+                            @Value("${chatflow.delivery.local-short-circuit:false}") boolean localShortCircuit,
+                            @Value("${chatflow.stages.trailer:false}") boolean stageTrailer,
+                            MeterRegistry registry) {
         this.objectMapper = objectMapper;
-        this.validator = validator;
-        this.rabbitMQSender = rabbitMQSender;
+        this.messageBus = messageBus;
         this.roomSessionManager = roomSessionManager;
+        this.roomDispatcher = roomDispatcher;
+        this.messageIdGenerator = messageIdGenerator;
+        this.historyReplay = historyReplay;
+        this.recentFrames = recentFrames;
+        this.roomPresence = roomPresence;
+        this.rateLimiter = rateLimiter;
+        this.serverId = serverIdentity.getServerId();
+        this.ingressMode = ingressMode;
+        this.localShortCircuit = localShortCircuit;
+        this.stageTrailer = stageTrailer;
+        this.chatMessageScanner = new ChatMessageScanner(objectMapper.getFactory());
+
+        // The streaming scanner validates while it parses, so it only has a parse time
+        String mode = ingressMode.name().toLowerCase();
+        this.parseTimer = Timer.builder("chatflow.ingress.parse").tag("mode", mode).register(registry);
+        this.validateTimer = Timer.builder("chatflow.ingress.validate").tag("mode", mode).register(registry);
+        this.binaryParseTimer = Timer.builder("chatflow.ingress.parse").tag("mode", "binary").register(registry);
+        this.binaryValidateTimer = Timer.builder("chatflow.ingress.validate").tag("mode", "binary").register(registry);
     }
 
     @Override
@@ -35,12 +91,20 @@ public class WebSocketHandler extends TextWebSocketHandler {
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
         if (!session.isOpen()) return;
 
+        long ingressNanos = StageHeaders.now();
         String payload = message.getPayload();
+        IngressEvent event = beginEvent("TEXT", message.getPayloadLength());
 
         try {
             if (!roomSessionManager.hasSession(session)) {
                 UserInfo user = objectMapper.readValue(payload, UserInfo.class);
+                if (!canJoin(user, user.getRoomId())) {
+                    outcome(event, "INVALID");
+                    session.close(CloseStatus.BAD_DATA.withReason("Room id has no binary form"));
+                    return;
+                }
                 roomSessionManager.addUserSession(session, user);
+                rateLimiter.register(session, user);
 
                 if (user.getRoomId() != null) {
                     roomSessionManager.addUserToRoom(session, user.getRoomId(), user);
@@ -48,31 +112,260 @@ public class WebSocketHandler extends TextWebSocketHandler {
 
                 Map<String, String> response = new HashMap<>();
                 response.put("status", "REGISTERED");
-                session.sendMessage(new TextMessage(objectMapper.writeValueAsString(response)));
+                // Names the seq space: room sequence numbers are assigned by this server only
+                response.put("node", serverId);
+                roomSessionManager.getOutbound(session)
+                        .send(new TextMessage(objectMapper.writeValueAsString(response)));
+                if (user.getRoomId() != null) {
+                    sendRecent(session, user.getRoomId());
+                }
+                describe(event, user.getRoomId(), null);
+                outcome(event, "REGISTERED");
+                return;
+            }
+
+            if (ingressMode == IngressMode.STREAMING) {
+                byte[] body = message.asBytes();
+                long start = System.nanoTime();
+                ChatMessageScanner.ScannedFrame frame = chatMessageScanner.scanFrame(body);
+                parseTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                if (frame != null) {
+                    describe(event, frame.roomId, frame.messageType);
+                    if (throttled(session, frame.messageId, frame.roomId, frame.messageType, event)) return;
+                    byte[] stamped = FrameStamps.withId(body, messageIdGenerator.nextText());
+                    if (!changeMembership(session, frame.roomId, frame.messageType, new TextMessage(stamped), event)) {
+                        forward(frame.roomId, stamped, ingressNanos, event);
+                    }
+                } else {
+                    handleControl(session, body, event);
+                }
                 return;
             }
 
+            long start = System.nanoTime();
             ChatMessage chatMessage = objectMapper.readValue(payload, ChatMessage.class);
+            long parsed = System.nanoTime();
+            parseTimer.record(parsed - start, TimeUnit.NANOSECONDS);
+            int violations = ChatMessageValidator.validate(chatMessage);
+            validateTimer.record(System.nanoTime() - parsed, TimeUnit.NANOSECONDS);
 
-            Set<ConstraintViolation<ChatMessage>> violations = validator.validate(chatMessage);
-            if (!violations.isEmpty()) {
+            if (violations != 0) {
+                handleControl(session, message.asBytes(), event);
                 return;
             }
+            describe(event, chatMessage.getRoomId(), chatMessage.getMessageType());
+            if (throttled(session, chatMessage.getMessageId(), chatMessage.getRoomId(), chatMessage.getMessageType(), event)) return;
 
-            String json = objectMapper.writeValueAsString(chatMessage);
-            rabbitMQSender.sendMessage(chatMessage.getRoomId(), json);
+            stamp(chatMessage);
+            byte[] body = objectMapper.writeValueAsBytes(chatMessage);
+            if (!changeMembership(session, chatMessage.getRoomId(), chatMessage.getMessageType(), new TextMessage(body), event)) {
+                forward(chatMessage.getRoomId(), body, ingressNanos, event);
+            }
 
-        } catch (Exception e) {}
+        } catch (Exception e) {
+            outcome(event, "INVALID");
+        } finally {
+            commit(event);
+        }
+    }
+
+    /**
+     * Frames that are not valid chat messages may be control requests; anything else is
+     * dropped as before. Checked only after a frame fails as a chat message, so chat traffic
+     * pays nothing for it.
+     */
+    private void handleControl(WebSocketSession session, byte[] payload, IngressEvent event) throws Exception {
+        outcome(event, "INVALID");
+        ResumeRequest request = objectMapper.readValue(payload, ResumeRequest.class);
+        if (ResumeRequest.ACTION.equals(request.getAction()) && request.getRoomId() != null) {
+            describe(event, request.getRoomId(), null);
+            outcome(event, "CONTROL");
+            historyReplay.resume(roomSessionManager.getOutbound(session), request);
+        }
+    }
+
+    /**
+     * Chat frames from sessions that registered with the binary protocol. They are validated
+     * like JSON frames and published in the JSON form, so every consumer and client sees
+     * the same broker payload.
+     */
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        if (!session.isOpen() || !roomSessionManager.hasSession(session)) return;
+
+        long ingressNanos = StageHeaders.now();
+        IngressEvent event = beginEvent("BINARY", message.getPayloadLength());
+        try {
+            long start = System.nanoTime();
+            ChatMessage chatMessage = BinaryFrameCodec.decode(message.getPayload());
+            long parsed = System.nanoTime();
+            binaryParseTimer.record(parsed - start, TimeUnit.NANOSECONDS);
+            int violations = ChatMessageValidator.validate(chatMessage);
+            binaryValidateTimer.record(System.nanoTime() - parsed, TimeUnit.NANOSECONDS);
+            if (violations != 0) {
+                outcome(event, "INVALID");
+                return;
+            }
+            describe(event, chatMessage.getRoomId(), chatMessage.getMessageType());
+            if (throttled(session, chatMessage.getMessageId(), chatMessage.getRoomId(), chatMessage.getMessageType(), event)) return;
+            stamp(chatMessage);
+            BinaryMessage echo = new BinaryMessage(BinaryFrameCodec.encode(chatMessage));
+            if (!changeMembership(session, chatMessage.getRoomId(), chatMessage.getMessageType(), echo, event)) {
+                forward(chatMessage.getRoomId(), objectMapper.writeValueAsBytes(chatMessage), ingressNanos, event);
+            }
+        } catch (Exception e) {
+            outcome(event, "INVALID");
+        } finally {
+            commit(event);
+        }
+    }
+
+    /**
+     * The frame's flight recorder event, begun, or null while no recording wants it, so
+     * frames allocate nothing for JFR unless it is on. The helpers below accept null.
+     */
+    private static IngressEvent beginEvent(String protocol, int payloadBytes) {
+        if (!IngressEvent.enabled()) return null;
+        IngressEvent event = new IngressEvent();
+        event.begin();
+        event.protocol = protocol;
+        event.payloadBytes = payloadBytes;
+        return event;
+    }
+
+    private static void describe(IngressEvent event, String roomId, MessageType type) {
+        if (event == null) return;
+        event.roomId = roomId;
+        event.messageType = type != null ? type.name() : null;
+    }
+
+    private static void outcome(IngressEvent event, String outcome) {
+        if (event != null) event.outcome = outcome;
+    }
+
+    private static void commit(IngressEvent event) {
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.commit();
+        }
+    }
+
+    /**
+     * Checks the frame against the session's and user's rate limits. A throttled frame is not
+     * forwarded; the sender is told instead with
+     * {@code {"status":"THROTTLED","messageId":...,"roomId":...,"messageType":...,"retryAfterMs":n}},
+     * built only on this path so allowed frames cost no allocation here.
+     */
+    private boolean throttled(WebSocketSession session, String messageId, String roomId, MessageType type,
+                              IngressEvent event) throws Exception {
+        long waitNanos = rateLimiter.acquire(session, roomId, type);
+        if (waitNanos == IngressRateLimiter.ALLOWED) return false;
+        outcome(event, "THROTTLED");
+
+        OutboundSession outbound = roomSessionManager.getOutbound(session);
+        if (outbound == null) return true;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(THROTTLED_PREFIX);
+        out.writeBytes(objectMapper.writeValueAsBytes(messageId));
+        out.writeBytes(",\"roomId\":".getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(objectMapper.writeValueAsBytes(roomId));
+        out.writeBytes((",\"messageType\":\"" + type.name() + "\",\"retryAfterMs\":"
+                + Math.max(1, (waitNanos + 999_999) / 1_000_000) + "}").getBytes(StandardCharsets.US_ASCII));
+        outbound.send(new TextMessage(out.toByteArray()));
+        return true;
+    }
+
+    /**
+     * JOIN and LEAVE put the session in or take it out of the room, and a JOIN is caught up
+     * with the room's recent frames. With presence on, they are not relayed: the room learns
+     * of them from the next coalesced presence diff, and the sender gets its stamped frame
+     * back as the acknowledgement a relayed copy would have been. Returns false for other
+     * message types, and when presence is off so the frame is still relayed as before.
+     */
+    private boolean changeMembership(WebSocketSession session, String roomId, MessageType type,
+                                     WebSocketMessage<?> echo, IngressEvent event) throws Exception {
+        if (type == MessageType.JOIN) {
+            if (!canJoin(roomSessionManager.getUser(session), roomId)) {
+                outcome(event, "INVALID");
+                return true;
+            }
+            roomSessionManager.addUserToRoom(session, roomId, roomSessionManager.getUser(session));
+            sendRecent(session, roomId);
+        } else if (type == MessageType.LEAVE) {
+            roomSessionManager.removeUserFromRoom(session, roomId);
+        } else {
+            return false;
+        }
+        if (!roomPresence.isEnabled()) return false;
+
+        outcome(event, "MEMBERSHIP");
+        OutboundSession outbound = roomSessionManager.getOutbound(session);
+        if (outbound != null) {
+            outbound.send(echo);
+        }
+        return true;
+    }
+
+    /**
+     * Binary sessions can only be in rooms the binary frame can name; anything else would
+     * leave them in a room whose traffic they never receive.
+     */
+    private static boolean canJoin(UserInfo user, String roomId) {
+        return roomId == null || user == null || user.getProtocol() != WireProtocol.BINARY
+                || BinaryFrameCodec.canEncodeRoom(roomId);
+    }
+
+    /**
+     * Catches a joiner up with the room's recent frames in a single text frame,
+     * {@code {"status":"RECENT","roomId":...,"messages":[...]}}, queued right after the session
+     * joins, so a live frame may show up in both; clients tell by seq. The frames are spliced
+     * in as stored, without re-serializing.
+     */
+    private void sendRecent(WebSocketSession session, String roomId) throws Exception {
+        if (!recentFrames.isEnabled()) return;
+        OutboundSession outbound = roomSessionManager.getOutbound(session);
+        if (outbound == null) return;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(RECENT_PREFIX);
+        out.writeBytes(objectMapper.writeValueAsBytes(roomId));
+        out.writeBytes(RECENT_MESSAGES);
+        out.writeBytes(recentFrames.snapshotJson(roomId));
+        out.write('}');
+        outbound.send(new TextMessage(out.toByteArray()));
+    }
+
+    /** Replaces any client-supplied server fields with a fresh message id. */
+    private void stamp(ChatMessage chatMessage) {
+        chatMessage.setSid(messageIdGenerator.nextText());
+        chatMessage.setSeq(null);
+    }
+
+    /**
+     * Publishes a validated message for the rest of the cluster. With local short-circuit
+     * delivery on, members on this server get it straight from the room's lane, and the
+     * tagged broker copy is skipped when it comes back; its stage trailer has no broker
+     * stages.
+     */
+    private void forward(String roomId, byte[] body, long ingressNanos, IngressEvent event) throws InterruptedException {
+        outcome(event, "FORWARDED");
+        if (localShortCircuit) {
+            roomDispatcher.dispatch(roomId, body, null, stageTrailer ? new StageTimes(ingressNanos, 0, 0) : null);
+        }
+        messageBus.publish(roomId, body, ingressNanos);
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
         roomSessionManager.removeSession(session);
+        rateLimiter.unregister(session);
     }
 
     @Override
     public void handleTransportError(WebSocketSession session, Throwable exception) {
         roomSessionManager.removeSession(session);
+        rateLimiter.unregister(session);
         try {
             if (session.isOpen()) {
                 session.close(CloseStatus.SERVER_ERROR);
@@ -0,0 +1,174 @@
+package com.chatflow.server.history;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A run of logged frames, as byte ranges of segment files. The ranges start and end on
+ * line boundaries, so their concatenation is newline-delimited JSON. Retention can delete a
+ * segment after the range was taken: an unopened range skips it, while {@link #open} pins
+ * the files that still exist so that {@link #bytes()} stays exact from then on.
+ */
+public final class HistoryRange implements Closeable {
+
+    /** Receives one logged frame, without its newline; returns false to stop. */
+    public interface FrameHandler {
+        boolean frame(byte[] frame);
+    }
+
+    private List<LogSegment> segments;
+    private List<long[]> bounds;
+    private List<FileChannel> channels;
+    // Where forEachFrame continues
+    private int nextRegion;
+    private long nextPosition;
+
+    HistoryRange(List<LogSegment> segments, List<long[]> bounds) {
+        this.segments = segments;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Opens every region's file and drops the regions retention already deleted; an open
+     * file stays readable after it is unlinked. With a positive {@code leaseMillis}, the
+     * files also stay on disk that long, for readers that reopen them by name.
+     */
+    public void open(long leaseMillis) throws IOException {
+        if (channels != null) return;
+        long until = System.currentTimeMillis() + leaseMillis;
+        List<LogSegment> keptSegments = new ArrayList<>();
+        List<long[]> keptBounds = new ArrayList<>();
+        List<FileChannel> opened = new ArrayList<>();
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                LogSegment segment = segments.get(i);
+                if (leaseMillis > 0 && !segment.lease(until)) continue;
+                try {
+                    opened.add(FileChannel.open(segment.file, StandardOpenOption.READ));
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                keptSegments.add(segment);
+                keptBounds.add(bounds.get(i));
+            }
+        } catch (IOException e) {
+            for (FileChannel channel : opened) {
+                channel.close();
+            }
+            throw e;
+        }
+        segments = keptSegments;
+        bounds = keptBounds;
+        channels = opened;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channels == null) return;
+        for (FileChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    public int regionCount() {
+        return segments.size();
+    }
+
+    public Path file(int region) {
+        return segments.get(region).file;
+    }
+
+    public long start(int region) {
+        return bounds.get(region)[0];
+    }
+
+    public long end(int region) {
+        return bounds.get(region)[1];
+    }
+
+    public long bytes() {
+        long total = 0;
+        for (long[] bound : bounds) {
+            total += bound[1] - bound[0];
+        }
+        return total;
+    }
+
+    /** Copies the frames to {@code target} with FileChannel.transferTo. */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        long sent = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            FileChannel channel = channel(i);
+            if (channel == null) continue;
+            try {
+                long position = start(i);
+                long end = end(i);
+                while (position < end) {
+                    long count = channel.transferTo(position, end - position, target);
+                    if (count <= 0) break;
+                    position += count;
+                    sent += count;
+                }
+            } finally {
+                if (channels == null) channel.close();
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Hands the frames to {@code handler} in order, picking up at the frame it last declined;
+     * returns how many it accepted this time.
+     */
+    public int forEachFrame(FrameHandler handler) throws IOException {
+        int[] count = {0};
+        boolean[] declined = {false};
+        while (nextRegion < segments.size()) {
+            FileChannel channel = channel(nextRegion);
+            if (channel != null) {
+                try {
+                    long stopped = LogSegment.scan(channel, Math.max(nextPosition, start(nextRegion)), end(nextRegion), (line, at) -> {
+                        if (!handler.frame(line)) {
+                            declined[0] = true;
+                            return false;
+                        }
+                        count[0]++;
+                        return true;
+                    });
+                    if (declined[0]) {
+                        nextPosition = stopped;
+                        break;
+                    }
+                } finally {
+                    if (channels == null) channel.close();
+                }
+            }
+            nextRegion++;
+            nextPosition = 0;
+        }
+        return count[0];
+    }
+
+    /** True once every frame has been handed over. */
+    public boolean isDone() {
+        return nextRegion >= segments.size();
+    }
+
+    /** The region's pinned channel, or a fresh one the caller closes; null if it expired. */
+    private FileChannel channel(int region) throws IOException {
+        if (channels != null) return channels.get(region);
+        try {
+            return FileChannel.open(file(region), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            // Expired since the range was taken
+            return null;
+        }
+    }
+}
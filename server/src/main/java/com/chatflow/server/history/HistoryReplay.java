@@ -0,0 +1,166 @@
+package com.chatflow.server.history;
+
+import com.chatflow.server.handler.BinaryFrameCodec;
+import com.chatflow.server.handler.OutboundSession;
+import com.chatflow.server.model.ChatMessage;
+import com.chatflow.server.model.ResumeRequest;
+import com.chatflow.server.model.WireProtocol;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers RESUME control frames by streaming a room's logged frames into the session's
+ * outbound queue, then a {@code "RESUMED"} status frame with the count. Replays run on a
+ * small pool and only queue while the session's outbound buffer is under replay-queue-depth;
+ * when it is full the replay gives its thread back and continues a little later, so a long
+ * replay neither overflows the buffer nor holds a thread for a client that is not reading.
+ * Live frames keep flowing meanwhile; clients order the two by seq. A seq range this server
+ * cannot serve in full, such as one numbered by another server, is answered with
+ * {@code "RESUME_UNAVAILABLE"} and a reason instead of a partial replay.
+ */
+@Component
+public class HistoryReplay {
+
+    private static final long PAUSE_MS = 10;
+
+    private final RoomHistory roomHistory;
+    private final ObjectMapper objectMapper;
+    private final int maxQueueDepth;
+    private final ScheduledExecutorService replayExecutor;
+    private final Counter replayed;
+
+    public HistoryReplay(RoomHistory roomHistory, ObjectMapper objectMapper,
+                         @Value("${chatflow.history.replay-threads:2}") int threads,
+                         @Value("${chatflow.history.replay-queue-depth:256}") int maxQueueDepth,
+                         MeterRegistry registry) {
+        this.roomHistory = roomHistory;
+        this.objectMapper = objectMapper;
+        this.maxQueueDepth = maxQueueDepth;
+        this.replayExecutor = Executors.newScheduledThreadPool(threads, r -> {
+            Thread t = new Thread(r, "history-replay");
+            t.setDaemon(true);
+            return t;
+        });
+        this.replayed = Counter.builder("chatflow.history.replayed")
+                .description("Logged frames sent to resuming sessions").register(registry);
+    }
+
+    public void resume(OutboundSession outbound, ResumeRequest request) {
+        long fromSeq = request.getFromSeq() != null ? request.getFromSeq()
+                : request.getFromTime() != null ? -1 : 0;
+        long fromMillis = request.getFromTime() != null ? request.getFromTime().toEpochMilli() : 0;
+        replayExecutor.execute(() -> start(outbound, request.getRoomId(), fromSeq, fromMillis, request.getNode()));
+    }
+
+    private void start(OutboundSession outbound, String roomId, long fromSeq, long fromMillis, String node) {
+        try {
+            String unavailable = roomHistory.seqUnavailable(roomId, fromSeq, node);
+            if (unavailable != null) {
+                Map<String, Object> response = new LinkedHashMap<>();
+                response.put("status", "RESUME_UNAVAILABLE");
+                response.put("roomId", roomId);
+                response.put("node", roomHistory.getServerId());
+                response.put("reason", unavailable);
+                outbound.send(new TextMessage(objectMapper.writeValueAsString(response)));
+                return;
+            }
+
+            HistoryRange range = roomHistory.read(roomId, fromSeq, fromMillis);
+            if (range == null) {
+                resumed(outbound, roomId, 0);
+                return;
+            }
+            // Held open across pauses so retention cannot take frames from under the replay
+            range.open(0);
+            new Replay(outbound, roomId, range).run();
+        } catch (Exception e) {
+            System.err.println("Resume failed for " + roomId + ": " + e.getMessage());
+        }
+    }
+
+    private void resumed(OutboundSession outbound, String roomId, int frames) throws IOException {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("status", "RESUMED");
+        response.put("roomId", roomId);
+        response.put("node", roomHistory.getServerId());
+        response.put("frames", frames);
+        outbound.send(new TextMessage(objectMapper.writeValueAsString(response)));
+    }
+
+    /** One session's replay; each run queues what fits, then reschedules itself or finishes. */
+    private final class Replay implements Runnable {
+        private final OutboundSession outbound;
+        private final String roomId;
+        private final HistoryRange range;
+        private int frames;
+
+        Replay(OutboundSession outbound, String roomId, HistoryRange range) {
+            this.outbound = outbound;
+            this.roomId = roomId;
+            this.range = range;
+        }
+
+        @Override
+        public void run() {
+            boolean paused = false;
+            try {
+                if (!outbound.getSession().isOpen()) return;
+                boolean[] full = {false};
+                int sent = range.forEachFrame(frame -> {
+                    if (outbound.getQueueDepth() >= maxQueueDepth) {
+                        full[0] = true;
+                        return false;
+                    }
+                    return outbound.send(toMessage(outbound, frame));
+                });
+                frames += sent;
+                replayed.increment(sent);
+
+                if (full[0]) {
+                    replayExecutor.schedule(this, PAUSE_MS, TimeUnit.MILLISECONDS);
+                    paused = true;
+                    return;
+                }
+                resumed(outbound, roomId, frames);
+            } catch (Exception e) {
+                System.err.println("Resume failed for " + roomId + ": " + e.getMessage());
+            } finally {
+                if (!paused) {
+                    try {
+                        range.close();
+                    } catch (IOException e) {}
+                }
+            }
+        }
+    }
+
+    private WebSocketMessage<?> toMessage(OutboundSession outbound, byte[] frame) {
+        if (outbound.getProtocol() != WireProtocol.BINARY) return new TextMessage(frame);
+        try {
+            ChatMessage chatMessage = objectMapper.readValue(frame, ChatMessage.class);
+            return new BinaryMessage(ByteBuffer.wrap(BinaryFrameCodec.encode(chatMessage)));
+        } catch (Exception e) {
+            return new TextMessage(frame);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        replayExecutor.shutdownNow();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,249 @@
+package com.chatflow.server.history;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * One file of a room's log, named after the seq of its first frame. The file is plain
+ * newline-delimited JSON, one broadcast frame per line, so any byte range between two line
+ * starts can be sent to a client as it is. Next to it, a sparse index holds
+ * {@code seq | millis | position} for the first frame and then roughly every
+ * index-interval bytes.
+ *
+ * <p>Only the room's lane writes, through a mapping of the whole segment; the committed
+ * length is published through {@link #end}, and readers never look past it. When the writer
+ * lets go, the file is truncated to that length.
+ */
+final class LogSegment {
+
+    static final String LOG_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final int INDEX_ENTRY = 24;
+    private static final int SCAN_CHUNK = 16 * 1024;
+
+    /** Sees each complete line of a scan; returns false to stop before that line. */
+    interface LineVisitor {
+        boolean visit(byte[] line, long position);
+    }
+
+    final Path file;
+    final Path indexFile;
+    final long firstSeq;
+    volatile long end;
+
+    // seq, millis, position triples; appended by the writer, copied by readers
+    private long[] index = new long[48];
+    private int indexEntries;
+
+    private MappedByteBuffer buffer;
+    private FileChannel indexChannel;
+    private long lastIndexed;
+
+    // Guarded by this: retention may not delete the file before leasedUntil
+    private long leasedUntil;
+    private boolean retired;
+
+    private LogSegment(Path file, long firstSeq) {
+        this.file = file;
+        this.indexFile = file.resolveSibling(name(firstSeq) + INDEX_SUFFIX);
+        this.firstSeq = firstSeq;
+    }
+
+    static LogSegment create(Path dir, long firstSeq) {
+        return new LogSegment(dir.resolve(name(firstSeq) + LOG_SUFFIX), firstSeq);
+    }
+
+    /** Loads the index and finds the committed end by scanning from the last indexed frame. */
+    static LogSegment open(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        LogSegment segment = new LogSegment(file, Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length())));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (Files.exists(segment.indexFile)) {
+                ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(segment.indexFile));
+                while (entries.remaining() >= INDEX_ENTRY) {
+                    long seq = entries.getLong();
+                    long millis = entries.getLong();
+                    long position = entries.getLong();
+                    if (position >= size) break;
+                    segment.addIndex(seq, millis, position);
+                }
+            }
+            segment.lastIndexed = segment.indexEntries > 0 ? segment.index[(segment.indexEntries - 1) * 3 + 2] : 0;
+            segment.end = scan(channel, segment.lastIndexed, size, (line, position) -> true);
+            // Older writers indexed a frame before writing it; drop entries a crash left past the end
+            while (segment.indexEntries > 0 && segment.index[(segment.indexEntries - 1) * 3 + 2] >= segment.end) {
+                segment.indexEntries--;
+            }
+            segment.lastIndexed = segment.indexEntries > 0 ? segment.index[(segment.indexEntries - 1) * 3 + 2] : 0;
+        }
+        return segment;
+    }
+
+    static String name(long firstSeq) {
+        return String.format("%020d", firstSeq);
+    }
+
+    void openForWrite(int capacity) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+             FileChannel channel = raf.getChannel()) {
+            if (raf.length() < capacity) raf.setLength(capacity);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    boolean isWritable() {
+        return buffer != null;
+    }
+
+    boolean fits(int size) {
+        return end + size <= buffer.capacity();
+    }
+
+    /** Writer only. {@code frame} must not contain a newline. */
+    void append(long seq, long millis, byte[] frame, int indexInterval) throws IOException {
+        int position = (int) end;
+        buffer.put(position, frame);
+        buffer.put(position + frame.length, (byte) '\n');
+        end = position + frame.length + 1;
+        // Indexed only once the frame is committed, so an entry never points past end
+        if (indexEntries == 0 || position - lastIndexed >= indexInterval) {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY).putLong(seq).putLong(millis).putLong(position).flip();
+            indexChannel.write(entry, (long) indexEntries * INDEX_ENTRY);
+            addIndex(seq, millis, position);
+            lastIndexed = position;
+        }
+    }
+
+    /** Writer only: drops the mapping and trims the preallocated tail. */
+    void closeWriter() throws IOException {
+        if (buffer == null) return;
+        buffer = null;
+        indexChannel.close();
+        indexChannel = null;
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(end);
+        }
+    }
+
+    /** Millis of the first frame, or Long.MAX_VALUE while the segment is empty. */
+    synchronized long firstMillis() {
+        return indexEntries > 0 ? index[1] : Long.MAX_VALUE;
+    }
+
+    /**
+     * Position of the last indexed frame whose seq (or millis) is below {@code key}, so that
+     * scanning forward from it finds the first frame at or after the key. Several frames can
+     * share a millisecond.
+     */
+    synchronized long floorPosition(boolean bySeq, long key) {
+        int low = 0;
+        int high = indexEntries - 1;
+        long position = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (index[mid * 3 + (bySeq ? 0 : 1)] < key) {
+                position = index[mid * 3 + 2];
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return position;
+    }
+
+    /** Seq and position of the last indexed frame that starts before {@code limit}, or null. */
+    synchronized long[] lastIndexedBefore(long limit) {
+        for (int i = indexEntries - 1; i >= 0; i--) {
+            if (index[i * 3 + 2] < limit) return new long[]{index[i * 3], index[i * 3 + 2]};
+        }
+        return null;
+    }
+
+    long lastModifiedMillis() {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Keeps retention away from the file until {@code untilMillis}, for readers that open it
+     * by name later. Returns false if retention already claimed it.
+     */
+    synchronized boolean lease(long untilMillis) {
+        if (retired) return false;
+        leasedUntil = Math.max(leasedUntil, untilMillis);
+        return true;
+    }
+
+    /** Claims the segment for deletion unless a lease is still running. */
+    synchronized boolean retire(long nowMillis) {
+        if (leasedUntil > nowMillis) return false;
+        retired = true;
+        return true;
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(indexFile);
+    }
+
+    private synchronized void addIndex(long seq, long millis, long position) {
+        if (indexEntries * 3 == index.length) {
+            index = Arrays.copyOf(index, index.length * 2);
+        }
+        index[indexEntries * 3] = seq;
+        index[indexEntries * 3 + 1] = millis;
+        index[indexEntries * 3 + 2] = position;
+        indexEntries++;
+    }
+
+    /**
+     * Visits the complete lines in {@code [from, limit)}, which must start on a line boundary.
+     * Stops at a zero byte (unwritten preallocated space) or a partial last line. Returns the
+     * position where it stopped: the start of the line the visitor declined, or the end of the
+     * last complete line.
+     */
+    static long scan(FileChannel channel, long from, long limit, LineVisitor visitor) throws IOException {
+        byte[] chunk = new byte[SCAN_CHUNK];
+        int filled = 0;
+        long position = from;
+        while (true) {
+            int toRead = (int) Math.min(chunk.length - filled, limit - position - filled);
+            int read = toRead > 0 ? channel.read(ByteBuffer.wrap(chunk, filled, toRead), position + filled) : 0;
+            if (read > 0) filled += read;
+
+            int lineStart = 0;
+            for (int i = 0; i < filled; i++) {
+                byte b = chunk[i];
+                if (b == 0) return position + lineStart;
+                if (b == '\n') {
+                    if (!visitor.visit(Arrays.copyOfRange(chunk, lineStart, i), position + lineStart)) {
+                        return position + lineStart;
+                    }
+                    lineStart = i + 1;
+                }
+            }
+            if (read < 0 || (read == 0 && position + filled >= limit)) return position + lineStart;
+
+            if (lineStart == 0 && filled == chunk.length) {
+                chunk = Arrays.copyOf(chunk, chunk.length * 2);
+            } else {
+                System.arraycopy(chunk, lineStart, chunk, 0, filled - lineStart);
+                filled -= lineStart;
+                position += lineStart;
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.chatflow.server.history;
+
+import com.chatflow.server.handler.RoomSessionManager;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The last few broadcast frames of each room, kept off the heap so joiners can be caught up
+ * without touching the disk log. One direct-memory arena of memory-bytes is cut into
+ * room-bytes rings at startup, so the footprint is fixed by configuration and invisible to
+ * the GC. A ring holds length-prefixed frames and keeps at most {@code frames} of them,
+ * evicting the oldest when either limit is hit.
+ *
+ * <p>Rings are handed to rooms on their first frame. When every ring is taken, the one
+ * written least recently goes to the new room, preferring rooms without local members. Each
+ * ring is guarded by its own lock, taken by the room's lane for every append and briefly by
+ * readers; ring assignment takes a global lock first, then the ring's.
+ */
+@Component
+public class RecentFrames {
+
+    private static final int MAX_CHUNK = 1 << 30;
+
+    private final RoomSessionManager roomSessionManager;
+    private final boolean enabled;
+    private final int maxFrames;
+    private final int ringBytes;
+    private final ByteBuffer[] rings;
+    private final Object[] ringLocks;
+    private final String[] owners;
+    private final long[] heads;
+    private final long[] tails;
+    private final int[] counts;
+    private final long[] lastWrite;
+    private final Map<String, Integer> ringOf = new ConcurrentHashMap<>();
+    private final Object assignLock = new Object();
+    private int nextFree;
+
+    private final Counter evictions;
+    private final Counter served;
+
+    public RecentFrames(RoomSessionManager roomSessionManager,
+                        @Value("${chatflow.recent.enabled:true}") boolean enabled,
+                        @Value("${chatflow.recent.frames:50}") int maxFrames,
+                        @Value("${chatflow.recent.room-bytes:32768}") int ringBytes,
+                        @Value("${chatflow.recent.memory-bytes:67108864}") long memoryBytes,
+                        MeterRegistry registry) {
+        this.roomSessionManager = roomSessionManager;
+        this.enabled = enabled;
+        this.maxFrames = maxFrames;
+        this.ringBytes = ringBytes;
+
+        int ringCount = enabled ? (int) Math.min(Integer.MAX_VALUE, memoryBytes / ringBytes) : 0;
+        this.rings = new ByteBuffer[ringCount];
+        this.ringLocks = new Object[ringCount];
+        this.owners = new String[ringCount];
+        this.heads = new long[ringCount];
+        this.tails = new long[ringCount];
+        this.counts = new int[ringCount];
+        this.lastWrite = new long[ringCount];
+
+        int perChunk = MAX_CHUNK / ringBytes;
+        ByteBuffer chunk = null;
+        for (int i = 0; i < ringCount; i++) {
+            if (i % perChunk == 0) {
+                chunk = ByteBuffer.allocateDirect(Math.min(perChunk, ringCount - i) * ringBytes);
+            }
+            rings[i] = chunk.slice((i % perChunk) * ringBytes, ringBytes);
+            ringLocks[i] = new Object();
+        }
+
+        this.evictions = Counter.builder("chatflow.recent.evictions")
+                .description("Rings taken from one room for another").register(registry);
+        this.served = Counter.builder("chatflow.recent.served")
+                .description("Catch-up batches sent to joiners and REST readers").register(registry);
+        Gauge.builder("chatflow.recent.memory", () -> (double) ringCount * ringBytes).baseUnit("bytes").register(registry);
+        Gauge.builder("chatflow.recent.rooms", ringOf, Map::size).register(registry);
+    }
+
+    public boolean isEnabled() {
+        return enabled && rings.length > 0;
+    }
+
+    /** Remembers a broadcast frame. Room lane only. */
+    public void append(String roomId, byte[] frame) {
+        if (!isEnabled() || frame.length + 4 > ringBytes) return;
+        while (true) {
+            Integer assigned = ringOf.get(roomId);
+            int ring = assigned != null ? assigned : assign(roomId);
+            synchronized (ringLocks[ring]) {
+                // Reassigned between the lookup and the lock; look again
+                if (!roomId.equals(owners[ring])) continue;
+                write(ring, frame);
+                return;
+            }
+        }
+    }
+
+    /** The room's recent frames, oldest first; empty if it has none. */
+    public List<byte[]> snapshot(String roomId) {
+        Integer ring = isEnabled() ? ringOf.get(roomId) : null;
+        if (ring == null) return List.of();
+        synchronized (ringLocks[ring]) {
+            if (!roomId.equals(owners[ring])) return List.of();
+            List<byte[]> frames = new ArrayList<>(counts[ring]);
+            ByteBuffer buffer = rings[ring];
+            long position = heads[ring];
+            for (int i = 0; i < counts[ring]; i++) {
+                byte[] length = new byte[4];
+                read(buffer, position, length);
+                byte[] frame = new byte[ByteBuffer.wrap(length).getInt()];
+                read(buffer, position + 4, frame);
+                frames.add(frame);
+                position += 4 + frame.length;
+            }
+            return frames;
+        }
+    }
+
+    /** The room's recent frames as a JSON array, built without re-serializing them. */
+    public byte[] snapshotJson(String roomId) {
+        List<byte[]> frames = snapshot(roomId);
+        served.increment();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('[');
+        for (int i = 0; i < frames.size(); i++) {
+            if (i > 0) out.write(',');
+            out.writeBytes(frames.get(i));
+        }
+        out.write(']');
+        return out.toByteArray();
+    }
+
+    private void write(int ring, byte[] frame) {
+        int size = 4 + frame.length;
+        while (counts[ring] > 0 && (counts[ring] >= maxFrames || tails[ring] - heads[ring] + size > ringBytes)) {
+            byte[] length = new byte[4];
+            read(rings[ring], heads[ring], length);
+            heads[ring] += 4 + ByteBuffer.wrap(length).getInt();
+            counts[ring]--;
+        }
+        write(rings[ring], tails[ring], ByteBuffer.allocate(4).putInt(frame.length).array());
+        write(rings[ring], tails[ring] + 4, frame);
+        tails[ring] += size;
+        counts[ring]++;
+        lastWrite[ring] = System.nanoTime();
+    }
+
+    private int assign(String roomId) {
+        synchronized (assignLock) {
+            Integer assigned = ringOf.get(roomId);
+            if (assigned != null) return assigned;
+
+            int ring;
+            if (nextFree < rings.length) {
+                ring = nextFree++;
+            } else {
+                ring = victim();
+                evictions.increment();
+            }
+            synchronized (ringLocks[ring]) {
+                if (owners[ring] != null) ringOf.remove(owners[ring]);
+                owners[ring] = roomId;
+                heads[ring] = 0;
+                tails[ring] = 0;
+                counts[ring] = 0;
+                lastWrite[ring] = System.nanoTime();
+            }
+            ringOf.put(roomId, ring);
+            return ring;
+        }
+    }
+
+    /** Least recently written ring, preferring rooms with no local members. */
+    private int victim() {
+        int idle = -1;
+        int oldest = -1;
+        long idleWritten = 0;
+        long oldestWritten = 0;
+        for (int i = 0; i < rings.length; i++) {
+            long written;
+            String owner;
+            synchronized (ringLocks[i]) {
+                written = lastWrite[i];
+                owner = owners[i];
+            }
+            if (oldest < 0 || written - oldestWritten < 0) {
+                oldest = i;
+                oldestWritten = written;
+            }
+            if ((idle < 0 || written - idleWritten < 0) && !roomSessionManager.hasLocalMembers(owner)) {
+                idle = i;
+                idleWritten = written;
+            }
+        }
+        return idle >= 0 ? idle : oldest;
+    }
+
+    private void write(ByteBuffer ring, long position, byte[] bytes) {
+        int offset = (int) (position % ringBytes);
+        int first = Math.min(bytes.length, ringBytes - offset);
+        ring.put(offset, bytes, 0, first);
+        if (first < bytes.length) ring.put(0, bytes, first, bytes.length - first);
+    }
+
+    private void read(ByteBuffer ring, long position, byte[] into) {
+        int offset = (int) (position % ringBytes);
+        int first = Math.min(into.length, ringBytes - offset);
+        ring.get(offset, into, 0, first);
+        if (first < into.length) ring.get(0, into, first, into.length - first);
+    }
+}
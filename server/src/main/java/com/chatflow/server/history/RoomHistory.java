@@ -0,0 +1,260 @@
+package com.chatflow.server.history;
+
+import com.chatflow.server.config.ServerIdentity;
+import com.chatflow.server.handler.FrameStamps;
+import com.chatflow.server.handler.MessageIdGenerator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Append-only history of every frame this server broadcast, one directory of segments per
+ * room under {@code <dir>/<server id>}. Room lanes append each frame after stamping its
+ * seq, and seed a room's seq from its log, so the node sequence keeps counting across
+ * restarts and idle periods, with no gap for frames sent while nobody here was a member.
+ * Segments roll at segment-bytes; the oldest are deleted once the room's log is
+ * over retention-bytes or they were last written more than retention-ms ago.
+ *
+ * <p>A server only logs rooms while it has members in them, like it only consumes them then,
+ * and numbers frames in its own node sequence. A log is therefore no record of the room as
+ * a whole, and {@link #seqUnavailable} refuses seq ranges it cannot serve in full rather
+ * than returning a partial one. Data reaches the page cache on every append; it survives a
+ * process crash, not a host crash.
+ */
+@Component
+public class RoomHistory {
+
+    private static final Pattern PLAIN_ROOM = Pattern.compile("[A-Za-z0-9_-]{1,100}");
+    private static final String ENCODED_PREFIX = "~";
+
+    private final boolean enabled;
+    private final String serverId;
+    private final Path dir;
+    private final int segmentBytes;
+    private final int indexIntervalBytes;
+    private final long retentionBytes;
+    private final long retentionMs;
+    private final Map<String, RoomLog> logs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService retentionExecutor;
+
+    private final Counter appended;
+    private final Counter failed;
+    private final Counter expired;
+
+    public RoomHistory(ServerIdentity serverIdentity,
+                       @Value("${chatflow.history.enabled:true}") boolean enabled,
+                       @Value("${chatflow.history.dir:history}") String baseDir,
+                       @Value("${chatflow.history.segment-bytes:8388608}") int segmentBytes,
+                       @Value("${chatflow.history.index-interval-bytes:4096}") int indexIntervalBytes,
+                       @Value("${chatflow.history.retention-bytes:67108864}") long retentionBytes,
+                       @Value("${chatflow.history.retention-ms:86400000}") long retentionMs,
+                       MeterRegistry registry) throws IOException {
+        this.enabled = enabled;
+        this.serverId = serverIdentity.getServerId();
+        this.dir = Path.of(baseDir, serverId);
+        this.segmentBytes = segmentBytes;
+        this.indexIntervalBytes = indexIntervalBytes;
+        this.retentionBytes = retentionBytes;
+        this.retentionMs = retentionMs;
+
+        this.appended = Counter.builder("chatflow.history.appended").register(registry);
+        this.failed = Counter.builder("chatflow.history.failed")
+                .description("Frames broadcast but not logged").register(registry);
+        this.expired = Counter.builder("chatflow.history.expired")
+                .description("Segments deleted by retention").register(registry);
+        Gauge.builder("chatflow.history.bytes", this, RoomHistory::bytes).baseUnit("bytes").register(registry);
+
+        this.retentionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "history-retention");
+            t.setDaemon(true);
+            return t;
+        });
+        if (enabled) {
+            Files.createDirectories(dir);
+            retentionExecutor.scheduleWithFixedDelay(this::enforceRetention, 1, 1, TimeUnit.MINUTES);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Seq of the room's newest logged frame, 0 if none. Room lane only. */
+    public long lastSeq(String roomId) {
+        if (!enabled) return 0;
+        try {
+            return logFor(roomId).lastSeq();
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Could not read history of " + roomId + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /** Logs a sequenced frame. Room lane only; failures are counted, never thrown. */
+    public void append(String roomId, long seq, byte[] frame) {
+        if (!enabled) return;
+        if (frame.length + 1 > segmentBytes) {
+            failed.increment();
+            return;
+        }
+        long id = FrameStamps.readId(frame);
+        long millis = id != FrameStamps.NO_ID ? MessageIdGenerator.timestampMillis(id) : System.currentTimeMillis();
+        try {
+            RoomLog log = logFor(roomId);
+            if (log.append(seq, millis, singleLine(frame), segmentBytes, indexIntervalBytes)) {
+                expired.increment(log.expire(retentionBytes, System.currentTimeMillis() - retentionMs));
+            }
+            appended.increment();
+        } catch (IOException | UncheckedIOException e) {
+            failed.increment();
+            System.err.println("Could not log frame for " + roomId + ": " + e.getMessage());
+        }
+    }
+
+    /** Unmaps the room's open segment once it has no local members. Room lane only. */
+    public void release(String roomId) {
+        RoomLog log = logs.get(roomId);
+        if (log == null) return;
+        try {
+            log.release();
+        } catch (IOException e) {
+            System.err.println("Could not close history of " + roomId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Logged frames of the room from {@code fromSeq} (inclusive) on, or, when fromSeq is
+     * negative, from the first frame stamped at or after {@code fromMillis}. Returns null when
+     * history is off or the room has no log.
+     */
+    public HistoryRange read(String roomId, long fromSeq, long fromMillis) throws IOException {
+        if (!enabled) return null;
+        RoomLog log = view(roomId);
+        return log != null ? log.read(fromSeq, fromMillis) : null;
+    }
+
+    /**
+     * Why frames from {@code fromSeq} cannot be read here in full, or null if they can.
+     * {@code node} is the server the client took the seq from, if it says. A seq numbered by
+     * another server, one past the end of this log, or one already expired would come back
+     * as a range that silently skips frames, so the caller should refuse it instead. A
+     * fromSeq of 0 asks for everything retained and is always served.
+     */
+    public String seqUnavailable(String roomId, long fromSeq, String node) throws IOException {
+        if (fromSeq <= 0) return null;
+        if (node != null && !node.equals(serverId)) {
+            return "seq is from node " + node + ", this is " + serverId + "; resume by fromTime";
+        }
+        RoomLog log = enabled ? view(roomId) : null;
+        long last = log != null ? log.lastSeq() : 0;
+        if (last == 0) return "no history of the room on " + serverId + "; resume by fromTime";
+        if (fromSeq > last + 1) {
+            return "seq " + fromSeq + " is past the end of this log (" + last + "); resume by fromTime";
+        }
+        if (fromSeq < log.firstSeq()) return "seqs before " + log.firstSeq() + " have expired";
+        return null;
+    }
+
+    public String getServerId() {
+        return serverId;
+    }
+
+    /**
+     * The room's log for reading: the lane's if it has one open, otherwise a fresh view of
+     * the files that is not remembered, so rooms that were only asked about or expired are
+     * not kept. Null if the room has no log.
+     */
+    private RoomLog view(String roomId) throws IOException {
+        RoomLog log = logs.get(roomId);
+        if (log != null) return log;
+        Path roomDir = roomDir(roomId);
+        return Files.isDirectory(roomDir) ? RoomLog.open(roomDir) : null;
+    }
+
+    private RoomLog logFor(String roomId) {
+        return logs.computeIfAbsent(roomId, id -> {
+            try {
+                return RoomLog.open(roomDir(id));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    void enforceRetention() {
+        long expireBefore = System.currentTimeMillis() - retentionMs;
+        List<Path> roomDirs;
+        try (Stream<Path> listing = Files.list(dir)) {
+            roomDirs = listing.filter(Files::isDirectory).toList();
+        } catch (IOException e) {
+            System.err.println("History retention failed: " + e.getMessage());
+            return;
+        }
+        for (Path roomDir : roomDirs) {
+            try {
+                RoomLog log = view(roomId(roomDir.getFileName().toString()));
+                if (log != null) {
+                    expired.increment(log.expire(retentionBytes, expireBefore));
+                }
+            } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+                System.err.println("History retention failed for " + roomDir + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private double bytes() {
+        long total = 0;
+        for (RoomLog log : logs.values()) {
+            total += log.bytes();
+        }
+        return total;
+    }
+
+    private Path roomDir(String roomId) {
+        if (PLAIN_ROOM.matcher(roomId).matches()) return dir.resolve(roomId);
+        return dir.resolve(ENCODED_PREFIX + HexFormat.of().formatHex(roomId.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String roomId(String dirName) {
+        if (!dirName.startsWith(ENCODED_PREFIX)) return dirName;
+        return new String(HexFormat.of().parseHex(dirName.substring(ENCODED_PREFIX.length())), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lines are the record separator. Raw CR or LF can only be whitespace between JSON
+     * tokens, never inside a string, so replacing them with spaces keeps the frame intact.
+     */
+    private static byte[] singleLine(byte[] frame) {
+        byte[] line = frame;
+        for (int i = 0; i < frame.length; i++) {
+            if (frame[i] == '\n' || frame[i] == '\r') {
+                if (line == frame) line = frame.clone();
+                line[i] = ' ';
+            }
+        }
+        return line;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retentionExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,172 @@
+package com.chatflow.server.history;
+
+import com.chatflow.server.handler.FrameStamps;
+import com.chatflow.server.handler.MessageIdGenerator;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.stream.Stream;
+
+/**
+ * The segments of one room, oldest first. Appends, rolls and {@link #release()} happen on
+ * the room's lane thread; reads and retention may run on any thread and only ever remove
+ * the oldest segment, never the one being written.
+ */
+final class RoomLog {
+
+    private final Path dir;
+    private final ConcurrentLinkedDeque<LogSegment> segments = new ConcurrentLinkedDeque<>();
+    private LogSegment writing;
+
+    private RoomLog(Path dir) {
+        this.dir = dir;
+    }
+
+    static RoomLog open(Path dir) throws IOException {
+        RoomLog log = new RoomLog(dir);
+        if (!Files.isDirectory(dir)) return log;
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.filter(p -> p.getFileName().toString().endsWith(LogSegment.LOG_SUFFIX)).sorted().toList();
+        }
+        for (Path file : files) {
+            log.segments.addLast(LogSegment.open(file));
+        }
+        return log;
+    }
+
+    /** Seq of the oldest retained segment's first frame, or 0 for an empty log. */
+    long firstSeq() {
+        LogSegment first = segments.peekFirst();
+        return first == null ? 0 : first.firstSeq;
+    }
+
+    /** Seq of the newest frame, or 0 for an empty log. */
+    long lastSeq() throws IOException {
+        LogSegment last = segments.peekLast();
+        if (last == null) return 0;
+        long end = last.end;
+        // An entry at or past end belongs to a frame still being written; use the one before
+        long[] entry = last.lastIndexedBefore(end);
+        if (entry == null) return last.firstSeq - 1;
+        long[] seq = {entry[0]};
+        try (FileChannel channel = FileChannel.open(last.file, StandardOpenOption.READ)) {
+            LogSegment.scan(channel, entry[1], end, (line, position) -> {
+                long lineSeq = FrameStamps.readSeq(line);
+                if (lineSeq > 0) seq[0] = lineSeq;
+                return true;
+            });
+        }
+        return seq[0];
+    }
+
+    /** Lane thread. Returns true when a new segment was started. */
+    boolean append(long seq, long millis, byte[] frame, int segmentBytes, int indexInterval) throws IOException {
+        int size = frame.length + 1;
+        boolean rolled = false;
+        if (writing == null) {
+            Files.createDirectories(dir);
+            writing = segments.peekLast();
+            if (writing == null) {
+                writing = LogSegment.create(dir, seq);
+                segments.addLast(writing);
+                rolled = true;
+            }
+            writing.openForWrite(segmentBytes);
+        }
+        if (!writing.fits(size)) {
+            writing.closeWriter();
+            writing = LogSegment.create(dir, seq);
+            writing.openForWrite(segmentBytes);
+            segments.addLast(writing);
+            rolled = true;
+        }
+        writing.append(seq, millis, frame, indexInterval);
+        return rolled;
+    }
+
+    /** Lane thread: stops writing until the next append. */
+    void release() throws IOException {
+        if (writing != null) {
+            writing.closeWriter();
+            writing = null;
+        }
+    }
+
+    long bytes() {
+        long total = 0;
+        for (LogSegment segment : segments) {
+            total += segment.end;
+        }
+        return total;
+    }
+
+    /**
+     * Deletes the oldest segments while the log is over {@code maxBytes} or the segment was
+     * last written before {@code expireBefore}. The newest segment is always kept, and a
+     * leased one stops the sweep until its lease runs out.
+     */
+    int expire(long maxBytes, long expireBefore) throws IOException {
+        int deleted = 0;
+        long total = bytes();
+        while (true) {
+            LogSegment head = segments.peekFirst();
+            if (head == null || head == segments.peekLast()) return deleted;
+            if (total <= maxBytes && head.lastModifiedMillis() >= expireBefore) return deleted;
+            if (!head.retire(System.currentTimeMillis())) return deleted;
+            if (!segments.removeFirstOccurrence(head)) continue;
+            total -= head.end;
+            head.delete();
+            deleted++;
+        }
+    }
+
+    /**
+     * Frames from {@code fromSeq} on, or from the first frame stamped at or after
+     * {@code fromMillis} when {@code fromSeq} is negative.
+     */
+    HistoryRange read(long fromSeq, long fromMillis) throws IOException {
+        boolean bySeq = fromSeq >= 0;
+        long key = bySeq ? fromSeq : fromMillis;
+        List<LogSegment> snapshot = new ArrayList<>(segments);
+
+        int first = 0;
+        for (int i = snapshot.size() - 1; i > 0; i--) {
+            LogSegment segment = snapshot.get(i);
+            if ((bySeq ? segment.firstSeq : segment.firstMillis()) < key) {
+                first = i;
+                break;
+            }
+        }
+
+        List<LogSegment> files = new ArrayList<>();
+        List<long[]> bounds = new ArrayList<>();
+        for (int i = first; i < snapshot.size(); i++) {
+            LogSegment segment = snapshot.get(i);
+            long end = segment.end;
+            long start = i == first ? seek(segment, bySeq, key, end) : 0;
+            if (start < end) {
+                files.add(segment);
+                bounds.add(new long[]{start, end});
+            }
+        }
+        return new HistoryRange(files, bounds);
+    }
+
+    private static long seek(LogSegment segment, boolean bySeq, long key, long end) throws IOException {
+        long from = segment.floorPosition(bySeq, key);
+        try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ)) {
+            return LogSegment.scan(channel, from, end, (line, position) -> {
+                if (bySeq) return FrameStamps.readSeq(line) < key;
+                long id = FrameStamps.readId(line);
+                return id != FrameStamps.NO_ID && MessageIdGenerator.timestampMillis(id) < key;
+            });
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.chatflow.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One frame queued on a room's local sessions. {@code fanOut} counts the sessions that
+ * accepted it; the socket writes themselves are {@link SessionWriteEvent}s.
+ */
+@Name("chatflow.Broadcast")
+@Label("Broadcast")
+@Category("ChatFlow")
+@Description("Frame fanned out to a room's local sessions by RoomBroadcaster")
+@StackTrace(false)
+public class BroadcastEvent extends jdk.jfr.Event {
+
+    private static final EventType TYPE = EventType.getEventType(BroadcastEvent.class);
+
+    /** False unless a recording has this event on; callers check it before allocating one. */
+    public static boolean enabled() {
+        return TYPE.isEnabled();
+    }
+
+    @Label("Room")
+    public String roomId;
+
+    @Label("Payload Size")
+    @DataAmount
+    public int payloadBytes;
+
+    @Label("Fan-out")
+    public int fanOut;
+}
\ No newline at end of file
@@ -0,0 +1,45 @@
+package com.chatflow.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One inbound WebSocket frame, from the handler picking it up to the frame being forwarded,
+ * answered or dropped. {@code outcome} says which: FORWARDED, MEMBERSHIP, THROTTLED,
+ * INVALID, REGISTERED or CONTROL.
+ */
+@Name("chatflow.Ingress")
+@Label("Ingress")
+@Category("ChatFlow")
+@Description("Inbound chat frame handled by WebSocketHandler")
+@StackTrace(false)
+public class IngressEvent extends jdk.jfr.Event {
+
+    private static final EventType TYPE = EventType.getEventType(IngressEvent.class);
+
+    /** False unless a recording has this event on; callers check it before allocating one. */
+    public static boolean enabled() {
+        return TYPE.isEnabled();
+    }
+
+    @Label("Room")
+    public String roomId;
+
+    @Label("Message Type")
+    public String messageType;
+
+    @Label("Protocol")
+    public String protocol;
+
+    @Label("Payload Size")
+    @DataAmount
+    public int payloadBytes;
+
+    @Label("Outcome")
+    public String outcome;
+}
\ No newline at end of file
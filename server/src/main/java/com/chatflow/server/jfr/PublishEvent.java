@@ -0,0 +1,41 @@
+package com.chatflow.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One broker publish, including waits on flow control and the confirm window. A positive
+ * {@code batchCount} means the body was an envelope of that many chat messages.
+ */
+@Name("chatflow.Publish")
+@Label("Publish")
+@Category("ChatFlow")
+@Description("Message handed to the broker by RabbitMQSender")
+@StackTrace(false)
+public class PublishEvent extends jdk.jfr.Event {
+
+    private static final EventType TYPE = EventType.getEventType(PublishEvent.class);
+
+    /** False unless a recording has this event on; callers check it before allocating one. */
+    public static boolean enabled() {
+        return TYPE.isEnabled();
+    }
+
+    @Label("Room")
+    public String roomId;
+
+    @Label("Payload Size")
+    @DataAmount
+    public int payloadBytes;
+
+    @Label("Batch Count")
+    public int batchCount;
+
+    @Label("Published")
+    public boolean published;
+}
\ No newline at end of file
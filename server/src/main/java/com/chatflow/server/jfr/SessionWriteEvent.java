@@ -0,0 +1,40 @@
+package com.chatflow.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * One frame written to a session's socket by its outbound writer. Only writes slower than
+ * the threshold are recorded, so the events name the slow clients rather than the traffic.
+ */
+@Name("chatflow.SessionWrite")
+@Label("Session Write")
+@Category("ChatFlow")
+@Description("Slow frame write to a WebSocket session")
+@StackTrace(false)
+@Threshold("1 ms")
+public class SessionWriteEvent extends jdk.jfr.Event {
+
+    private static final EventType TYPE = EventType.getEventType(SessionWriteEvent.class);
+
+    /** False unless a recording has this event on; callers check it before allocating one. */
+    public static boolean enabled() {
+        return TYPE.isEnabled();
+    }
+
+    @Label("Session")
+    public String sessionId;
+
+    @Label("Payload Size")
+    @DataAmount
+    public int payloadBytes;
+
+    @Label("Failed")
+    public boolean failed;
+}
\ No newline at end of file
@@ -1,9 +1,12 @@
 package com.chatflow.server.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import jakarta.validation.constraints.*;
 import java.time.Instant;
 
+@JsonPropertyOrder({"sid"})
 public class ChatMessage {
 
     @NotNull
@@ -32,6 +35,13 @@ public class ChatMessage {
     @JsonProperty("roomId")
     private String roomId;
 
+    // Assigned by the server: time-ordered message id at ingress, per-room sequence at delivery
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String sid;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long seq;
+
     // Constructors
     public ChatMessage() {}
 
@@ -56,4 +66,10 @@ public class ChatMessage {
 
     public String getRoomId() { return roomId; }
     public void setRoomId(String roomId) { this.roomId = roomId; }
+
+    public String getSid() { return sid; }
+    public void setSid(String sid) { this.sid = sid; }
+
+    public Long getSeq() { return seq; }
+    public void setSeq(Long seq) { this.seq = seq; }
 }
\ No newline at end of file
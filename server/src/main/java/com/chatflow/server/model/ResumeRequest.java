@@ -0,0 +1,35 @@
+package com.chatflow.server.model;
+
+import java.time.Instant;
+
+/**
+ * Control frame asking for a room's logged frames: {@code {"action":"RESUME","roomId":"room1",
+ * "fromSeq":42}} or with {@code "fromTime":"2025-10-31T12:00:00Z"} instead of fromSeq. With
+ * fromSeq, {@code "node"} names the server the seq came from, as given in REGISTERED.
+ */
+public class ResumeRequest {
+    public static final String ACTION = "RESUME";
+
+    private String action;
+    private String roomId;
+    private Long fromSeq;
+    private Instant fromTime;
+    private String node;
+
+    public ResumeRequest() {}
+
+    public String getAction() { return action; }
+    public void setAction(String action) { this.action = action; }
+
+    public String getRoomId() { return roomId; }
+    public void setRoomId(String roomId) { this.roomId = roomId; }
+
+    public Long getFromSeq() { return fromSeq; }
+    public void setFromSeq(Long fromSeq) { this.fromSeq = fromSeq; }
+
+    public Instant getFromTime() { return fromTime; }
+    public void setFromTime(Instant fromTime) { this.fromTime = fromTime; }
+
+    public String getNode() { return node; }
+    public void setNode(String node) { this.node = node; }
+}
\ No newline at end of file
@@ -4,6 +4,7 @@ public class UserInfo {
     private String userId;
     private String username;
     private String roomId;
+    private WireProtocol protocol = WireProtocol.JSON;
 
     public UserInfo() {}
 
@@ -22,6 +23,9 @@ public class UserInfo {
     public String getRoomId() { return roomId; }
     public void setRoomId(String roomId) { this.roomId = roomId; }
 
+    public WireProtocol getProtocol() { return protocol; }
+    public void setProtocol(WireProtocol protocol) { this.protocol = protocol != null ? protocol : WireProtocol.JSON; }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
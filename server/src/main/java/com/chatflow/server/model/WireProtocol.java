@@ -0,0 +1,9 @@
+package com.chatflow.server.model;
+
+/**
+ * Frame format a session negotiated at registration.
+ */
+public enum WireProtocol {
+    JSON,
+    BINARY
+}
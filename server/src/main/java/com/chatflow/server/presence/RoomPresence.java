@@ -0,0 +1,230 @@
+package com.chatflow.server.presence;
+
+import com.chatflow.server.bus.MessageBus;
+import com.chatflow.server.config.ServerIdentity;
+import com.chatflow.server.handler.RoomDispatcher;
+import com.chatflow.server.handler.RoomMembershipListener;
+import com.chatflow.server.handler.RoomSessionManager;
+import com.chatflow.server.model.UserInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Who is in each room on this server. Membership changes are counted per user, so a user
+ * with several sessions in a room shows up once, and folded into a pending diff; every
+ * interval-ms each changed room gets one {@code {"status":"PRESENCE",...}} frame listing the
+ * users who joined and left since the last one, however many sessions came and went. A user
+ * who joins and leaves within one interval cancels out. Diffs are published to the room like
+ * chat frames, so members on every server see them, but lanes broadcast them without a seq
+ * and keep them out of the history and recent frames.
+ *
+ * <p>Rooms are spread over a fixed set of stripes, each with its own lock, so membership
+ * changes in different rooms rarely contend. The flush also rebuilds each changed room's
+ * snapshot, which {@link #snapshot(String)} returns as stored bytes; reading presence never
+ * takes a lock and costs the same however often it is asked.
+ */
+@Component
+public class RoomPresence implements RoomMembershipListener {
+
+    private static final byte[] PRESENCE_PREFIX = "{\"status\":\"PRESENCE\"".getBytes(StandardCharsets.US_ASCII);
+
+    private final MessageBus messageBus;
+    private final RoomDispatcher roomDispatcher;
+    private final ObjectMapper objectMapper;
+    private final String serverId;
+    private final boolean enabled;
+    private final boolean localShortCircuit;
+    private final Stripe[] stripes;
+    private final Map<String, byte[]> snapshots = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flushExecutor;
+
+    private final Counter changes;
+    private final Counter diffs;
+
+    public RoomPresence(RoomSessionManager roomSessionManager, MessageBus messageBus,
+                        RoomDispatcher roomDispatcher, ObjectMapper objectMapper, ServerIdentity serverIdentity,
+                        @Value("${chatflow.presence.enabled:true}") boolean enabled,
+                        @Value("${chatflow.presence.interval-ms:1000}") long intervalMs,
+                        @Value("${chatflow.presence.stripes:64}") int stripeCount,
+                        @Value("${chatflow.delivery.local-short-circuit:false}") boolean localShortCircuit,
+                        MeterRegistry registry) {
+        this.messageBus = messageBus;
+        this.roomDispatcher = roomDispatcher;
+        this.objectMapper = objectMapper;
+        this.serverId = serverIdentity.getServerId();
+        this.enabled = enabled;
+        this.localShortCircuit = localShortCircuit;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+
+        this.changes = Counter.builder("chatflow.presence.changes")
+                .description("Users joining or leaving a room").register(registry);
+        this.diffs = Counter.builder("chatflow.presence.diffs")
+                .description("Coalesced presence frames published").register(registry);
+        Gauge.builder("chatflow.presence.rooms", snapshots, Map::size).register(registry);
+
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "presence-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        if (enabled) {
+            roomSessionManager.addMembershipListener(this);
+            flushExecutor.scheduleWithFixedDelay(this::flush, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** True for the diff frames this class publishes. */
+    public static boolean isPresenceFrame(byte[] body) {
+        if (body.length < PRESENCE_PREFIX.length) return false;
+        for (int i = 0; i < PRESENCE_PREFIX.length; i++) {
+            if (body[i] != PRESENCE_PREFIX[i]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void memberJoined(String roomId, UserInfo user) {
+        if (user == null || user.getUserId() == null) return;
+        Stripe stripe = stripeFor(roomId);
+        synchronized (stripe) {
+            RoomState room = stripe.rooms.computeIfAbsent(roomId, id -> new RoomState());
+            if (room.sessions.merge(user.getUserId(), 1, Integer::sum) > 1) return;
+            if (!room.left.remove(user.getUserId())) room.joined.add(user.getUserId());
+            stripe.dirty.add(roomId);
+        }
+        changes.increment();
+    }
+
+    @Override
+    public void memberLeft(String roomId, UserInfo user) {
+        if (user == null || user.getUserId() == null) return;
+        Stripe stripe = stripeFor(roomId);
+        synchronized (stripe) {
+            RoomState room = stripe.rooms.get(roomId);
+            if (room == null || !room.sessions.containsKey(user.getUserId())) return;
+            if (room.sessions.computeIfPresent(user.getUserId(), (id, n) -> n > 1 ? n - 1 : null) != null) return;
+            if (!room.joined.remove(user.getUserId())) room.left.add(user.getUserId());
+            stripe.dirty.add(roomId);
+        }
+        changes.increment();
+    }
+
+    /**
+     * The room's members on this server as of the last flush:
+     * {@code {"roomId":...,"server":...,"count":n,"users":[...]}}.
+     */
+    public byte[] snapshot(String roomId) {
+        byte[] snapshot = snapshots.get(roomId);
+        return snapshot != null ? snapshot : render(roomId, List.of());
+    }
+
+    /** Publishes one diff per room that changed since the last flush. */
+    void flush() {
+        for (Stripe stripe : stripes) {
+            List<Map<String, Object>> pending = new ArrayList<>();
+            synchronized (stripe) {
+                if (stripe.dirty.isEmpty()) continue;
+                for (String roomId : stripe.dirty) {
+                    RoomState room = stripe.rooms.get(roomId);
+                    List<String> users = new ArrayList<>(room.sessions.keySet());
+                    if (!room.joined.isEmpty() || !room.left.isEmpty()) {
+                        Map<String, Object> diff = new LinkedHashMap<>();
+                        diff.put("status", "PRESENCE");
+                        diff.put("roomId", roomId);
+                        diff.put("server", serverId);
+                        diff.put("joined", new ArrayList<>(room.joined));
+                        diff.put("left", new ArrayList<>(room.left));
+                        diff.put("count", users.size());
+                        pending.add(diff);
+                        room.joined.clear();
+                        room.left.clear();
+                    }
+                    if (users.isEmpty()) {
+                        stripe.rooms.remove(roomId);
+                        snapshots.remove(roomId);
+                    } else {
+                        snapshots.put(roomId, render(roomId, users));
+                    }
+                }
+                stripe.dirty.clear();
+            }
+            for (Map<String, Object> diff : pending) {
+                publish((String) diff.get("roomId"), diff);
+            }
+        }
+    }
+
+    private void publish(String roomId, Map<String, Object> diff) {
+        try {
+            byte[] body = objectMapper.writeValueAsBytes(diff);
+            if (localShortCircuit) {
+                roomDispatcher.dispatch(roomId, body, null);
+            }
+            messageBus.publish(roomId, body);
+            diffs.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("Presence diff failed for " + roomId + ": " + e.getMessage());
+        }
+    }
+
+    private byte[] render(String roomId, List<String> users) {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("roomId", roomId);
+        snapshot.put("server", serverId);
+        snapshot.put("count", users.size());
+        snapshot.put("users", users);
+        try {
+            return objectMapper.writeValueAsBytes(snapshot);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Stripe stripeFor(String roomId) {
+        return stripes[Math.floorMod(roomId.hashCode(), stripes.length)];
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushExecutor.shutdownNow();
+    }
+
+    private static final class Stripe {
+        final Map<String, RoomState> rooms = new HashMap<>();
+        final Set<String> dirty = new LinkedHashSet<>();
+    }
+
+    private static final class RoomState {
+        // Sessions per user; a user is present while they have at least one
+        final Map<String, Integer> sessions = new LinkedHashMap<>();
+        final Set<String> joined = new LinkedHashSet<>();
+        final Set<String> left = new LinkedHashSet<>();
+    }
+}
\ No newline at end of file
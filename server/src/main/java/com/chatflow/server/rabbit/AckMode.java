@@ -0,0 +1,8 @@
+package com.chatflow.server.rabbit;
+
+public enum AckMode {
+    /** basicAck(tag, false) for every delivery. */
+    SINGLE,
+    /** basicAck(tag, true) for the completed prefix, every ack-batch deliveries or ack-interval-ms. */
+    CUMULATIVE
+}
\ No newline at end of file
@@ -0,0 +1,178 @@
+package com.chatflow.server.rabbit;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Settles the deliveries of one channel, whose tags are consecutive. Room lanes complete
+ * them out of order, so in CUMULATIVE mode the tracker keeps the highest tag below which
+ * every delivery is complete and acks that prefix with multiple=true once ackBatch more
+ * deliveries are covered, or on {@link #flush()}. In SINGLE mode each completion is acked
+ * on its own. It also measures how long deliveries stay unacked, which drives adaptive
+ * prefetch.
+ *
+ * <p>A recovered channel restarts its delivery tags at 1 and the broker requeues whatever
+ * was unacked, so the tracker works on ids instead: {@link #delivered} maps each tag to
+ * {@code base + tag}, and {@link #reset()} moves {@code base} past every id handed out so
+ * far. Completions of older ids are dropped rather than acked on the new channel, where
+ * their tags would be unknown or name other deliveries.
+ */
+public class AckTracker {
+
+    /** Where acks go; a channel in the consumer, a simulated broker in benchmarks. */
+    public interface AckSink {
+        void ack(long deliveryTag, boolean multiple) throws IOException;
+
+        void nack(long deliveryTag) throws IOException;
+    }
+
+    private final AckSink sink;
+    private final AckMode mode;
+    private final int ackBatch;
+    private final int mask;
+    // Slot holds the id once that delivery is complete; the id itself guards against wrap-around
+    private final AtomicLongArray completed;
+    private final long[] deliveredAt;
+    private final AtomicBoolean advancing = new AtomicBoolean(false);
+    private final LongAdder unackedNanos = new LongAdder();
+    private final LongAdder completions = new LongAdder();
+    private final LongAdder acksSent = new LongAdder();
+    private final LongAdder settledSingly = new LongAdder();
+
+    // All in id space; base, and lastAcked apart from reset, change only under the lock
+    private volatile long base;
+    private volatile long frontier;
+    private volatile long highestDelivered;
+    private volatile long lastAcked;
+
+    /** {@code capacity} must exceed the largest prefetch the channel will ever use. */
+    public AckTracker(AckSink sink, AckMode mode, int ackBatch, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.sink = sink;
+        this.mode = mode;
+        this.ackBatch = Math.max(1, ackBatch);
+        this.mask = size - 1;
+        this.completed = new AtomicLongArray(size);
+        this.deliveredAt = new long[size];
+    }
+
+    /**
+     * Called on the consumer thread, in tag order, as each delivery arrives. Returns the id
+     * to complete the delivery with.
+     */
+    public long delivered(long deliveryTag) {
+        long id = base + deliveryTag;
+        deliveredAt[(int) (id & mask)] = System.nanoTime();
+        highestDelivered = id;
+        return id;
+    }
+
+    /**
+     * Forgets every delivery handed out so far, for a channel that shut down or recovered:
+     * its unacked deliveries are requeued by the broker and its tags start again at 1.
+     * Idempotent; call it from the channel's shutdown and recovery listeners.
+     */
+    public synchronized void reset() {
+        // Keep advance() from writing an old frontier back over the new one
+        while (!advancing.compareAndSet(false, true)) {
+            Thread.onSpinWait();
+        }
+        long last = highestDelivered;
+        base = last;
+        frontier = last;
+        lastAcked = last;
+        settledSingly.add(last - settledSingly.sum());
+        advancing.set(false);
+    }
+
+    /**
+     * Called once per delivery with the id from {@link #delivered}, from any thread. A failed
+     * delivery is nacked without requeue in SINGLE mode; in CUMULATIVE mode it is covered by
+     * the next ack instead, which has the same effect since the queues have no dead-letter
+     * exchange, and keeps the acked prefix free of already-settled tags. Ids from before the
+     * last reset are ignored.
+     */
+    public void complete(long id, boolean delivered) throws IOException {
+        if (id <= base) return;
+        int slot = (int) (id & mask);
+        unackedNanos.add(System.nanoTime() - deliveredAt[slot]);
+        completions.increment();
+
+        if (mode == AckMode.SINGLE) {
+            settle(id, delivered);
+            return;
+        }
+
+        completed.set(slot, id);
+        advance();
+    }
+
+    /** Acks whatever complete prefix has not been acked yet. */
+    public void flush() throws IOException {
+        if (mode == AckMode.CUMULATIVE) {
+            ackUpTo(frontier);
+        }
+    }
+
+    /** Deliveries received but not yet acked. */
+    public long unacked() {
+        long settled = mode == AckMode.SINGLE ? settledSingly.sum() : lastAcked;
+        return Math.max(0, highestDelivered - settled);
+    }
+
+    public long getAcksSent() {
+        return acksSent.sum();
+    }
+
+    /**
+     * Mean time from delivery to completion since the last call, in nanoseconds; 0 if
+     * nothing completed.
+     */
+    public long drainMeanUnackedNanos() {
+        long count = completions.sumThenReset();
+        long total = unackedNanos.sumThenReset();
+        return count == 0 ? 0 : total / count;
+    }
+
+    private void advance() throws IOException {
+        while (advancing.compareAndSet(false, true)) {
+            long next = frontier + 1;
+            while (completed.get((int) (next & mask)) == next) {
+                next++;
+            }
+            frontier = next - 1;
+            boolean due = frontier - lastAcked >= ackBatch;
+            advancing.set(false);
+
+            if (due) {
+                ackUpTo(frontier);
+            }
+            // A completion that landed while we held the flag may have found it taken
+            if (completed.get((int) ((frontier + 1) & mask)) != frontier + 1) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void settle(long id, boolean delivered) throws IOException {
+        // Under the lock so a reset cannot slip in between the check and the ack
+        if (id <= base) return;
+        if (delivered) {
+            sink.ack(id - base, false);
+        } else {
+            sink.nack(id - base);
+        }
+        acksSent.increment();
+        settledSingly.increment();
+    }
+
+    private synchronized void ackUpTo(long id) throws IOException {
+        // Acks must reach the broker in increasing order, so they are sent under the lock
+        if (id <= lastAcked) return;
+        sink.ack(id - base, true);
+        lastAcked = id;
+        acksSent.increment();
+    }
+}
\ No newline at end of file
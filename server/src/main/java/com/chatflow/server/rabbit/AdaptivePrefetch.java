@@ -0,0 +1,45 @@
+package com.chatflow.server.rabbit;
+
+/**
+ * Prefetch controller for one consumer, called periodically with what it observed since
+ * the previous call. It doubles the prefetch while messages wait in the queue, the pipeline
+ * is nearly full and deliveries complete within the target latency; it cuts it by a quarter
+ * when deliveries take longer than the target (the lanes are the bottleneck and a deeper
+ * pipeline only adds queueing), and shrinks it slowly when the queue is empty and most of
+ * the window is unused, so idle consumers hold few unacked messages.
+ */
+public class AdaptivePrefetch {
+
+    private final int min;
+    private final int max;
+    private final long targetLatencyNanos;
+    private int prefetch;
+
+    public AdaptivePrefetch(int initial, int min, int max, long targetLatencyNanos) {
+        this.min = min;
+        this.max = max;
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.prefetch = Math.max(min, Math.min(max, initial));
+    }
+
+    /**
+     * @param backlog            messages ready in the queue
+     * @param meanLatencyNanos   mean delivery-to-completion time, 0 if nothing completed
+     * @param unacked            deliveries currently unacked
+     * @return the prefetch to use from now on
+     */
+    public int update(long backlog, long meanLatencyNanos, long unacked) {
+        if (meanLatencyNanos > targetLatencyNanos) {
+            prefetch = Math.max(min, prefetch - prefetch / 4);
+        } else if (backlog > 0 && unacked >= prefetch * 3L / 4) {
+            prefetch = Math.min(max, prefetch * 2);
+        } else if (backlog == 0 && unacked < prefetch / 4) {
+            prefetch = Math.max(min, prefetch - Math.max(1, prefetch / 8));
+        }
+        return prefetch;
+    }
+
+    public int current() {
+        return prefetch;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,41 @@
+package com.chatflow.server.rabbit;
+
+import com.rabbitmq.client.AMQP;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Wire format of a batched publish: the AMQP header {@value #BATCH_HEADER} carries the
+ * record count and the body is that many records, each an int length followed by the
+ * message bytes. Publishes without the header carry a single message as-is.
+ */
+public final class BatchEnvelope {
+
+    public static final String BATCH_HEADER = "x-chatflow-batch";
+    public static final int RECORD_OVERHEAD = 4;
+
+    private BatchEnvelope() {}
+
+    public static boolean isBatch(AMQP.BasicProperties properties) {
+        if (properties == null) return false;
+        Map<String, Object> headers = properties.getHeaders();
+        return headers != null && headers.containsKey(BATCH_HEADER);
+    }
+
+    /** Calls {@code handler} with each message in the envelope, in publish order. */
+    public static void unpack(byte[] body, Consumer<byte[]> handler) {
+        ByteBuffer buf = ByteBuffer.wrap(body);
+        while (buf.remaining() >= RECORD_OVERHEAD) {
+            int length = buf.getInt();
+            if (length < 0 || length > buf.remaining()) {
+                throw new IllegalArgumentException("Corrupt batch envelope");
+            }
+            int start = buf.position();
+            handler.accept(Arrays.copyOfRange(body, start, start + length));
+            buf.position(start + length);
+        }
+    }
+}
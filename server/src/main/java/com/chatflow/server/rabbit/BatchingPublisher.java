@@ -0,0 +1,194 @@
+package com.chatflow.server.rabbit;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects messages per room and hands them to the broker as one {@link BatchEnvelope},
+ * either when a room reaches {@code maxMessages} or {@code lingerMs} after the first
+ * message of the batch arrived, whichever comes first.
+ *
+ * <p>A room's envelopes reach the sink in the order they were cut: cutting a batch and
+ * publishing it both happen under the room's publish lock, so a full batch cannot be
+ * overtaken by the next one's linger flush while the sink blocks on flow control. Linger
+ * flushes run on a small pool rather than the timer thread, so one slow room does not hold
+ * up every other room's linger.
+ *
+ * <p>A room's batch is dropped once a flush leaves it empty, so rooms that went quiet do
+ * not each keep a buffer. It is retired under its own lock only after its envelope is
+ * published, and an add that finds it retired starts a new one, so order still holds.
+ */
+public class BatchingPublisher {
+
+    /**
+     * Receives a finished envelope; {@code count} is the number of messages in it and
+     * {@code ingressNanos} the ingress time of the first, or 0.
+     */
+    public interface EnvelopeSink {
+        void publish(String roomId, byte[] envelope, int count, long ingressNanos);
+    }
+
+    private static final int INITIAL_BUFFER = 4096;
+
+    private final EnvelopeSink sink;
+    private final long lingerMs;
+    private final int maxMessages;
+    private final Map<String, RoomBatch> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService lingerTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "publish-linger");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService flushExecutor;
+
+    public BatchingPublisher(EnvelopeSink sink, long lingerMs, int maxMessages) {
+        this(sink, lingerMs, maxMessages, 4);
+    }
+
+    public BatchingPublisher(EnvelopeSink sink, long lingerMs, int maxMessages, int flushThreads) {
+        this.sink = sink;
+        this.lingerMs = lingerMs;
+        this.maxMessages = maxMessages;
+        AtomicInteger threadIndex = new AtomicInteger(0);
+        this.flushExecutor = Executors.newFixedThreadPool(flushThreads, r -> {
+            Thread t = new Thread(r, "publish-flush-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void add(String roomId, byte[] body) {
+        add(roomId, body, 0);
+    }
+
+    public void add(String roomId, byte[] body, long ingressNanos) {
+        while (!batches.computeIfAbsent(roomId, RoomBatch::new).add(body, ingressNanos)) {
+            // Retired by a flush that emptied it; the next lookup finds or creates its successor
+        }
+    }
+
+    /** Rooms currently holding a batch. */
+    int activeRooms() {
+        return batches.size();
+    }
+
+    /** Publishes everything still pending, e.g. on shutdown. */
+    public void flushAll() {
+        for (RoomBatch batch : batches.values()) {
+            batch.flush(-1);
+        }
+    }
+
+    public void shutdown() {
+        lingerTimer.shutdownNow();
+        flushExecutor.shutdown();
+        flushAll();
+    }
+
+    private final class RoomBatch {
+        private final String roomId;
+        private final Object publishLock = new Object();
+        private byte[] buffer = new byte[INITIAL_BUFFER];
+        private int length;
+        private int count;
+        private long generation;
+        private long firstIngress;
+        private boolean retired;
+
+        RoomBatch(String roomId) {
+            this.roomId = roomId;
+        }
+
+        /** Returns false, adding nothing, if this batch was retired. */
+        boolean add(byte[] body, long ingressNanos) {
+            long fullGeneration = -1;
+            long scheduleGeneration = -1;
+
+            synchronized (this) {
+                if (retired) return false;
+                if (count == 0) firstIngress = ingressNanos;
+                ensureCapacity(length + BatchEnvelope.RECORD_OVERHEAD + body.length);
+                writeInt(body.length);
+                System.arraycopy(body, 0, buffer, length, body.length);
+                length += body.length;
+                count++;
+
+                if (count >= maxMessages) {
+                    fullGeneration = generation;
+                } else if (count == 1) {
+                    scheduleGeneration = generation;
+                }
+            }
+
+            if (fullGeneration >= 0) {
+                flush(fullGeneration);
+            } else if (scheduleGeneration >= 0) {
+                long expected = scheduleGeneration;
+                lingerTimer.schedule(() -> lingerExpired(expected), lingerMs, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+
+        private void lingerExpired(long expected) {
+            try {
+                flushExecutor.execute(() -> flush(expected));
+            } catch (RejectedExecutionException e) {
+                // Shutting down; flushAll publishes what is left
+            }
+        }
+
+        /**
+         * Flushes the batch if it is still generation {@code expected} (any generation if -1).
+         * If another thread cut that generation first, it has published it, or is about to
+         * under the same lock, so there is nothing left to do.
+         */
+        void flush(long expected) {
+            synchronized (publishLock) {
+                byte[] envelope;
+                int envelopeCount;
+                long ingress;
+                synchronized (this) {
+                    if (count == 0 || (expected >= 0 && expected != generation)) return;
+                    envelopeCount = count;
+                    ingress = firstIngress;
+                    envelope = take();
+                }
+                sink.publish(roomId, envelope, envelopeCount, ingress);
+
+                synchronized (this) {
+                    if (count > 0) return;
+                    retired = true;
+                }
+                batches.remove(roomId, this);
+            }
+        }
+
+        private byte[] take() {
+            byte[] envelope = Arrays.copyOf(buffer, length);
+            length = 0;
+            count = 0;
+            generation++;
+            return envelope;
+        }
+
+        private void ensureCapacity(int needed) {
+            if (needed > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(needed, buffer.length * 2));
+            }
+        }
+
+        private void writeInt(int value) {
+            buffer[length++] = (byte) (value >>> 24);
+            buffer[length++] = (byte) (value >>> 16);
+            buffer[length++] = (byte) (value >>> 8);
+            buffer[length++] = (byte) value;
+        }
+    }
+}
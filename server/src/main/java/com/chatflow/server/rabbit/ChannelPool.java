@@ -1,52 +1,208 @@
 package com.chatflow.server.rabbit;
 
 import com.rabbitmq.client.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PreDestroy;
 
 import java.io.IOException;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
+/**
+ * Fixed set of channels spread over several connections. Each channel sits in a slot of an
+ * atomic array; borrowing claims a slot with getAndSet starting from a per-thread stripe, so
+ * threads mostly touch different slots and never take a lock. Closed channels are replaced
+ * on borrow or return, and a background task refills slots whose replacement failed.
+ *
+ * <p>Connections recover automatically, bringing back the channels left in the pool. A
+ * closed channel the pool replaces is aborted, which also takes it out of recovery, so it
+ * does not come back later as an open channel that nobody owns.
+ */
 public class ChannelPool {
 
-    private final BlockingQueue<Channel> pool;
-    private final Connection connection;
+    /** Applied to every channel the pool opens, including replacements, before it is handed out. */
+    public interface ChannelCustomizer {
+        void customize(Channel channel) throws IOException;
+    }
+
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String name;
+    private final Connection[] connections;
+    private final AtomicReferenceArray<Channel> slots;
     private final int poolSize;
+    private final long borrowTimeoutNanos;
+    private final ChannelCustomizer channelCustomizer;
+    private final AtomicInteger available = new AtomicInteger(0);
+    private final AtomicInteger missing = new AtomicInteger(0);
+    private final AtomicInteger nextConnection = new AtomicInteger(0);
+    private final ScheduledExecutorService healer;
 
-    public ChannelPool(int poolSize) throws IOException, TimeoutException {
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost("localhost");
-        factory.setPort(5672);
-        factory.setUsername("guest");
-        factory.setPassword("guest");
+    private final Timer waitTimer;
+    private final Counter timeouts;
+    private final Counter replaced;
 
+    public ChannelPool(String name, ConnectionFactory factory, int poolSize, int connectionCount,
+                       long borrowTimeoutMs, MeterRegistry registry,
+                       Consumer<Connection> connectionCustomizer,
+                       ChannelCustomizer channelCustomizer) throws IOException, TimeoutException {
+        this.name = name;
         this.poolSize = poolSize;
-        this.connection = factory.newConnection();
-        this.pool = new ArrayBlockingQueue<>(poolSize);
-
-        init();
-    }
+        this.borrowTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMs);
+        this.channelCustomizer = channelCustomizer;
+        this.slots = new AtomicReferenceArray<>(poolSize);
+        this.connections = new Connection[Math.max(1, Math.min(connectionCount, poolSize))];
 
-    private void init() throws IOException {
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = factory.newConnection(name + "-" + i);
+            connectionCustomizer.accept(connections[i]);
+        }
         for (int i = 0; i < poolSize; i++) {
-            pool.offer(connection.createChannel());
+            slots.set(i, openChannel());
+            available.incrementAndGet();
         }
+
+        this.waitTimer = Timer.builder("chatflow.channelpool.wait").tag("pool", name).register(registry);
+        this.timeouts = Counter.builder("chatflow.channelpool.timeouts").tag("pool", name).register(registry);
+        this.replaced = Counter.builder("chatflow.channelpool.replaced").tag("pool", name).register(registry);
+        Gauge.builder("chatflow.channelpool.available", available, AtomicInteger::get).tag("pool", name).register(registry);
+        Gauge.builder("chatflow.channelpool.size", this, p -> p.poolSize - p.missing.get()).tag("pool", name).register(registry);
+
+        this.healer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name + "-healer");
+            t.setDaemon(true);
+            return t;
+        });
+        healer.scheduleWithFixedDelay(this::refill, 1, 1, TimeUnit.SECONDS);
     }
 
-    public Channel borrowChannel() throws InterruptedException {
-        return pool.take();
+    /**
+     * Claims an open channel, waiting up to the borrow timeout.
+     * Throws TimeoutException if every channel stayed in use.
+     */
+    public Channel borrowChannel() throws InterruptedException, TimeoutException {
+        long start = System.nanoTime();
+        int stripe = stripe();
+        long backoff = 1_000;
+
+        while (true) {
+            for (int i = 0; i < poolSize; i++) {
+                int index = (stripe + i) % poolSize;
+                Channel channel = slots.get(index) != null ? slots.getAndSet(index, null) : null;
+                if (channel == null) continue;
+
+                available.decrementAndGet();
+                if (!channel.isOpen()) {
+                    channel = replace(channel);
+                    if (channel == null) continue;
+                }
+                waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                return channel;
+            }
+
+            if (System.nanoTime() - start > borrowTimeoutNanos) {
+                timeouts.increment();
+                throw new TimeoutException("No channel available in pool " + name);
+            }
+            if (Thread.interrupted()) throw new InterruptedException();
+            LockSupport.parkNanos(backoff);
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+        }
     }
 
     public void returnChannel(Channel channel) {
-        if (channel != null && channel.isOpen()) {
-            pool.offer(channel);
+        if (channel == null) return;
+        if (!channel.isOpen()) {
+            channel = replace(channel);
+            if (channel == null) return;
+        }
+        release(channel);
+    }
+
+    /** Channels currently in the pool and not borrowed. */
+    public int getAvailable() {
+        return available.get();
+    }
+
+    private void release(Channel channel) {
+        int stripe = stripe();
+        while (true) {
+            for (int i = 0; i < poolSize; i++) {
+                int index = (stripe + i) % poolSize;
+                if (slots.get(index) == null && slots.compareAndSet(index, null, channel)) {
+                    available.incrementAndGet();
+                    return;
+                }
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /** Opens a channel in place of a dead one; on failure the slot is left for the healer. */
+    private Channel replace(Channel dead) {
+        try {
+            dead.abort();
+        } catch (Exception ignored) {}
+        try {
+            Channel channel = openChannel();
+            replaced.increment();
+            return channel;
+        } catch (Exception e) {
+            missing.incrementAndGet();
+            System.err.println("Channel pool " + name + ": replacement failed, " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void refill() {
+        while (missing.get() > 0) {
+            try {
+                Channel channel = openChannel();
+                missing.decrementAndGet();
+                replaced.increment();
+                release(channel);
+            } catch (Exception e) {
+                return;
+            }
         }
     }
 
+    private Channel openChannel() throws IOException {
+        IOException last = null;
+        for (int attempt = 0; attempt < connections.length; attempt++) {
+            Connection connection = connections[Math.floorMod(nextConnection.getAndIncrement(), connections.length)];
+            if (!connection.isOpen()) continue;
+            try {
+                Channel channel = connection.createChannel();
+                channelCustomizer.customize(channel);
+                return channel;
+            } catch (IOException e) {
+                last = e;
+            }
+        }
+        throw last != null ? last : new IOException("No open connection in pool " + name);
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 33) % poolSize;
+    }
+
     @PreDestroy
     public void close() throws IOException, TimeoutException {
-        for (Channel channel : pool) {
-            if (channel.isOpen()) channel.close();
+        healer.shutdownNow();
+        for (int i = 0; i < poolSize; i++) {
+            Channel channel = slots.getAndSet(i, null);
+            if (channel != null && channel.isOpen()) channel.close();
+        }
+        for (Connection connection : connections) {
+            if (connection.isOpen()) connection.close();
         }
-        if (connection.isOpen()) connection.close();
     }
-}
\ No newline at end of file
+}
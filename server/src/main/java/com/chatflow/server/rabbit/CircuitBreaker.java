@@ -2,18 +2,26 @@ package com.chatflow.server.rabbit;
 
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Lock-free breaker: every transition is a compareAndSet on the state, so only the thread
+ * that wins a transition logs it and resets the counters. While HALF_OPEN, at most
+ * halfOpenSuccessThreshold probe requests are let through at once.
+ */
 public class CircuitBreaker {
+
     private final int failureThreshold;
     private final long cooldownMs;
     private final int halfOpenSuccessThreshold;
 
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
     private final AtomicInteger failureCount = new AtomicInteger(0);
     private final AtomicInteger halfOpenSuccessCount = new AtomicInteger(0);
-    private final AtomicLong lastFailureTime = new AtomicLong(0);
-    private volatile State state = State.CLOSED;
+    private final AtomicInteger halfOpenProbes = new AtomicInteger(0);
+    private final AtomicLong openedAt = new AtomicLong(0);
 
-    private enum State { CLOSED, OPEN, HALF_OPEN }
+    public enum State { CLOSED, OPEN, HALF_OPEN }
 
     public CircuitBreaker(int failureThreshold, long cooldownMs) {
         this(failureThreshold, cooldownMs, 3);
@@ -25,66 +33,82 @@ public class CircuitBreaker {
         this.halfOpenSuccessThreshold = halfOpenSuccessThreshold;
     }
 
-    public synchronized boolean allowRequest() {
-        if (state == State.CLOSED) {
+    public boolean allowRequest() {
+        State current = state.get();
+        if (current == State.CLOSED) {
             return true;
         }
 
-        if (state == State.OPEN) {
-            // Check if cooldown period is over
-            if (System.currentTimeMillis() - lastFailureTime.get() > cooldownMs) {
-                state = State.HALF_OPEN;
-                halfOpenSuccessCount.set(0);
-                System.out.println("🔄 [CIRCUIT BREAKER] Transitioning to HALF_OPEN state, testing connection...");
-                return true;
-            } else {
-                long remainingMs = cooldownMs - (System.currentTimeMillis() - lastFailureTime.get());
-                if (failureCount.get() % 100 == 0) { // Log every 100 blocked requests
-                    System.out.println("⏸️ [CIRCUIT BREAKER] Still OPEN, " + (remainingMs/1000) + "s remaining");
-                }
+        if (current == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt.get() < cooldownMs) {
                 return false;
             }
+            if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+                halfOpenSuccessCount.set(0);
+                halfOpenProbes.set(0);
+                System.out.println("Circuit breaker HALF_OPEN, probing broker");
+            }
         }
 
-        // HALF_OPEN: allow requests to test if service recovered
+        // HALF_OPEN (or just moved there): admit a bounded number of probes
+        if (state.get() != State.HALF_OPEN) {
+            return state.get() == State.CLOSED;
+        }
+        int probes = halfOpenProbes.incrementAndGet();
+        if (probes > halfOpenSuccessThreshold) {
+            halfOpenProbes.decrementAndGet();
+            return false;
+        }
         return true;
     }
 
-    public synchronized void recordSuccess() {
-        if (state == State.HALF_OPEN) {
-            halfOpenSuccessCount.incrementAndGet();
-            if (halfOpenSuccessCount.get() >= halfOpenSuccessThreshold) {
-                state = State.CLOSED;
-                failureCount.set(0);
-                System.out.println("✅ [CIRCUIT BREAKER] Closed after " + halfOpenSuccessCount.get() + " successful requests");
-            }
-        } else if (state == State.CLOSED) {
-            // Reset failure count on success
-            if (failureCount.get() > 0) {
+    public void recordSuccess() {
+        State current = state.get();
+        if (current == State.HALF_OPEN) {
+            halfOpenProbes.decrementAndGet();
+            if (halfOpenSuccessCount.incrementAndGet() >= halfOpenSuccessThreshold
+                    && state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
                 failureCount.set(0);
+                System.out.println("Circuit breaker CLOSED after " + halfOpenSuccessThreshold + " successful probes");
             }
+        } else if (current == State.CLOSED && failureCount.get() > 0) {
+            failureCount.set(0);
         }
     }
 
-    public synchronized void recordFailure() {
-        int currentFailures = failureCount.incrementAndGet();
-        lastFailureTime.set(System.currentTimeMillis());
+    public void recordFailure() {
+        State current = state.get();
+        if (current == State.HALF_OPEN) {
+            openedAt.set(System.currentTimeMillis());
+            if (state.compareAndSet(State.HALF_OPEN, State.OPEN)) {
+                System.err.println("Circuit breaker back to OPEN after a failed probe");
+            }
+        } else if (current == State.CLOSED) {
+            int failures = failureCount.incrementAndGet();
+            if (failures >= failureThreshold) {
+                openedAt.set(System.currentTimeMillis());
+                if (state.compareAndSet(State.CLOSED, State.OPEN)) {
+                    System.err.println("Circuit breaker OPEN after " + failures + " consecutive failures");
+                }
+            }
+        }
+    }
 
-        if (state == State.HALF_OPEN) {
-            // If failure in half-open state, go back to open
-            state = State.OPEN;
-            System.out.println("⚠️ [CIRCUIT BREAKER] Back to OPEN state after failure in HALF_OPEN");
-        } else if (currentFailures >= failureThreshold && state == State.CLOSED) {
-            state = State.OPEN;
-            System.out.println("🔴 [CIRCUIT BREAKER] OPENED after " + currentFailures + " consecutive failures!");
+    /**
+     * Ends a request that says nothing about the broker's health, such as a publish that
+     * timed out on flow control, giving back its half-open probe slot.
+     */
+    public void recordIgnored() {
+        if (state.get() == State.HALF_OPEN) {
+            halfOpenProbes.decrementAndGet();
         }
     }
 
     public State getState() {
-        return state;
+        return state.get();
     }
 
     public int getFailureCount() {
         return failureCount.get();
     }
-}
\ No newline at end of file
+}
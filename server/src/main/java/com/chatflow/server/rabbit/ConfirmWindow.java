@@ -0,0 +1,109 @@
+package com.chatflow.server.rabbit;
+
+import com.rabbitmq.client.ConfirmListener;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outstanding publisher confirms for one channel, keyed by sequence number, with a
+ * semaphore capping how many can be in flight. The broker may confirm out of order, so
+ * entries are found by their own sequence number rather than by a slot in a ring; each is
+ * removed, and its permit released, exactly once. A window covers one run of the channel's
+ * sequence numbers; when the channel shuts down it is closed, and a recovered channel gets
+ * a new one.
+ */
+public class ConfirmWindow implements ConfirmListener {
+
+    /** Called once per confirmed publish, on the connection's I/O thread. */
+    public interface ConfirmCallback {
+        void confirmed(boolean ack, long latencyNanos);
+    }
+
+    private final int capacity;
+    // seqNo -> send time in nanos
+    private final ConcurrentSkipListMap<Long, Long> outstanding = new ConcurrentSkipListMap<>();
+    private final Semaphore permits;
+    private final ConfirmCallback callback;
+
+    private volatile boolean closed;
+
+    public ConfirmWindow(int capacity, ConfirmCallback callback) {
+        this.capacity = Math.max(1, capacity);
+        this.permits = new Semaphore(this.capacity);
+        this.callback = callback;
+    }
+
+    /** Waits for room in the window; false if none opened up in time. */
+    public boolean acquire(long timeoutMs) throws InterruptedException {
+        return permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Records a publish about to go out with {@code seqNo}; call after {@link #acquire}. */
+    public void sent(long seqNo) {
+        outstanding.put(seqNo, System.nanoTime());
+        if (closed && outstanding.remove(seqNo) != null) {
+            // Closed while we were publishing: nobody will confirm it
+            permits.release();
+        }
+    }
+
+    /** Gives the slot back when the publish itself failed and no confirm will arrive. */
+    public void abandon(long seqNo) {
+        if (outstanding.remove(seqNo) != null) {
+            permits.release();
+        }
+    }
+
+    /**
+     * Gives back every slot still waiting for a confirm, once the channel is gone and none
+     * will arrive. Returns how many publishes were left unconfirmed.
+     */
+    public synchronized int close() {
+        closed = true;
+        int lost = 0;
+        while (outstanding.pollFirstEntry() != null) {
+            permits.release();
+            lost++;
+        }
+        return lost;
+    }
+
+    public int inFlight() {
+        return capacity - permits.availablePermits();
+    }
+
+    @Override
+    public void handleAck(long deliveryTag, boolean multiple) {
+        confirm(deliveryTag, multiple, true);
+    }
+
+    @Override
+    public void handleNack(long deliveryTag, boolean multiple) {
+        confirm(deliveryTag, multiple, false);
+    }
+
+    private synchronized void confirm(long deliveryTag, boolean multiple, boolean ack) {
+        if (closed) return;
+        long now = System.nanoTime();
+        if (!multiple) {
+            Long sentAt = outstanding.remove(deliveryTag);
+            if (sentAt != null) complete(ack, now - sentAt);
+            return;
+        }
+        Map.Entry<Long, Long> oldest;
+        while ((oldest = outstanding.firstEntry()) != null && oldest.getKey() <= deliveryTag) {
+            // remove(key, value) loses to a concurrent abandon, so each permit goes back once
+            if (outstanding.remove(oldest.getKey(), oldest.getValue())) {
+                complete(ack, now - oldest.getValue());
+            }
+        }
+    }
+
+    private void complete(boolean ack, long latency) {
+        permits.release();
+        callback.confirmed(ack, latency);
+    }
+}
@@ -0,0 +1,6 @@
+package com.chatflow.server.rabbit;
+
+public enum PrefetchMode {
+    FIXED,
+    ADAPTIVE
+}
\ No newline at end of file
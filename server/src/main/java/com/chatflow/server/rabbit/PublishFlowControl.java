@@ -0,0 +1,205 @@
+package com.chatflow.server.rabbit;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publisher-side backpressure: per-channel confirm windows plus the broker's
+ * connection.blocked / unblocked notifications, tracked per producer connection so that a
+ * blocked connection only holds up publishes on its own channels. Publishing threads wait
+ * here, and since they are WebSocket handler threads, a full window stops reading from
+ * that socket.
+ *
+ * <p>Producer connections recover automatically, and a recovered channel is the same
+ * Channel object with its sequence numbers restarted. A window is dropped when its channel
+ * shuts down and a fresh one is armed when the channel recovers; a channel that cannot be
+ * re-armed is aborted so the pool replaces it.
+ */
+@Component
+@ConditionalOnProperty(name = "chatflow.bus.type", havingValue = "rabbitmq", matchIfMissing = true)
+public class PublishFlowControl {
+
+    private final boolean confirmsEnabled;
+    private final int windowSize;
+    private final Map<Channel, ConfirmWindow> windows = new ConcurrentHashMap<>();
+    private final Set<Object> blocked = ConcurrentHashMap.newKeySet();
+    private final Object blockedMonitor = new Object();
+
+    private final Counter acks;
+    private final Counter nacks;
+    private final Counter lost;
+    private final Counter returned;
+    private final Counter windowTimeouts;
+    private final Counter unarmed;
+    private final Timer confirmLatency;
+
+    public PublishFlowControl(@Value("${chatflow.publish.confirms.enabled:true}") boolean confirmsEnabled,
+                              @Value("${chatflow.publish.confirms.window:256}") int windowSize,
+                              MeterRegistry registry) {
+        this.confirmsEnabled = confirmsEnabled;
+        this.windowSize = windowSize;
+
+        this.acks = Counter.builder("chatflow.publish.confirms").tag("result", "ack").register(registry);
+        this.nacks = Counter.builder("chatflow.publish.confirms").tag("result", "nack").register(registry);
+        this.lost = Counter.builder("chatflow.publish.confirms").tag("result", "lost")
+                .description("Publishes still unconfirmed when their channel shut down").register(registry);
+        this.returned = Counter.builder("chatflow.publish.returned")
+                .description("Mandatory publishes the broker could not route").register(registry);
+        this.windowTimeouts = Counter.builder("chatflow.publish.window.timeouts")
+                .description("Publishes dropped after waiting for a confirm window or an unblocked broker")
+                .register(registry);
+        this.unarmed = Counter.builder("chatflow.publish.unarmed")
+                .description("Publishes refused because their channel had no confirm window").register(registry);
+        this.confirmLatency = Timer.builder("chatflow.publish.confirm.latency").register(registry);
+        Gauge.builder("chatflow.publish.inflight", this, PublishFlowControl::inFlight).register(registry);
+        Gauge.builder("chatflow.broker.blocked", blocked, Set::size)
+                .description("Producer connections the broker has blocked").register(registry);
+    }
+
+    /** Hooked into the producer pool for every connection it opens. */
+    public void onConnection(Connection connection) {
+        connection.addBlockedListener(reason -> setBlocked(connection, true), () -> setBlocked(connection, false));
+        // A lost connection comes back unblocked; the broker blocks it again if it must
+        connection.addShutdownListener(cause -> setBlocked(connection, false));
+    }
+
+    /** Hooked into the producer pool for every channel it opens. */
+    public void onChannel(Channel channel) throws IOException {
+        channel.addReturnListener(r -> returned.increment());
+        if (!confirmsEnabled) return;
+
+        arm(channel);
+        channel.addShutdownListener(cause -> disarm(channel));
+        if (channel instanceof Recoverable recoverable) {
+            recoverable.addRecoveryListener(new RecoveryListener() {
+                @Override
+                public void handleRecovery(Recoverable recovered) {
+                    rearm(channel);
+                }
+
+                @Override
+                public void handleRecoveryStarted(Recoverable recovering) {}
+            });
+        }
+    }
+
+    /**
+     * The channel's confirm window, or null when confirms are off or the channel has none
+     * (it shut down); with confirms on, callers must not publish on a channel without one.
+     */
+    public ConfirmWindow window(Channel channel) {
+        return windows.get(channel);
+    }
+
+    public boolean isConfirmsEnabled() {
+        return confirmsEnabled;
+    }
+
+    /** Puts the channel in confirm mode and gives it a fresh window. */
+    void arm(Channel channel) throws IOException {
+        channel.confirmSelect();
+        ConfirmWindow window = new ConfirmWindow(windowSize, (ack, latencyNanos) -> {
+            (ack ? acks : nacks).increment();
+            confirmLatency.record(latencyNanos, TimeUnit.NANOSECONDS);
+        });
+        channel.addConfirmListener(window);
+        ConfirmWindow previous = windows.put(channel, window);
+        if (previous != null) {
+            channel.removeConfirmListener(previous);
+            lost.increment(previous.close());
+        }
+    }
+
+    private void rearm(Channel channel) {
+        try {
+            arm(channel);
+        } catch (Exception e) {
+            System.err.println("Could not re-arm confirms on recovered channel: " + e.getMessage());
+            try {
+                channel.abort();
+            } catch (Exception ignored) {}
+        }
+    }
+
+    /** No confirm will arrive for what is outstanding on a channel that shut down. */
+    private void disarm(Channel channel) {
+        ConfirmWindow window = windows.remove(channel);
+        if (window == null) return;
+        channel.removeConfirmListener(window);
+        lost.increment(window.close());
+    }
+
+    /** Waits while the broker has the channel's connection blocked; false if it stayed blocked. */
+    public boolean awaitUnblocked(Channel channel, long timeoutMs) throws InterruptedException {
+        Connection connection = channel.getConnection();
+        if (connection == null) return true;
+        Object key = key(connection);
+        if (!blocked.contains(key)) return true;
+
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (blockedMonitor) {
+            while (blocked.contains(key)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                blockedMonitor.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    public void recordTimeout() {
+        windowTimeouts.increment();
+    }
+
+    public void recordUnarmed() {
+        unarmed.increment();
+    }
+
+    public boolean isBlocked(Connection connection) {
+        return blocked.contains(key(connection));
+    }
+
+    private void setBlocked(Connection connection, boolean value) {
+        boolean changed;
+        synchronized (blockedMonitor) {
+            changed = value ? blocked.add(key(connection)) : blocked.remove(key(connection));
+            blockedMonitor.notifyAll();
+        }
+        if (changed) {
+            System.out.println((value ? "Broker blocked publishing connection " : "Broker unblocked publishing connection ")
+                    + connection.getClientProvidedName());
+        }
+    }
+
+    /**
+     * A recovering connection hands its channels the current underlying connection, not
+     * itself, so both are matched by the name the pool gave the connection.
+     */
+    private static Object key(Connection connection) {
+        String name = connection.getClientProvidedName();
+        return name != null ? name : connection;
+    }
+
+    private double inFlight() {
+        int total = 0;
+        for (ConfirmWindow window : windows.values()) {
+            total += window.inFlight();
+        }
+        return total;
+    }
+}
@@ -1,6 +1,12 @@
 package com.chatflow.server.rabbit;
 
+import com.rabbitmq.client.ConnectionFactory;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.RabbitProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -8,17 +14,60 @@ import java.io.IOException;
 import java.util.concurrent.TimeoutException;
 
 @Configuration
+@ConditionalOnProperty(name = "chatflow.bus.type", havingValue = "rabbitmq", matchIfMissing = true)
 public class RabbitMQConfig {
 
+    private final RabbitProperties rabbitProperties;
+    private final MeterRegistry meterRegistry;
+    private final int connectionsPerPool;
+    private final long borrowTimeoutMs;
+
+    public RabbitMQConfig(RabbitProperties rabbitProperties,
+                          MeterRegistry meterRegistry,
+                          @Value("${chatflow.rabbit.connections-per-pool:4}") int connectionsPerPool,
+                          @Value("${chatflow.rabbit.borrow-timeout-ms:1000}") long borrowTimeoutMs) {
+        this.rabbitProperties = rabbitProperties;
+        this.meterRegistry = meterRegistry;
+        this.connectionsPerPool = connectionsPerPool;
+        this.borrowTimeoutMs = borrowTimeoutMs;
+    }
+
     @Bean
     @Qualifier("producerPool")
-    public ChannelPool producerChannelPool() throws IOException, TimeoutException {
-        return new ChannelPool(50);
+    public ChannelPool producerChannelPool(PublishFlowControl flowControl,
+                                           @Value("${chatflow.rabbit.producer.channels:50}") int channels)
+            throws IOException, TimeoutException {
+        return new ChannelPool("producer", connectionFactory(), channels, connectionsPerPool, borrowTimeoutMs,
+                meterRegistry, flowControl::onConnection, flowControl::onChannel);
     }
 
     @Bean
     @Qualifier("consumerPool")
-    public ChannelPool consumerChannelPool() throws IOException, TimeoutException {
-        return new ChannelPool(150);
+    public ChannelPool consumerChannelPool(@Value("${chatflow.rabbit.consumer.channels:16}") int channels)
+            throws IOException, TimeoutException {
+        return new ChannelPool("consumer", connectionFactory(), channels, connectionsPerPool, borrowTimeoutMs,
+                meterRegistry, connection -> { }, channel -> { });
+    }
+
+    @Bean
+    public CircuitBreaker publishCircuitBreaker(@Value("${chatflow.breaker.failure-threshold:5}") int failureThreshold,
+                                                @Value("${chatflow.breaker.cooldown-ms:5000}") long cooldownMs,
+                                                @Value("${chatflow.breaker.half-open-successes:3}") int halfOpenSuccesses) {
+        CircuitBreaker breaker = new CircuitBreaker(failureThreshold, cooldownMs, halfOpenSuccesses);
+        Gauge.builder("chatflow.breaker.state", breaker, b -> b.getState().ordinal())
+                .description("0 = closed, 1 = open, 2 = half-open").register(meterRegistry);
+        return breaker;
+    }
+
+    private ConnectionFactory connectionFactory() {
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost(rabbitProperties.determineHost());
+        factory.setPort(rabbitProperties.determinePort());
+        factory.setUsername(rabbitProperties.determineUsername());
+        factory.setPassword(rabbitProperties.determinePassword());
+        String virtualHost = rabbitProperties.determineVirtualHost();
+        if (virtualHost != null) factory.setVirtualHost(virtualHost);
+        factory.setAutomaticRecoveryEnabled(true);
+        return factory;
     }
-}
\ No newline at end of file
+}
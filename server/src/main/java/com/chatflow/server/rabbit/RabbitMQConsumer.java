@@ -1,109 +1,312 @@
 package com.chatflow.server.rabbit;
 
-import com.chatflow.server.handler.RoomSessionManager;
+import com.chatflow.server.bus.RoomSubscriptions;
+import com.chatflow.server.config.ServerIdentity;
+import com.chatflow.server.handler.RoomDispatcher;
+import com.chatflow.server.handler.StageTimes;
 import com.rabbitmq.client.*;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Component;
-import org.springframework.web.socket.*;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.nio.charset.StandardCharsets;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
+/**
+ * Each server owns a fixed number of shard queues on the room exchange and consumes each
+ * with one consumer. A room is bound to one shard queue, by routing key, only while this
+ * server has local members in it, as {@link RoomSubscriptions} decides through
+ * {@link RabbitMQMessageBus}. Deliveries are handed to {@link RoomDispatcher}, so queues,
+ * channels and threads stay fixed however many rooms are active. With local short-circuit
+ * delivery on, this server's own publishes are acked without being broadcast again.
+ *
+ * <p>Acks go through one {@link AckTracker} per shard: SINGLE acks every delivery, CUMULATIVE
+ * acks the completed prefix with multiple=true every ack-batch deliveries or ack-interval-ms.
+ * With prefetch-mode=ADAPTIVE the prefetch of each shard channel is retuned every second from
+ * the queue depth and from how long deliveries stay unacked.
+ */
 @Component
+@ConditionalOnProperty(name = "chatflow.bus.type", havingValue = "rabbitmq", matchIfMissing = true)
 @DependsOn("rabbitMQInitializer")
 public class RabbitMQConsumer {
 
-    private static final String EXCHANGE_PREFIX = "chat.exchange.";
-    private static final int ROOM_COUNT = 20;
-    private static final int CONSUMERS_PER_ROOM = 2;
-
     private final ChannelPool channelPool;
-    private final RoomSessionManager roomSessionManager;
-    private final ExecutorService consumerExecutor = Executors.newFixedThreadPool(ROOM_COUNT * CONSUMERS_PER_ROOM);
+    private final RoomDispatcher roomDispatcher;
+    private final String serverId;
+    private final boolean skipOwnPublishes;
+    private final int shardCount;
+    private final AckMode ackMode;
+    private final int ackBatch;
+    private final PrefetchMode prefetchMode;
+    private final int prefetchMin;
+    private final int prefetchMax;
+    private final long prefetchTargetLatencyMs;
+    private final Channel[] shardChannels;
+    private final AckTracker[] ackTrackers;
+    private final AdaptivePrefetch[] prefetchControllers;
+    private final AtomicIntegerArray shardPrefetch;
+    private final Timer deliveryTimer;
+    private final Channel bindingChannel;
+    private final ScheduledExecutorService ackExecutor;
     private final AtomicInteger processed = new AtomicInteger(0);
+    private final StageMetrics stageMetrics;
+    private final boolean stageTrailer;
 
     public RabbitMQConsumer(@Qualifier("consumerPool") ChannelPool channelPool,
-                            RoomSessionManager roomSessionManager) throws Exception {
+                            RoomDispatcher roomDispatcher,
+                            ServerIdentity serverIdentity,
+                            StageMetrics stageMetrics,
+                            @Value("${chatflow.delivery.local-short-circuit:false}") boolean skipOwnPublishes,
+                            @Value("${chatflow.consumer.shards:8}") int shardCount,
+                            @Value("${chatflow.consumer.prefetch:250}") int prefetch,
+                            @Value("${chatflow.consumer.ack-mode:SINGLE}") AckMode ackMode,
+                            @Value("${chatflow.consumer.ack-batch:64}") int ackBatch,
+                            @Value("${chatflow.consumer.ack-interval-ms:10}") long ackIntervalMs,
+                            @Value("${chatflow.consumer.prefetch-mode:FIXED}") PrefetchMode prefetchMode,
+                            @Value("${chatflow.consumer.prefetch-min:16}") int prefetchMin,
+                            @Value("${chatflow.consumer.prefetch-max:2048}") int prefetchMax,
+                            @Value("${chatflow.consumer.prefetch-target-latency-ms:50}") long prefetchTargetLatencyMs,
+                            @Value("${chatflow.stages.trailer:false}") boolean stageTrailer,
+                            MeterRegistry registry) throws Exception {
         this.channelPool = channelPool;
-        this.roomSessionManager = roomSessionManager;
-        startConsumers();
+        this.roomDispatcher = roomDispatcher;
+        this.serverId = serverIdentity.getServerId();
+        this.stageMetrics = stageMetrics;
+        this.stageTrailer = stageTrailer;
+        this.skipOwnPublishes = skipOwnPublishes;
+        this.shardCount = shardCount;
+        this.ackMode = ackMode;
+        this.ackBatch = ackBatch;
+        this.prefetchMode = prefetchMode;
+        this.prefetchMin = prefetchMin;
+        this.prefetchMax = Math.max(prefetchMax, prefetch);
+        this.prefetchTargetLatencyMs = prefetchTargetLatencyMs;
+        this.shardChannels = new Channel[shardCount];
+        this.ackTrackers = new AckTracker[shardCount];
+        this.prefetchControllers = new AdaptivePrefetch[shardCount];
+        this.shardPrefetch = new AtomicIntegerArray(shardCount);
+        this.ackExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "consumer-acks");
+            t.setDaemon(true);
+            return t;
+        });
+        this.deliveryTimer = Timer.builder("chatflow.consumer.delivery")
+                .description("Broker delivery to the end of its broadcast on the room lane").register(registry);
+
+        this.bindingChannel = channelPool.borrowChannel();
+        startConsumers(prefetch);
+
+        for (int shard = 0; shard < shardCount; shard++) {
+            String queue = shardQueue(shard);
+            AckTracker tracker = ackTrackers[shard];
+            int index = shard;
+            FunctionCounter.builder("chatflow.consumer.acks", tracker, AckTracker::getAcksSent)
+                    .tag("queue", queue).register(registry);
+            Gauge.builder("chatflow.consumer.unacked", tracker, AckTracker::unacked)
+                    .tag("queue", queue).register(registry);
+            Gauge.builder("chatflow.consumer.prefetch", shardPrefetch, p -> p.get(index))
+                    .tag("queue", queue).register(registry);
+        }
+        if (ackMode == AckMode.CUMULATIVE) {
+            ackExecutor.scheduleWithFixedDelay(this::flushAcks, ackIntervalMs, ackIntervalMs, TimeUnit.MILLISECONDS);
+        }
+        if (prefetchMode == PrefetchMode.ADAPTIVE) {
+            ackExecutor.scheduleWithFixedDelay(this::tunePrefetch, 1, 1, TimeUnit.SECONDS);
+        }
     }
 
-    private void startConsumers() throws Exception {
-        String serverId = InetAddress.getLocalHost().getHostName();
-        int totalConsumers = ROOM_COUNT * CONSUMERS_PER_ROOM;
-        System.out.println("Starting " + totalConsumers + " consumers (" + CONSUMERS_PER_ROOM + " per room)");
-
-        for (int i = 1; i <= ROOM_COUNT; i++) {
-            final String roomId = "room" + i;
-            final String exchangeName = EXCHANGE_PREFIX + roomId;
-            final String queueName = "queue_" + serverId + "_" + roomId;
-
-            for (int j = 0; j < CONSUMERS_PER_ROOM; j++) {
-                final int consumerIndex = j;
-
-                consumerExecutor.submit(() -> {
-                    try {
-                        Channel channel = channelPool.borrowChannel();
-
-                        channel.exchangeDeclare(exchangeName, BuiltinExchangeType.FANOUT, true);
-                        channel.queueDeclare(queueName, true, false, false, null);
-                        channel.queueBind(queueName, exchangeName, "");
-                        channel.basicQos(50);
-
-                        if (consumerIndex == 0) {
-                            System.out.println(CONSUMERS_PER_ROOM + " consumers for " + roomId);
-                        }
-
-                        channel.basicConsume(queueName, false, new DefaultConsumer(channel) {
-                            @Override
-                            public void handleDelivery(String consumerTag, Envelope envelope,
-                                                       AMQP.BasicProperties properties, byte[] body) throws IOException {
-                                try {
-                                    String message = new String(body, StandardCharsets.UTF_8);
-
-                                    broadcast(roomId, message);
-
-                                    getChannel().basicAck(envelope.getDeliveryTag(), false);
-
-                                    int count = processed.incrementAndGet();
-                                    if (count % 100000 == 0) {
-                                        System.out.println("Processed: " + count);
-                                    }
-
-                                } catch (Exception e) {
-                                    System.err.println("Error: " + e.getMessage());
-                                    try {
-                                        getChannel().basicNack(envelope.getDeliveryTag(), false, false);
-                                    } catch (IOException ioException) {}
-                                }
-                            }
-                        });
-
-                    } catch (Exception e) {
-                        System.err.println("Failed consumer for " + roomId + ": " + e.getMessage());
-                        e.printStackTrace();
-                    }
-                });
+    private void startConsumers(int prefetch) throws Exception {
+        for (int shard = 0; shard < shardCount; shard++) {
+            Channel channel = channelPool.borrowChannel();
+            String queueName = shardQueue(shard);
+            channel.queueDeclare(queueName, true, false, false, null);
+            if (prefetchMode == PrefetchMode.ADAPTIVE) {
+                // Per-consumer limits only apply to consumers started after them, so adaptive
+                // mode sets the channel-wide limit, which can be changed while consuming
+                channel.basicQos(prefetch, true);
+                prefetchControllers[shard] = new AdaptivePrefetch(prefetch, prefetchMin, prefetchMax,
+                        TimeUnit.MILLISECONDS.toNanos(prefetchTargetLatencyMs));
+            } else {
+                channel.basicQos(prefetch);
             }
+            shardPrefetch.set(shard, prefetch);
+            ackTrackers[shard] = new AckTracker(new ChannelAckSink(channel), ackMode, ackBatch, prefetchMax * 2);
+            resetOnRecovery(channel, ackTrackers[shard]);
+            channel.basicConsume(queueName, false, new ShardConsumer(channel, ackTrackers[shard]));
+            shardChannels[shard] = channel;
+        }
+        System.out.println("Started " + shardCount + " shard consumers (ack " + ackMode + ", prefetch "
+                + prefetchMode + "), rooms bind on first local join");
+    }
+
+    /**
+     * Delivery tags restart when the channel recovers, and the broker requeues what was
+     * unacked. Resetting on shutdown stops lanes acking old tags on the recovered channel;
+     * resetting again on recovery covers a recovery whose shutdown was not seen here.
+     */
+    static void resetOnRecovery(Channel channel, AckTracker tracker) {
+        channel.addShutdownListener(cause -> tracker.reset());
+        if (channel instanceof Recoverable recoverable) {
+            recoverable.addRecoveryListener(new RecoveryListener() {
+                @Override
+                public void handleRecovery(Recoverable recovered) {
+                    tracker.reset();
+                }
+
+                @Override
+                public void handleRecoveryStarted(Recoverable recovering) {}
+            });
+        }
+    }
+
+    private void flushAcks() {
+        for (AckTracker tracker : ackTrackers) {
+            try {
+                tracker.flush();
+            } catch (Exception e) {
+                System.err.println("Failed to flush acks: " + e.getMessage());
+            }
+        }
+    }
+
+    private void tunePrefetch() {
+        for (int shard = 0; shard < shardCount; shard++) {
+            try {
+                long backlog = bindingChannel.messageCount(shardQueue(shard));
+                AckTracker tracker = ackTrackers[shard];
+                int next = prefetchControllers[shard].update(backlog, tracker.drainMeanUnackedNanos(), tracker.unacked());
+                if (next != shardPrefetch.get(shard)) {
+                    shardChannels[shard].basicQos(next, true);
+                    shardPrefetch.set(shard, next);
+                }
+            } catch (Exception e) {
+                System.err.println("Failed to tune prefetch for " + shardQueue(shard) + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public String shardQueue(int shard) {
+        return "queue_" + serverId + "_shard" + shard;
+    }
+
+    public int shardOf(String roomId) {
+        return Math.floorMod(roomId.hashCode(), shardCount);
+    }
+
+    /** Routes the room's messages to its shard queue. */
+    public void bind(String roomId) throws IOException {
+        bindingChannel.queueBind(shardQueue(shardOf(roomId)), RabbitMQInitializer.EXCHANGE_NAME, roomId);
+    }
+
+    public void unbind(String roomId) throws IOException {
+        bindingChannel.queueUnbind(shardQueue(shardOf(roomId)), RabbitMQInitializer.EXCHANGE_NAME, roomId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ackExecutor.shutdownNow();
+        flushAcks();
+    }
+
+    private static final class ChannelAckSink implements AckTracker.AckSink {
+
+        private final Channel channel;
+
+        ChannelAckSink(Channel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void ack(long deliveryTag, boolean multiple) throws IOException {
+            channel.basicAck(deliveryTag, multiple);
         }
 
-        System.out.println("All consumers started");
+        @Override
+        public void nack(long deliveryTag) throws IOException {
+            channel.basicNack(deliveryTag, false, false);
+        }
     }
 
-    private void broadcast(String roomId, String message) {
-        Set<WebSocketSession> sessions = roomSessionManager.getSessionsInRoom(roomId);
+    private final class ShardConsumer extends DefaultConsumer {
+
+        private final AckTracker ackTracker;
+
+        ShardConsumer(Channel channel, AckTracker ackTracker) {
+            super(channel);
+            this.ackTracker = ackTracker;
+        }
+
+        @Override
+        public void handleDelivery(String consumerTag, Envelope envelope,
+                                   AMQP.BasicProperties properties, byte[] body) throws IOException {
+            String roomId = envelope.getRoutingKey();
+            long deliveryTag = envelope.getDeliveryTag();
+            long received = System.nanoTime();
+            long deliverNanos = StageHeaders.now();
+            long ingressNanos = StageHeaders.read(properties, StageHeaders.INGRESS_HEADER);
+            long publishNanos = StageHeaders.read(properties, StageHeaders.PUBLISH_HEADER);
+            StageTimes stages = stageTrailer ? new StageTimes(ingressNanos, publishNanos, deliverNanos) : null;
+            long deliveryId = ackTracker.delivered(deliveryTag);
+            RoomDispatcher.Completion completion = delivered -> {
+                long completed = System.nanoTime();
+                deliveryTimer.record(completed - received, TimeUnit.NANOSECONDS);
+                stageMetrics.record(roomId, ingressNanos, publishNanos, deliverNanos, deliverNanos + (completed - received));
+                settle(deliveryId, delivered);
+            };
+
+            try {
+                if (skipOwnPublishes && isOwnPublish(properties)) {
+                    // Already delivered to local members when it was received
+                    settle(deliveryId, true);
+                    return;
+                }
+                if (BatchEnvelope.isBatch(properties)) {
+                    // Every record goes to the same lane, so acking with the last one is safe
+                    List<byte[]> messages = new ArrayList<>();
+                    BatchEnvelope.unpack(body, messages::add);
+                    for (int i = 0; i < messages.size(); i++) {
+                        roomDispatcher.dispatch(roomId, messages.get(i), i == messages.size() - 1 ? completion : null, stages);
+                    }
+                    if (messages.isEmpty()) {
+                        settle(deliveryId, true);
+                    }
+                } else {
+                    roomDispatcher.dispatch(roomId, body, completion, stages);
+                }
+            } catch (Exception e) {
+                System.err.println("Error: " + e.getMessage());
+                settle(deliveryId, false);
+            }
+        }
+
+        private boolean isOwnPublish(AMQP.BasicProperties properties) {
+            if (properties == null || properties.getHeaders() == null) return false;
+            Object origin = properties.getHeaders().get(RabbitMQSender.ORIGIN_HEADER);
+            return origin != null && serverId.equals(origin.toString());
+        }
+
+        private void settle(long deliveryId, boolean delivered) {
+            try {
+                ackTracker.complete(deliveryId, delivered);
+            } catch (IOException e) {
+                System.err.println("Failed to settle delivery: " + e.getMessage());
+                return;
+            }
 
-        for (WebSocketSession session : sessions) {
-            if (session.isOpen()) {
-                try {
-                    session.sendMessage(new TextMessage(message));
-                } catch (Exception e) {}
+            int count = processed.incrementAndGet();
+            if (count % 100000 == 0) {
+                System.out.println("Processed: " + count);
             }
         }
     }
@@ -2,25 +2,24 @@ package com.chatflow.server.rabbit;
 
 import com.rabbitmq.client.*;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
 @Component
+@ConditionalOnProperty(name = "chatflow.bus.type", havingValue = "rabbitmq", matchIfMissing = true)
 public class RabbitMQInitializer {
 
-    private static final String EXCHANGE_PREFIX = "chat.exchange.";
-    private static final int ROOM_COUNT = 20;
+    /** Single exchange for every room; the room id is the routing key. */
+    public static final String EXCHANGE_NAME = "chat.rooms";
 
     public RabbitMQInitializer(@Qualifier("producerPool") ChannelPool channelPool) {
         try {
             Channel channel = channelPool.borrowChannel();
 
-            for (int i = 1; i <= ROOM_COUNT; i++) {
-                String exchangeName = EXCHANGE_PREFIX + "room" + i;
-                channel.exchangeDeclare(exchangeName, BuiltinExchangeType.FANOUT, true);
-            }
+            channel.exchangeDeclare(EXCHANGE_NAME, BuiltinExchangeType.DIRECT, true);
 
             channelPool.returnChannel(channel);
-            System.out.println("RabbitMQ initialized: 20 exchanges created");
+            System.out.println("RabbitMQ initialized: exchange " + EXCHANGE_NAME);
 
         } catch (Exception e) {
             throw new RuntimeException("Failed to initialize RabbitMQ", e);
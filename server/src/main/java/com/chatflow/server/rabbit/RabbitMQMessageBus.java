@@ -0,0 +1,39 @@
+package com.chatflow.server.rabbit;
+
+import com.chatflow.server.bus.MessageBus;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * The broker-backed bus: publishes go through {@link RabbitMQSender}, and subscribing binds
+ * the room to one of {@link RabbitMQConsumer}'s shard queues.
+ */
+@Component
+@ConditionalOnProperty(name = "chatflow.bus.type", havingValue = "rabbitmq", matchIfMissing = true)
+public class RabbitMQMessageBus implements MessageBus {
+
+    private final RabbitMQSender sender;
+    private final RabbitMQConsumer consumer;
+
+    public RabbitMQMessageBus(RabbitMQSender sender, RabbitMQConsumer consumer) {
+        this.sender = sender;
+        this.consumer = consumer;
+    }
+
+    @Override
+    public void publish(String roomId, byte[] body, long ingressNanos) {
+        sender.sendMessage(roomId, body, ingressNanos);
+    }
+
+    @Override
+    public void subscribe(String roomId) throws IOException {
+        consumer.bind(roomId);
+    }
+
+    @Override
+    public void unsubscribe(String roomId) throws IOException {
+        consumer.unbind(roomId);
+    }
+}
\ No newline at end of file
@@ -1,41 +1,277 @@
 package com.chatflow.server.rabbit;
 
+import com.chatflow.server.config.ServerIdentity;
+import com.chatflow.server.jfr.PublishEvent;
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 @Component
+@ConditionalOnProperty(name = "chatflow.bus.type", havingValue = "rabbitmq", matchIfMissing = true)
 @DependsOn("rabbitMQInitializer")
 public class RabbitMQSender {
 
-    private static final String EXCHANGE_PREFIX = "chat.exchange.";
+    /** Id of the server that received the message, set when local short-circuit delivery is on. */
+    public static final String ORIGIN_HEADER = "x-chatflow-origin";
+
+    private static final long REPLAY_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private enum Outcome { PUBLISHED, THROTTLED, FAILED }
+
     private final ChannelPool channelPool;
     private final AtomicInteger sentCount = new AtomicInteger(0);
+    private final BatchingPublisher batchingPublisher;
+    private final PublishFlowControl flowControl;
+    private final boolean mandatory;
+    private final long maxWaitMs;
+    private final CircuitBreaker circuitBreaker;
+    private final SpillJournal spillJournal;
+    private final long replayIntervalNanos;
+    private final Thread replayThread;
+    private final String origin;
+    private final AMQP.BasicProperties originProperties;
+    private final String serverId;
+    private final boolean stageHeaders;
+    private final Timer publishTimer;
+    private final Timer publishFailedTimer;
+    private final Timer publishThrottledTimer;
 
-    public RabbitMQSender(@Qualifier("producerPool") ChannelPool channelPool) {
+    public RabbitMQSender(@Qualifier("producerPool") ChannelPool channelPool,
+                          PublishFlowControl flowControl,
+                          CircuitBreaker circuitBreaker,
+                          SpillJournal spillJournal,
+                          ServerIdentity serverIdentity,
+                          @Value("${chatflow.delivery.local-short-circuit:false}") boolean tagOrigin,
+                          @Value("${chatflow.spill.enabled:true}") boolean spillEnabled,
+                          @Value("${chatflow.spill.replay-rate:5000}") int replayRate,
+                          @Value("${chatflow.publish.mandatory:false}") boolean mandatory,
+                          @Value("${chatflow.publish.max-wait-ms:5000}") long maxWaitMs,
+                          @Value("${chatflow.publish.batch.enabled:false}") boolean batchEnabled,
+                          @Value("${chatflow.publish.batch.linger-ms:2}") long lingerMs,
+                          @Value("${chatflow.publish.batch.max-messages:64}") int maxMessages,
+                          @Value("${chatflow.publish.batch.flush-threads:4}") int flushThreads,
+                          @Value("${chatflow.stages.headers:true}") boolean stageHeaders,
+                          MeterRegistry registry) {
         this.channelPool = channelPool;
+        this.flowControl = flowControl;
+        this.mandatory = mandatory;
+        this.origin = tagOrigin ? serverIdentity.getServerId() : null;
+        this.originProperties = tagOrigin
+                ? new AMQP.BasicProperties.Builder().headers(Map.of(ORIGIN_HEADER, origin)).build()
+                : null;
+        this.maxWaitMs = maxWaitMs;
+        this.serverId = serverIdentity.getServerId();
+        this.stageHeaders = stageHeaders;
+        this.publishTimer = Timer.builder("chatflow.publish").tag("result", "ok")
+                .description("Channel borrow, flow control and basicPublish for one broker message").register(registry);
+        this.publishFailedTimer = Timer.builder("chatflow.publish").tag("result", "failed").register(registry);
+        this.publishThrottledTimer = Timer.builder("chatflow.publish").tag("result", "throttled").register(registry);
+        this.circuitBreaker = circuitBreaker;
+        this.spillJournal = spillEnabled ? spillJournal : null;
+        this.replayIntervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, replayRate);
+        this.batchingPublisher = batchEnabled ? new BatchingPublisher(this::route, lingerMs, maxMessages, flushThreads) : null;
+
+        if (this.spillJournal != null) {
+            this.replayThread = new Thread(this::replayLoop, "spill-replay");
+            this.replayThread.setDaemon(true);
+            this.replayThread.start();
+        } else {
+            this.replayThread = null;
+        }
     }
 
     public void sendMessage(String roomId, String message) {
+        sendMessage(roomId, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void sendMessage(String roomId, byte[] body) {
+        sendMessage(roomId, body, StageHeaders.now());
+    }
+
+    /** {@code ingressNanos} is when this server received the message, in {@link StageHeaders#now()} time. */
+    public void sendMessage(String roomId, byte[] body, long ingressNanos) {
+        if (batchingPublisher != null) {
+            batchingPublisher.add(roomId, body, ingressNanos);
+        } else {
+            route(roomId, body, 0, ingressNanos);
+        }
+    }
+
+    /**
+     * Publishes through the circuit breaker. While the breaker is open, or while older
+     * messages are still waiting in the spill journal, the message is journaled instead so
+     * replay keeps the original order. Without a journal an open breaker drops the message.
+     * Journaled messages lose their ingress time. A publish that timed out on flow control
+     * is dropped, as max-wait-ms promises, and does not count against the breaker: the
+     * broker is pushing back, not failing.
+     */
+    private void route(String roomId, byte[] body, int batchCount, long ingressNanos) {
+        if ((spillJournal == null || spillJournal.isEmpty()) && circuitBreaker.allowRequest()) {
+            Outcome outcome = publish(roomId, body, batchCount, ingressNanos);
+            if (outcome == Outcome.PUBLISHED) {
+                circuitBreaker.recordSuccess();
+                return;
+            }
+            if (outcome == Outcome.THROTTLED) {
+                circuitBreaker.recordIgnored();
+                return;
+            }
+            circuitBreaker.recordFailure();
+        }
+        if (spillJournal != null) {
+            spillJournal.append(roomId, body, batchCount);
+        }
+    }
+
+    /**
+     * Drains the spill journal in order, at most replay-rate messages per second. The
+     * replayed publishes double as the breaker's half-open probes.
+     */
+    private void replayLoop() {
+        SpillJournal.RecordHandler handler = (roomId, body, batchCount) -> {
+            if (!circuitBreaker.allowRequest()) return false;
+            Outcome outcome = publish(roomId, body, batchCount, 0);
+            if (outcome == Outcome.PUBLISHED) {
+                circuitBreaker.recordSuccess();
+                return true;
+            }
+            // Throttled records stay at the head of the journal and are retried
+            if (outcome == Outcome.THROTTLED) {
+                circuitBreaker.recordIgnored();
+            } else {
+                circuitBreaker.recordFailure();
+            }
+            return false;
+        };
+
+        long next = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            if (spillJournal.isEmpty() || !spillJournal.replayNext(handler)) {
+                LockSupport.parkNanos(REPLAY_IDLE_NANOS);
+                next = System.nanoTime();
+                continue;
+            }
+            next += replayIntervalNanos;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    /**
+     * Publishes one broker message. A positive {@code batchCount} marks the body as an
+     * {@link BatchEnvelope} holding that many chat messages. Blocks while the broker has
+     * the connection blocked or the channel's confirm window is full, up to max-wait-ms,
+     * and returns THROTTLED if that ran out; FAILED if the message was not handed to the
+     * broker for any other reason.
+     */
+    private Outcome publish(String roomId, byte[] body, int batchCount, long ingressNanos) {
+        PublishEvent event = PublishEvent.enabled() ? new PublishEvent() : null;
+        if (event != null) event.begin();
+        long start = System.nanoTime();
+        Outcome outcome = publishOnce(roomId, body, batchCount, ingressNanos);
+        Timer timer = outcome == Outcome.PUBLISHED ? publishTimer
+                : outcome == Outcome.THROTTLED ? publishThrottledTimer : publishFailedTimer;
+        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (event == null) return outcome;
+        event.end();
+        if (event.shouldCommit()) {
+            event.roomId = roomId;
+            event.payloadBytes = body.length;
+            event.batchCount = batchCount;
+            event.published = outcome == Outcome.PUBLISHED;
+            event.commit();
+        }
+        return outcome;
+    }
+
+    private Outcome publishOnce(String roomId, byte[] body, int batchCount, long ingressNanos) {
         Channel channel = null;
+        ConfirmWindow window = null;
+        long seqNo = 0;
         try {
             channel = channelPool.borrowChannel();
-            String exchangeName = EXCHANGE_PREFIX + roomId;
-            channel.basicPublish(exchangeName, "", null, message.getBytes());
+            if (!flowControl.awaitUnblocked(channel, maxWaitMs)) {
+                flowControl.recordTimeout();
+                return Outcome.THROTTLED;
+            }
+            if (flowControl.isConfirmsEnabled()) {
+                window = flowControl.window(channel);
+                if (window == null) {
+                    // Shut down since it was borrowed; never publish unconfirmed with confirms on
+                    flowControl.recordUnarmed();
+                    return Outcome.FAILED;
+                }
+                if (!window.acquire(maxWaitMs)) {
+                    flowControl.recordTimeout();
+                    return Outcome.THROTTLED;
+                }
+                seqNo = channel.getNextPublishSeqNo();
+                window.sent(seqNo);
+            }
+
+            channel.basicPublish(RabbitMQInitializer.EXCHANGE_NAME, roomId, mandatory, properties(batchCount, ingressNanos), body);
+            window = null;
 
             int count = sentCount.incrementAndGet();
             if (count % 100000 == 0) {
                 System.out.println("Published: " + count);
             }
+            return Outcome.PUBLISHED;
         } catch (Exception e) {
             System.err.println("Failed to publish: " + e.getMessage());
+            return Outcome.FAILED;
         } finally {
+            if (window != null && seqNo > 0) {
+                window.abandon(seqNo);
+            }
             if (channel != null) {
                 channelPool.returnChannel(channel);
             }
         }
     }
+
+    private AMQP.BasicProperties properties(int batchCount, long ingressNanos) {
+        if (stageHeaders) {
+            Map<String, Object> headers = new HashMap<>(8);
+            if (batchCount > 0) headers.put(BatchEnvelope.BATCH_HEADER, batchCount);
+            if (origin != null) headers.put(ORIGIN_HEADER, origin);
+            if (ingressNanos > 0) headers.put(StageHeaders.INGRESS_HEADER, ingressNanos);
+            headers.put(StageHeaders.INGRESS_SERVER_HEADER, serverId);
+            headers.put(StageHeaders.PUBLISH_HEADER, StageHeaders.now());
+            return new AMQP.BasicProperties.Builder().headers(headers).build();
+        }
+        if (batchCount == 0) {
+            return originProperties;
+        }
+        Map<String, Object> headers = origin != null
+                ? Map.of(BatchEnvelope.BATCH_HEADER, batchCount, ORIGIN_HEADER, origin)
+                : Map.of(BatchEnvelope.BATCH_HEADER, batchCount);
+        return new AMQP.BasicProperties.Builder().headers(headers).build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (batchingPublisher != null) {
+            batchingPublisher.shutdown();
+        }
+        if (replayThread != null) {
+            replayThread.interrupt();
+        }
+    }
 }
\ No newline at end of file
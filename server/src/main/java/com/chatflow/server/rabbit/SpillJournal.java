@@ -0,0 +1,305 @@
+package com.chatflow.server.rabbit;
+
+import com.chatflow.server.config.ServerIdentity;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Append-only, memory-mapped journal of publishes the broker could not take, one directory
+ * per server. Writers reserve space in the tail segment with getAndAdd, copy the record and
+ * then store its length with release semantics; a zero length means "not committed yet", so
+ * the single replaying thread reads records in reservation order without taking a lock.
+ *
+ * <p>Segment layout: an 8-byte replay offset, then records aligned to 8 bytes:
+ * {@code int length | u16 roomLen | room | int batchCount | body}. The replay offset is
+ * persisted as records are replayed, so a restarted server resumes where it stopped. Data
+ * reaches the page cache on every append; it survives a process crash, not a host crash.
+ * Fully replayed segments are unmapped as they are deleted, so a long outage does not keep
+ * their address space and disk blocks until the next GC.
+ */
+@Component
+@ConditionalOnProperty(name = "chatflow.bus.type", havingValue = "rabbitmq", matchIfMissing = true)
+public class SpillJournal {
+
+    private static final int SEGMENT_HEADER = 8;
+    private static final int RECORD_ALIGN = 8;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+
+    /** Receives a replayed record; returns false to leave it at the head of the journal. */
+    public interface RecordHandler {
+        boolean handle(String roomId, byte[] body, int batchCount);
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final ConcurrentLinkedDeque<Segment> segments = new ConcurrentLinkedDeque<>();
+    private final AtomicReference<Segment> tail = new AtomicReference<>();
+    private final AtomicLong pending = new AtomicLong(0);
+    private final AtomicLong nextSegmentId = new AtomicLong(0);
+    private final Object rollLock = new Object();
+
+    private final Counter appended;
+    private final Counter replayed;
+    private final Counter rejected;
+
+    public SpillJournal(ServerIdentity serverIdentity,
+                        @Value("${chatflow.spill.dir:spill}") String baseDir,
+                        @Value("${chatflow.spill.segment-bytes:67108864}") int segmentBytes,
+                        MeterRegistry registry) throws IOException {
+        this.dir = Path.of(baseDir, serverIdentity.getServerId());
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        recover();
+
+        this.appended = Counter.builder("chatflow.spill.appended").register(registry);
+        this.replayed = Counter.builder("chatflow.spill.replayed").register(registry);
+        this.rejected = Counter.builder("chatflow.spill.rejected")
+                .description("Messages dropped because they could not be journaled").register(registry);
+        Gauge.builder("chatflow.spill.pending", pending, AtomicLong::get).register(registry);
+        Gauge.builder("chatflow.spill.segments", segments, ConcurrentLinkedDeque::size).register(registry);
+    }
+
+    /** True when every journaled record has been replayed. */
+    public boolean isEmpty() {
+        return pending.get() == 0;
+    }
+
+    public long getPending() {
+        return pending.get();
+    }
+
+    public boolean append(String roomId, byte[] body, int batchCount) {
+        byte[] room = roomId.getBytes(StandardCharsets.UTF_8);
+        int length = 2 + room.length + 4 + body.length;
+        int size = align(4 + length);
+        if (size > segmentBytes - SEGMENT_HEADER) {
+            rejected.increment();
+            return false;
+        }
+
+        // Counted before the record is visible so senders stop bypassing the journal right away
+        pending.incrementAndGet();
+        try {
+            while (true) {
+                Segment segment = tail.get();
+                if (segment != null && segment.tryAppend(room, body, batchCount, length, size)) {
+                    appended.increment();
+                    return true;
+                }
+                roll(segment);
+            }
+        } catch (IOException e) {
+            pending.decrementAndGet();
+            rejected.increment();
+            System.err.println("Spill journal append failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Hands the oldest committed record to the handler and removes it if the handler
+     * accepts it. Returns true only when a record was replayed. Single caller only.
+     */
+    public boolean replayNext(RecordHandler handler) {
+        while (true) {
+            Segment head = segments.peekFirst();
+            if (head == null) return false;
+
+            int offset = head.readOffset;
+            int length = offset + 4 <= segmentBytes ? (int) INT.getAcquire(head.buffer, offset) : 0;
+            if (length > 0) {
+                ByteBuffer view = head.buffer.duplicate();
+                view.position(offset + 4);
+                byte[] room = new byte[view.getShort() & 0xFFFF];
+                view.get(room);
+                int batchCount = view.getInt();
+                byte[] body = new byte[length - 2 - room.length - 4];
+                view.get(body);
+
+                if (!handler.handle(new String(room, StandardCharsets.UTF_8), body, batchCount)) {
+                    return false;
+                }
+                head.readOffset = offset + align(4 + length);
+                head.buffer.putLong(0, head.readOffset);
+                pending.decrementAndGet();
+                replayed.increment();
+                return true;
+            }
+
+            // Nothing committed at the read offset: either a writer is still copying, or the
+            // segment was sealed and fully read. Re-read after checking writers to close the race.
+            if (!head.sealed || head.writers.get() != 0) return false;
+            if (offset + 4 <= segmentBytes && (int) INT.getAcquire(head.buffer, offset) != 0) continue;
+            segments.pollFirst();
+            head.delete();
+        }
+    }
+
+    private void roll(Segment full) throws IOException {
+        synchronized (rollLock) {
+            if (tail.get() != full) return;
+            Segment next = Segment.create(dir.resolve(segmentName(nextSegmentId.getAndIncrement())), segmentBytes);
+            segments.addLast(next);
+            tail.set(next);
+            if (full != null) full.sealed = true;
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+        for (Path file : files) {
+            Segment segment = Segment.open(file, segmentBytes);
+            long records = segment.countRecords();
+            if (records == 0) {
+                segment.delete();
+                continue;
+            }
+            segments.addLast(segment);
+            pending.addAndGet(records);
+            String name = file.getFileName().toString();
+            long id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            nextSegmentId.set(Math.max(nextSegmentId.get(), id + 1));
+        }
+        if (pending.get() > 0) {
+            System.out.println("Spill journal recovered " + pending.get() + " unreplayed messages from " + segments.size() + " segments");
+        }
+    }
+
+    /** Unsafe.invokeCleaner, the only way to unmap a buffer on Java 17; null if unavailable. */
+    private static MethodHandle invokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("Cannot unmap spill segments, they are released by GC: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String segmentName(long id) {
+        return String.format("%016d%s", id, SEGMENT_SUFFIX);
+    }
+
+    private static int align(int size) {
+        return (size + RECORD_ALIGN - 1) & -RECORD_ALIGN;
+    }
+
+    private static final class Segment {
+        final Path file;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        final AtomicInteger position;
+        final AtomicInteger writers = new AtomicInteger(0);
+        volatile boolean sealed;
+        int readOffset;
+
+        private Segment(Path file, MappedByteBuffer buffer, int capacity, int position, boolean sealed) {
+            this.file = file;
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.position = new AtomicInteger(position);
+            this.sealed = sealed;
+            this.readOffset = (int) Math.max(SEGMENT_HEADER, buffer.getLong(0));
+        }
+
+        static Segment create(Path file, int capacity) throws IOException {
+            return new Segment(file, map(file, capacity), capacity, SEGMENT_HEADER, false);
+        }
+
+        static Segment open(Path file, int capacity) throws IOException {
+            return new Segment(file, map(file, capacity), capacity, capacity, true);
+        }
+
+        private static MappedByteBuffer map(Path file, int capacity) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw");
+                 FileChannel channel = raf.getChannel()) {
+                if (raf.length() < capacity) raf.setLength(capacity);
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+        }
+
+        boolean tryAppend(byte[] room, byte[] body, int batchCount, int length, int size) {
+            writers.incrementAndGet();
+            try {
+                int offset = position.getAndAdd(size);
+                if (offset + size > capacity) {
+                    sealed = true;
+                    return false;
+                }
+                ByteBuffer view = buffer.duplicate();
+                view.position(offset + 4);
+                view.putShort((short) room.length);
+                view.put(room);
+                view.putInt(batchCount);
+                view.put(body);
+                INT.setRelease(buffer, offset, length);
+                return true;
+            } finally {
+                writers.decrementAndGet();
+            }
+        }
+
+        /** Committed records after the persisted replay offset, for recovery. */
+        long countRecords() {
+            long records = 0;
+            int offset = readOffset;
+            while (offset + 4 <= capacity) {
+                int length = buffer.getInt(offset);
+                if (length <= 0) break;
+                records++;
+                offset += align(4 + length);
+            }
+            return records;
+        }
+
+        /** Replay thread only, once no writer can touch the buffer again. */
+        void delete() {
+            if (INVOKE_CLEANER != null) {
+                try {
+                    INVOKE_CLEANER.invokeExact((ByteBuffer) buffer);
+                } catch (Throwable e) {
+                    System.err.println("Could not unmap spill segment " + file + ": " + e.getMessage());
+                }
+            }
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.err.println("Could not delete spill segment " + file + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.chatflow.server.rabbit;
+
+import com.rabbitmq.client.AMQP;
+
+import java.util.Map;
+
+/**
+ * AMQP headers that time a chat message through the cluster: when the ingress server
+ * received it, which server that was, and when it was handed to the broker. Times are
+ * nanoseconds since the epoch from {@link #now()}, which is System.nanoTime anchored to the
+ * wall clock once per process. They are monotonic within a server and comparable across
+ * servers up to clock skew.
+ */
+public final class StageHeaders {
+
+    public static final String INGRESS_HEADER = "x-chatflow-ingress-ns";
+    public static final String INGRESS_SERVER_HEADER = "x-chatflow-ingress-server";
+    public static final String PUBLISH_HEADER = "x-chatflow-publish-ns";
+
+    private static final long EPOCH_OFFSET = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+
+    private StageHeaders() {}
+
+    public static long now() {
+        return System.nanoTime() + EPOCH_OFFSET;
+    }
+
+    /** The header's time, or 0 when it is absent. */
+    public static long read(AMQP.BasicProperties properties, String header) {
+        if (properties == null) return 0;
+        Map<String, Object> headers = properties.getHeaders();
+        Object value = headers != null ? headers.get(header) : null;
+        return value instanceof Number number ? number.longValue() : 0;
+    }
+}
\ No newline at end of file
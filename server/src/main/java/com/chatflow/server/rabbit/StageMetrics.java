@@ -0,0 +1,79 @@
+package com.chatflow.server.rabbit;
+
+import com.chatflow.server.handler.RoomInterestListener;
+import com.chatflow.server.handler.RoomSessionManager;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-room timers for the stages in {@link StageHeaders}, recorded when a delivery's
+ * broadcast completes: {@code chatflow.stage.queued} from ingress to publish (linger, flow
+ * control, breaker), {@code chatflow.stage.transit} from publish to delivery here, and
+ * {@code chatflow.stage.fanout} from delivery to the end of the broadcast. Like the room
+ * session gauges, a room's timers exist only while it has local members.
+ *
+ * <p>Transit compares two servers' clocks when the message came in elsewhere, so it is only
+ * as accurate as their clock sync; negative spans are not recorded.
+ */
+@Component
+public class StageMetrics implements RoomInterestListener {
+
+    private final RoomSessionManager roomSessionManager;
+    private final MeterRegistry registry;
+    private final Map<String, RoomTimers> rooms = new ConcurrentHashMap<>();
+
+    public StageMetrics(RoomSessionManager roomSessionManager, MeterRegistry registry) {
+        this.roomSessionManager = roomSessionManager;
+        this.registry = registry;
+        roomSessionManager.addRoomInterestListener(this);
+        for (String roomId : roomSessionManager.getActiveRooms()) {
+            roomActivated(roomId);
+        }
+    }
+
+    /** All times in {@link StageHeaders#now()} nanoseconds; unknown ones are 0. */
+    public void record(String roomId, long ingressNanos, long publishNanos, long deliverNanos, long completeNanos) {
+        RoomTimers timers = rooms.get(roomId);
+        if (timers == null) return;
+        if (ingressNanos > 0 && publishNanos >= ingressNanos) {
+            timers.queued.record(publishNanos - ingressNanos, TimeUnit.NANOSECONDS);
+        }
+        if (publishNanos > 0 && deliverNanos >= publishNanos) {
+            timers.transit.record(deliverNanos - publishNanos, TimeUnit.NANOSECONDS);
+        }
+        timers.fanout.record(completeNanos - deliverNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void roomActivated(String roomId) {
+        rooms.computeIfAbsent(roomId, RoomTimers::new);
+    }
+
+    @Override
+    public void roomDeactivated(String roomId) {
+        rooms.computeIfPresent(roomId, (id, timers) -> {
+            if (roomSessionManager.hasLocalMembers(id)) return timers;
+            registry.remove(timers.queued);
+            registry.remove(timers.transit);
+            registry.remove(timers.fanout);
+            return null;
+        });
+    }
+
+    private final class RoomTimers {
+        final Timer queued;
+        final Timer transit;
+        final Timer fanout;
+
+        RoomTimers(String roomId) {
+            this.queued = Timer.builder("chatflow.stage.queued").tag("room", roomId).register(registry);
+            this.transit = Timer.builder("chatflow.stage.transit").tag("room", roomId).register(registry);
+            this.fanout = Timer.builder("chatflow.stage.fanout").tag("room", roomId).register(registry);
+        }
+    }
+}
\ No newline at end of file
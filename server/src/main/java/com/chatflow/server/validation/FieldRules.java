@@ -0,0 +1,51 @@
+package com.chatflow.server.validation;
+
+/**
+ * Regex-free equivalents of the constraint patterns used on the message models.
+ * Lengths are counted in UTF-16 units, like {@code @Size} and {@code String.length()}.
+ */
+public final class FieldRules {
+
+    private FieldRules() {}
+
+    /** {@code ^[a-zA-Z0-9]{min,max}$} */
+    public static boolean isAlphanumeric(CharSequence value, int min, int max) {
+        int length = value.length();
+        if (length < min || length > max) return false;
+        for (int i = 0; i < length; i++) {
+            if (!isAsciiAlphanumeric(value.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /** {@code ^[a-zA-Z0-9]{min,max}$} over a parser's character buffer. */
+    public static boolean isAlphanumeric(char[] chars, int offset, int length, int min, int max) {
+        if (length < min || length > max) return false;
+        for (int i = offset; i < offset + length; i++) {
+            if (!isAsciiAlphanumeric(chars[i])) return false;
+        }
+        return true;
+    }
+
+    /** {@code ^[1-9][0-9]*$} */
+    public static boolean isPositiveInteger(CharSequence value) {
+        int length = value.length();
+        if (length == 0) return false;
+        char first = value.charAt(0);
+        if (first < '1' || first > '9') return false;
+        for (int i = 1; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    public static boolean hasLength(CharSequence value, int min, int max) {
+        int length = value.length();
+        return length >= min && length <= max;
+    }
+
+    private static boolean isAsciiAlphanumeric(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+}
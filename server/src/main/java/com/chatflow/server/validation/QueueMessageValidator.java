@@ -0,0 +1,84 @@
+package com.chatflow.server.validation;
+
+import com.chatflow.server.model.QueueMessage;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Size;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hand-specialized form of the constraints declared on {@link QueueMessage}.
+ * {@link #validate} returns a bit mask of failed {@link Rule}s, 0 when valid,
+ * and does not allocate.
+ */
+public final class QueueMessageValidator {
+
+    public enum Rule {
+        USER_ID_NOT_NULL("userID", NotNull.class, Templates.NOT_NULL),
+        USER_ID_SIZE("userID", Size.class, Templates.SIZE),
+        USER_ID_PATTERN("userID", Pattern.class, "UserId must contain only digits and not start with 0"),
+        USERNAME_NOT_NULL("username", NotNull.class, Templates.NOT_NULL),
+        USERNAME_PATTERN("username", Pattern.class, "Username must be 3-20 alphanumeric characters"),
+        MESSAGE_NOT_NULL("message", NotNull.class, Templates.NOT_NULL),
+        MESSAGE_SIZE("message", Size.class, Templates.SIZE),
+        TIMESTAMP_NOT_NULL("timestamp", NotNull.class, Templates.NOT_NULL),
+        MESSAGE_TYPE_NOT_NULL("messageType", NotNull.class, Templates.NOT_NULL),
+        ROOM_ID_NOT_NULL("roomID", NotNull.class, Templates.NOT_NULL);
+
+        private final String property;
+        private final Class<? extends Annotation> constraint;
+        private final String messageTemplate;
+
+        Rule(String property, Class<? extends Annotation> constraint, String messageTemplate) {
+            this.property = property;
+            this.constraint = constraint;
+            this.messageTemplate = messageTemplate;
+        }
+
+        public String getProperty() { return property; }
+        public Class<? extends Annotation> getConstraint() { return constraint; }
+        public String getMessageTemplate() { return messageTemplate; }
+
+        int bit() { return 1 << ordinal(); }
+    }
+
+    private static final Rule[] RULES = Rule.values();
+
+    private QueueMessageValidator() {}
+
+    public static int validate(QueueMessage m) {
+        int failed = 0;
+
+        String userId = m.getUserID();
+        if (userId == null) {
+            failed |= Rule.USER_ID_NOT_NULL.bit();
+        } else {
+            if (!FieldRules.hasLength(userId, 1, 6)) failed |= Rule.USER_ID_SIZE.bit();
+            if (!FieldRules.isPositiveInteger(userId)) failed |= Rule.USER_ID_PATTERN.bit();
+        }
+
+        String username = m.getUsername();
+        if (username == null) failed |= Rule.USERNAME_NOT_NULL.bit();
+        else if (!FieldRules.isAlphanumeric(username, 3, 20)) failed |= Rule.USERNAME_PATTERN.bit();
+
+        String message = m.getMessage();
+        if (message == null) failed |= Rule.MESSAGE_NOT_NULL.bit();
+        else if (!FieldRules.hasLength(message, 1, 500)) failed |= Rule.MESSAGE_SIZE.bit();
+
+        if (m.getTimestamp() == null) failed |= Rule.TIMESTAMP_NOT_NULL.bit();
+        if (m.getMessageType() == null) failed |= Rule.MESSAGE_TYPE_NOT_NULL.bit();
+        if (m.getRoomID() == null) failed |= Rule.ROOM_ID_NOT_NULL.bit();
+        return failed;
+    }
+
+    public static List<Rule> violations(int failed) {
+        List<Rule> rules = new ArrayList<>();
+        for (Rule rule : RULES) {
+            if ((failed & rule.bit()) != 0) rules.add(rule);
+        }
+        return rules;
+    }
+}
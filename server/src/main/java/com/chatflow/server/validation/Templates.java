@@ -0,0 +1,14 @@
+package com.chatflow.server.validation;
+
+/**
+ * Default Bean Validation message templates, as reported by
+ * {@code ConstraintViolation.getMessageTemplate()}.
+ */
+final class Templates {
+
+    static final String NOT_NULL = "{jakarta.validation.constraints.NotNull.message}";
+    static final String SIZE = "{jakarta.validation.constraints.Size.message}";
+    static final String PATTERN = "{jakarta.validation.constraints.Pattern.message}";
+
+    private Templates() {}
+}
@@ -0,0 +1,119 @@
+package com.chatflow.server.bus;
+
+import com.chatflow.server.handler.RoomDispatcher;
+import com.chatflow.server.rabbit.StageMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Races producers through a ring and a bus and checks that every frame arrives exactly
+ * once, in each producer's order, and only for subscribed rooms.
+ */
+class InProcessMessageBusTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int PER_PRODUCER = 100_000;
+
+    @Test
+    void ringKeepsEachProducersOrderAndRefusesWhenFull() throws Exception {
+        RingBuffer<long[]> ring = new RingBuffer<>(1000);
+        assertEquals(1024, ring.capacity());
+
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            producers[p] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long i = 0; i < PER_PRODUCER; i++) {
+                    long[] element = {producer, i};
+                    while (!ring.offer(element)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        start.countDown();
+
+        long[] next = new long[PRODUCERS];
+        int received = 0;
+        while (received < PRODUCERS * PER_PRODUCER) {
+            long[] element = ring.poll();
+            if (element == null) continue;
+            assertEquals(next[(int) element[0]]++, element[1], "order of producer " + element[0]);
+            received++;
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertNull(ring.poll());
+
+        for (int i = 0; i < ring.capacity(); i++) {
+            assertTrue(ring.offer(new long[0]));
+        }
+        assertFalse(ring.offer(new long[0]));
+        assertEquals(ring.capacity(), ring.size());
+    }
+
+    @Test
+    void deliversSubscribedRoomsOnly() throws Exception {
+        int total = PRODUCERS * PER_PRODUCER / 10;
+        CountDownLatch delivered = new CountDownLatch(total);
+        Map<String, AtomicInteger> perRoom = new ConcurrentHashMap<>();
+        RoomDispatcher dispatcher = mock(RoomDispatcher.class);
+        doAnswer(inv -> {
+            perRoom.computeIfAbsent(inv.getArgument(0), r -> new AtomicInteger()).incrementAndGet();
+            ((RoomDispatcher.Completion) inv.getArgument(2)).complete(true);
+            delivered.countDown();
+            return null;
+        }).when(dispatcher).dispatch(anyString(), any(byte[].class), any(RoomDispatcher.Completion.class), isNull());
+
+        InProcessMessageBus bus = new InProcessMessageBus(dispatcher, mock(StageMetrics.class), false, 2, 256,
+                false, new SimpleMeterRegistry());
+        try {
+            bus.subscribe("room0");
+            bus.subscribe("room1");
+            Thread[] producers = new Thread[PRODUCERS];
+            for (int p = 0; p < PRODUCERS; p++) {
+                producers[p] = new Thread(() -> {
+                    for (int i = 0; i < PER_PRODUCER / 10; i++) {
+                        byte[] body = ByteBuffer.allocate(4).putInt(i).array();
+                        bus.publish("room" + (i % 2), body);
+                        bus.publish("nobody-here", body);
+                    }
+                });
+                producers[p].start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            assertTrue(delivered.await(30, java.util.concurrent.TimeUnit.SECONDS));
+            assertEquals(total / 2, perRoom.get("room0").get());
+            assertEquals(total / 2, perRoom.get("room1").get());
+            assertNull(perRoom.get("nobody-here"));
+        } finally {
+            bus.shutdown();
+        }
+    }
+}
\ No newline at end of file
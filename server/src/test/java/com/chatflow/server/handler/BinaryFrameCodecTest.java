@@ -0,0 +1,92 @@
+package com.chatflow.server.handler;
+
+import com.chatflow.server.model.ChatMessage;
+import com.chatflow.server.model.MessageType;
+import com.chatflow.server.model.UserInfo;
+import com.chatflow.server.model.WireProtocol;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Round-trips frames through the codec and checks which room ids it can carry, and that
+ * binary members of a room are counted rather than silently skipped when a delivery has
+ * no binary form.
+ */
+class BinaryFrameCodecTest {
+
+    @Test
+    void roundTripsAFrame() {
+        ChatMessage message = message("42", "room7");
+        ChatMessage decoded = BinaryFrameCodec.decode(ByteBuffer.wrap(BinaryFrameCodec.encode(message)));
+
+        assertEquals(MessageType.TEXT, decoded.getMessageType());
+        assertEquals("42", decoded.getUserId());
+        assertEquals("room7", decoded.getRoomId());
+        assertEquals(message.getMessageId(), decoded.getMessageId());
+        assertEquals(message.getTimestamp(), decoded.getTimestamp());
+        assertEquals("hello", decoded.getMessage());
+    }
+
+    @Test
+    void encodesOnlyRoomIdsThatSurviveTheRoundTrip() {
+        assertTrue(BinaryFrameCodec.canEncodeRoom("room0"));
+        assertTrue(BinaryFrameCodec.canEncodeRoom("room2147483647"));
+        assertFalse(BinaryFrameCodec.canEncodeRoom("lobby"));
+        assertFalse(BinaryFrameCodec.canEncodeRoom("7"));
+        assertFalse(BinaryFrameCodec.canEncodeRoom("room07"));
+        assertFalse(BinaryFrameCodec.canEncodeRoom("room-1"));
+        assertFalse(BinaryFrameCodec.canEncodeRoom("room2147483648"));
+        assertFalse(BinaryFrameCodec.canEncodeRoom(null));
+    }
+
+    @Test
+    void countsBinaryMembersThatCannotBeServed() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RoomSessionManager manager = new RoomSessionManager(16, OverflowPolicy.DROP_OLDEST, 1, 16, 5000, registry);
+        RoomBroadcaster broadcaster = new RoomBroadcaster(manager, Jackson2ObjectMapperBuilder.json().build(), registry);
+        try {
+            join(manager, "1", WireProtocol.JSON);
+            join(manager, "2", WireProtocol.BINARY);
+            join(manager, "3", WireProtocol.BINARY);
+
+            byte[] fromNamedUser = Jackson2ObjectMapperBuilder.json().build().writeValueAsBytes(message("alice", "room7"));
+            assertEquals(1, broadcaster.broadcast("room7", fromNamedUser));
+            assertEquals(2.0, registry.get("chatflow.broadcast.binary.skipped").counter().count());
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    private static void join(RoomSessionManager manager, String userId, WireProtocol protocol) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        UserInfo user = new UserInfo(userId, "user" + userId, "room7");
+        user.setProtocol(protocol);
+        manager.addUserSession(session, user);
+        manager.addUserToRoom(session, "room7", user);
+    }
+
+    private static ChatMessage message(String userId, String roomId) {
+        ChatMessage message = new ChatMessage();
+        message.setMessageType(MessageType.TEXT);
+        message.setUserId(userId);
+        message.setUsername("user" + userId);
+        message.setRoomId(roomId);
+        message.setMessageId(UUID.randomUUID().toString());
+        message.setTimestamp(Instant.ofEpochSecond(1_700_000_000L, 123_456_789));
+        message.setMessage("hello");
+        return message;
+    }
+}
\ No newline at end of file
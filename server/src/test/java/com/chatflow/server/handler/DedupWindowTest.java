@@ -0,0 +1,85 @@
+package com.chatflow.server.handler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Feeds the window far more ids than one generation holds: every id within the last
+ * {@code capacity} insertions must still be found across rotations, and fresh ids must be
+ * flagged as duplicates at about the rate the filter was sized for.
+ */
+class DedupWindowTest {
+
+    @Test
+    void sizesGenerationsFromTheMemoryBudget() {
+        DedupWindow window = new DedupWindow(64 * 1024, 0.01);
+        assertEquals(64 * 1024, window.memoryBytes());
+        // 256 Ki bits per generation at 1%: n = -m ln2^2 / ln p, about 9.6 bits per id
+        double bits = 64 * 1024 * 8 / 2;
+        assertEquals((int) (-bits * Math.log(2) * Math.log(2) / Math.log(0.01)), window.capacity());
+    }
+
+    @Test
+    void neverForgetsTheLastCapacityIdsAcrossRotations() {
+        DedupWindow window = new DedupWindow(16 * 1024, 0.001);
+        int capacity = window.capacity();
+        long[] added = new long[capacity * 5];
+        SplittableRandom random = new SplittableRandom(7);
+
+        int count = 0;
+        while (count < added.length) {
+            long id = random.nextLong();
+            // A fresh id can be a false positive; only ids that went in must be remembered
+            if (window.add(id)) {
+                added[count++] = id;
+            }
+            // Check just before and just after each rotation, and mid-generation
+            if (count > capacity && (count % capacity <= 1 || count % capacity == capacity / 2)) {
+                for (int i = count - capacity; i < count; i++) {
+                    assertFalse(window.add(added[i]), "id " + i + " forgotten after " + count + " insertions");
+                }
+            }
+        }
+    }
+
+    @Test
+    void redeliveredIdIsDroppedOnce() {
+        DedupWindow window = new DedupWindow(16 * 1024, 0.001);
+        assertTrue(window.add(42));
+        assertFalse(window.add(42));
+        assertFalse(window.add(42));
+    }
+
+    @Test
+    void falsePositiveRateStaysNearTheEstimate() {
+        double target = 0.01;
+        DedupWindow window = new DedupWindow(64 * 1024, target);
+        SplittableRandom random = new SplittableRandom(11);
+        // Reach steady state: both generations in use
+        for (int i = 0; i < window.capacity() * 2; i++) {
+            window.add(random.nextLong());
+        }
+
+        int probes = 200_000;
+        int falsePositives = 0;
+        double expected = 0;
+        for (int i = 0; i < probes; i++) {
+            expected += window.estimatedFalsePositiveRate();
+            // Random 64-bit ids are distinct from everything inserted with overwhelming probability
+            if (!window.add(random.nextLong())) {
+                falsePositives++;
+            }
+        }
+        double measured = (double) falsePositives / probes;
+        expected /= probes;
+
+        // Lookups check two generations, so the rate is at most about twice the target
+        assertTrue(measured <= 2 * target, "measured " + measured);
+        assertEquals(expected, measured, expected * 0.15, "measured " + measured + ", estimated " + expected);
+    }
+}
@@ -0,0 +1,98 @@
+package com.chatflow.server.handler;
+
+import com.chatflow.server.model.MessageType;
+import com.chatflow.server.model.UserInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Drains session and user buckets, sequentially and from racing threads, and checks that
+ * no more frames get through than the burst plus what the rate refills meanwhile.
+ */
+class IngressRateLimiterTest {
+
+    private static final String ROOM = "room1";
+
+    @Test
+    void sessionAndUserBucketsBothApply() {
+        // 10/s per session, 15/s per user, one second of burst; JOIN unlimited
+        IngressRateLimiter limiter = new IngressRateLimiter(true, 1.0, 10, 15, 0, 0, 5, 5, 100, new SimpleMeterRegistry());
+        WebSocketSession first = mock(WebSocketSession.class);
+        WebSocketSession second = mock(WebSocketSession.class);
+        limiter.register(first, new UserInfo("u1", "alice", ROOM));
+        limiter.register(second, new UserInfo("u1", "alice", ROOM));
+
+        int allowed = 0;
+        long wait = IngressRateLimiter.ALLOWED;
+        for (int i = 0; i < 20; i++) {
+            wait = limiter.acquire(first, ROOM, MessageType.TEXT);
+            if (wait == IngressRateLimiter.ALLOWED) allowed++;
+        }
+        assertEquals(10, allowed, "session burst");
+        assertTrue(wait > 0 && wait <= 100_000_000L, "about one interval to wait");
+
+        allowed = 0;
+        for (int i = 0; i < 20; i++) {
+            if (limiter.acquire(second, ROOM, MessageType.TEXT) == IngressRateLimiter.ALLOWED) allowed++;
+        }
+        assertEquals(5, allowed, "what is left of the user's burst");
+
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(IngressRateLimiter.ALLOWED, limiter.acquire(first, ROOM, MessageType.JOIN));
+        }
+        assertEquals(25L, limiter.getThrottledByRoom().get(ROOM));
+
+        // The user's buckets go with its last session
+        limiter.unregister(first);
+        limiter.unregister(second);
+        WebSocketSession third = mock(WebSocketSession.class);
+        limiter.register(third, new UserInfo("u1", "alice", ROOM));
+        assertEquals(IngressRateLimiter.ALLOWED, limiter.acquire(third, ROOM, MessageType.LEAVE));
+    }
+
+    @Test
+    void racingThreadsNeverOverdraw() throws Exception {
+        int rate = 1_000;
+        IngressRateLimiter limiter = new IngressRateLimiter(true, 0.5, rate, 0, 0, 0, 0, 0, 100, new SimpleMeterRegistry());
+        WebSocketSession session = mock(WebSocketSession.class);
+        limiter.register(session, new UserInfo("u1", "alice", ROOM));
+
+        int threads = 4;
+        AtomicInteger allowed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 50_000; i++) {
+                    if (limiter.acquire(session, ROOM, MessageType.TEXT) == IngressRateLimiter.ALLOWED) {
+                        allowed.incrementAndGet();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        long began = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - began) / 1e9;
+
+        int ceiling = rate / 2 + (int) Math.ceil(seconds * rate) + 1;
+        assertTrue(allowed.get() >= rate / 2, "burst available: " + allowed.get());
+        assertTrue(allowed.get() <= ceiling, allowed.get() + " allowed, at most " + ceiling);
+    }
+}
\ No newline at end of file
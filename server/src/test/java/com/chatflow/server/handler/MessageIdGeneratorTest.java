@@ -0,0 +1,35 @@
+package com.chatflow.server.handler;
+
+import com.chatflow.server.config.ServerIdentity;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageIdGeneratorTest {
+
+    @Test
+    void rabbitServersMustNameTheirNode() throws Exception {
+        ServerIdentity identity = new ServerIdentity("node-1");
+        assertThrows(IllegalStateException.class, () -> new MessageIdGenerator(identity, -1, "rabbitmq"));
+        assertThrows(IllegalArgumentException.class, () -> new MessageIdGenerator(identity, 1024, "rabbitmq"));
+        new MessageIdGenerator(identity, -1, "inprocess");
+    }
+
+    @Test
+    void distinctNodesNeverMintTheSameId() throws Exception {
+        // Same server id on purpose: only the explicit node tells them apart
+        MessageIdGenerator a = new MessageIdGenerator(new ServerIdentity("chat"), 1, "rabbitmq");
+        MessageIdGenerator b = new MessageIdGenerator(new ServerIdentity("chat"), 2, "rabbitmq");
+        long previous = 0;
+        for (int i = 0; i < 10_000; i++) {
+            long id = a.next();
+            assertTrue(id > previous);
+            assertNotEquals(id, b.next());
+            assertEquals(id, MessageIdGenerator.parse(MessageIdGenerator.format(id)));
+            previous = id;
+        }
+    }
+}
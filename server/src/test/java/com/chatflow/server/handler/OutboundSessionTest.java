@@ -0,0 +1,302 @@
+package com.chatflow.server.handler;
+
+import com.chatflow.server.model.WireProtocol;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs drains on a hand-cranked executor to check each overflow policy frame by frame, then
+ * on a real pool to check that one session never has two drains writing at once and that a
+ * pending async write does not hold a writer thread.
+ */
+class OutboundSessionTest {
+
+    private final Timer sendTimer = Timer.builder("test.send").register(new SimpleMeterRegistry());
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final List<String> written = Collections.synchronizedList(new ArrayList<>());
+    private final ScheduledExecutorService retryTimer = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    void stopRetryTimer() {
+        retryTimer.shutdownNow();
+    }
+
+    @Test
+    void dropOldestKeepsTheNewestFrames() throws Exception {
+        WebSocketSession session = recordingSession();
+        OutboundSession outbound = outbound(session, 2, OverflowPolicy.DROP_OLDEST);
+
+        assertTrue(outbound.send(frame("a")));
+        assertTrue(outbound.send(frame("b")));
+        assertTrue(outbound.send(frame("c")));
+        assertEquals(1, outbound.getDroppedCount());
+        assertEquals(1, dropped.sum());
+
+        runTasks();
+        assertEquals(List.of("b", "c"), written);
+    }
+
+    @Test
+    void dropNewestRefusesTheIncomingFrame() throws Exception {
+        WebSocketSession session = recordingSession();
+        OutboundSession outbound = outbound(session, 2, OverflowPolicy.DROP_NEWEST);
+
+        assertTrue(outbound.send(frame("a")));
+        assertTrue(outbound.send(frame("b")));
+        assertFalse(outbound.send(frame("c")));
+        assertEquals(1, outbound.getDroppedCount());
+
+        runTasks();
+        assertEquals(List.of("a", "b"), written);
+    }
+
+    @Test
+    void disconnectClosesTheSessionOnOverflow() throws Exception {
+        WebSocketSession session = recordingSession();
+        OutboundSession outbound = outbound(session, 2, OverflowPolicy.DISCONNECT);
+
+        outbound.send(frame("a"));
+        outbound.send(frame("b"));
+        assertFalse(outbound.send(frame("c")));
+        assertFalse(outbound.send(frame("d")), "nothing is accepted once a close is pending");
+
+        runTasks();
+        assertEquals(List.of(), written);
+        assertEquals(0, outbound.getQueueDepth());
+        verify(session).close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    @Test
+    void schedulesOneDrainUntilItFinishes() throws Exception {
+        WebSocketSession session = recordingSession();
+        OutboundSession outbound = outbound(session, 1_000, OverflowPolicy.DROP_OLDEST);
+
+        for (int i = 0; i < 100; i++) {
+            outbound.send(frame("m" + i));
+        }
+        assertEquals(1, tasks.size());
+
+        // A drain writes a batch and then reschedules itself for the rest
+        tasks.poll().run();
+        assertEquals(1, tasks.size());
+        runTasks();
+        assertEquals(100, written.size());
+        assertEquals("m99", written.get(99));
+    }
+
+    @Test
+    void rejectedDrainIsRetriedWithoutNewTraffic() throws Exception {
+        WebSocketSession session = recordingSession();
+        AtomicInteger rejections = new AtomicInteger(2);
+        OutboundSession outbound = new OutboundSession(session, WireProtocol.JSON, 16, OverflowPolicy.DROP_OLDEST,
+                task -> {
+                    if (rejections.getAndDecrement() > 0) throw new RejectedExecutionException("full");
+                    synchronized (tasks) {
+                        tasks.add(task);
+                    }
+                }, retryTimer, 1_000, dropped, rejected, sendTimer);
+
+        outbound.send(frame("a"));
+        outbound.send(frame("b"));
+
+        // No further sends: the timer alone must get the queued frames out
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            synchronized (tasks) {
+                if (!tasks.isEmpty()) break;
+            }
+            Thread.sleep(5);
+        }
+        synchronized (tasks) {
+            runTasks();
+        }
+        assertEquals(2, rejected.sum());
+        assertEquals(List.of("a", "b"), written);
+    }
+
+    @Test
+    void pendingAsyncWriteDoesNotHoldAWriterThread() throws Exception {
+        List<SendHandler> stalled = Collections.synchronizedList(new ArrayList<>());
+        RemoteEndpoint.Async stuck = mock(RemoteEndpoint.Async.class);
+        doAnswer(invocation -> stalled.add(invocation.getArgument(1))).when(stuck).sendText(anyString(), any(SendHandler.class));
+        NativeWebSocketSession slow = nativeSession(stuck);
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            OutboundSession slowOutbound = new OutboundSession(slow, WireProtocol.JSON, 2, OverflowPolicy.DROP_OLDEST,
+                    pool, retryTimer, 1_000, dropped, rejected, sendTimer);
+            OutboundSession fastOutbound = new OutboundSession(recordingSession(), WireProtocol.JSON, 16,
+                    OverflowPolicy.DROP_OLDEST, pool, retryTimer, 1_000, dropped, rejected, sendTimer);
+
+            slowOutbound.send(frame("s0"));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (stalled.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            for (int i = 1; i < 5; i++) {
+                slowOutbound.send(frame("s" + i));
+            }
+            fastOutbound.send(frame("f"));
+
+            // The only writer thread is free for the other session
+            while (written.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(List.of("f"), written);
+            assertEquals(1, stalled.size());
+            verify(stuck).setSendTimeout(1_000);
+
+            // The queue behind the pending write is still subject to the overflow policy
+            assertEquals(2, slowOutbound.getQueueDepth());
+            assertEquals(2, slowOutbound.getDroppedCount());
+
+            // A write that misses its deadline closes the session
+            stalled.get(0).onResult(new SendResult(new SocketTimeoutException()));
+            deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (slowOutbound.getQueueDepth() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            verify(slow, timeout(5_000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+            assertEquals(0, slowOutbound.getQueueDepth());
+            assertFalse(slowOutbound.send(frame("late")));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void concurrentProducersNeverOverlapWrites() throws Exception {
+        AtomicInteger inSend = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            if (inSend.incrementAndGet() > 1) overlaps.incrementAndGet();
+            Thread.yield();
+            written.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            inSend.decrementAndGet();
+            return null;
+        }).when(session).sendMessage(any());
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            OutboundSession outbound = new OutboundSession(session, WireProtocol.JSON, 100_000, OverflowPolicy.DROP_NEWEST,
+                    pool, retryTimer, 1_000, dropped, rejected, sendTimer);
+            int producers = 4;
+            int perProducer = 5_000;
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[producers];
+            for (int p = 0; p < producers; p++) {
+                int id = p;
+                threads[p] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perProducer; i++) {
+                        outbound.send(frame(id + ":" + i));
+                    }
+                });
+                threads[p].start();
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (written.size() < producers * perProducer && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(producers * perProducer, written.size());
+            assertEquals(0, overlaps.get());
+
+            // Each producer's frames come out in the order it sent them
+            int[] next = new int[producers];
+            for (String payload : written) {
+                int colon = payload.indexOf(':');
+                int producer = Integer.parseInt(payload.substring(0, colon));
+                assertEquals(next[producer]++, Integer.parseInt(payload.substring(colon + 1)));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        verify(session, never()).close(any());
+    }
+
+    private OutboundSession outbound(WebSocketSession session, int capacity, OverflowPolicy policy) {
+        return new OutboundSession(session, WireProtocol.JSON, capacity, policy, tasks::add, retryTimer, 1_000,
+                dropped, rejected, sendTimer);
+    }
+
+    private NativeWebSocketSession nativeSession(RemoteEndpoint.Async async) {
+        Session endpoint = mock(Session.class);
+        when(endpoint.getAsyncRemote()).thenReturn(async);
+        NativeWebSocketSession session = mock(NativeWebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        when(session.getNativeSession(Session.class)).thenReturn(endpoint);
+        return session;
+    }
+
+    private WebSocketSession recordingSession() throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            written.add(((TextMessage) invocation.getArgument(0)).getPayload());
+            return null;
+        }).when(session).sendMessage(any());
+        return session;
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static WebSocketMessage<?> frame(String payload) {
+        return new TextMessage(payload);
+    }
+}
@@ -0,0 +1,101 @@
+package com.chatflow.server.history;
+
+import com.chatflow.server.config.ServerIdentity;
+import com.chatflow.server.handler.FrameStamps;
+import com.chatflow.server.handler.OutboundSession;
+import com.chatflow.server.model.ResumeRequest;
+import com.chatflow.server.model.WireProtocol;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Replays on a single thread: a session whose buffer stays full must not keep that thread
+ * from serving another session, and must get every frame once its buffer drains.
+ */
+class HistoryReplayTest {
+
+    private static final String ROOM = "room7";
+    private static final int FRAMES = 100;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void fullSessionPausesWithoutHoldingTheReplayThread() throws Exception {
+        RoomHistory history = new RoomHistory(new ServerIdentity("node-1"), true, dir.toString(), 32 * 1024, 1024,
+                Long.MAX_VALUE, 86_400_000, new SimpleMeterRegistry());
+        for (int seq = 1; seq <= FRAMES; seq++) {
+            history.append(ROOM, seq, FrameStamps.withSeq("{}".getBytes(StandardCharsets.UTF_8), seq));
+        }
+        HistoryReplay replay = new HistoryReplay(history, new ObjectMapper(), 1, 8, new SimpleMeterRegistry());
+        try {
+            AtomicInteger stuckDepth = new AtomicInteger(8);
+            List<String> stuckFrames = Collections.synchronizedList(new ArrayList<>());
+            OutboundSession stuck = outbound(stuckDepth, stuckFrames);
+            List<String> readerFrames = Collections.synchronizedList(new ArrayList<>());
+            OutboundSession reader = outbound(new AtomicInteger(), readerFrames);
+
+            replay.resume(stuck, request());
+            replay.resume(reader, request());
+
+            await(() -> readerFrames.size() == FRAMES + 1);
+            assertTrue(readerFrames.get(FRAMES).contains("\"RESUMED\""));
+            assertEquals(0, stuckFrames.size());
+
+            stuckDepth.set(0);
+            await(() -> stuckFrames.size() == FRAMES + 1);
+            assertEquals(1, FrameStamps.readSeq(stuckFrames.get(0).getBytes(StandardCharsets.UTF_8)));
+            assertTrue(stuckFrames.get(FRAMES).contains("\"frames\":" + FRAMES));
+        } finally {
+            replay.shutdown();
+            history.shutdown();
+        }
+    }
+
+    private static OutboundSession outbound(AtomicInteger depth, List<String> frames) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        OutboundSession outbound = mock(OutboundSession.class);
+        when(outbound.getSession()).thenReturn(session);
+        when(outbound.getProtocol()).thenReturn(WireProtocol.JSON);
+        when(outbound.getQueueDepth()).thenAnswer(invocation -> depth.get());
+        doAnswer(invocation -> frames.add(((TextMessage) invocation.getArgument(0)).getPayload()))
+                .when(outbound).send(any());
+        return outbound;
+    }
+
+    private static ResumeRequest request() {
+        ResumeRequest request = new ResumeRequest();
+        request.setRoomId(ROOM);
+        request.setFromSeq(0L);
+        return request;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
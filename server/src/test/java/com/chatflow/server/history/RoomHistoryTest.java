@@ -0,0 +1,201 @@
+package com.chatflow.server.history;
+
+import com.chatflow.server.config.ServerIdentity;
+import com.chatflow.server.handler.FrameStamps;
+import com.chatflow.server.handler.MessageIdGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Writes a room's log across several segments and reads it back by seq and by time, over
+ * a restart, through both the frame and the transferTo path. Seq ranges the log cannot
+ * serve in full are refused, an opened range keeps its length while retention runs, and an
+ * index left ahead of the log by a crash is ignored.
+ */
+class RoomHistoryTest {
+
+    private static final String ROOM = "room7";
+    private static final int FRAMES = 5_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void resumesFromSeqAndTimeAcrossSegmentsAndRestart() throws Exception {
+        MessageIdGenerator ids = new MessageIdGenerator(new ServerIdentity("node-1"), 1, "rabbitmq");
+        long[] millis = new long[FRAMES + 1];
+
+        RoomHistory history = history(Long.MAX_VALUE);
+        assertEquals(0, history.lastSeq(ROOM));
+        for (int seq = 1; seq <= FRAMES; seq++) {
+            String sid = ids.nextText();
+            millis[seq] = MessageIdGenerator.timestampMillis(MessageIdGenerator.parse(sid));
+            byte[] frame = FrameStamps.withSeq(FrameStamps.withId(
+                    ("{\"message\":\"hello\n" + seq + "\"}").replace("\n", "\\n").getBytes(StandardCharsets.UTF_8), sid), seq);
+            history.append(ROOM, seq, frame);
+            if (seq % 1_000 == 0) Thread.sleep(2);
+        }
+        history.release(ROOM);
+        history.shutdown();
+
+        RoomHistory restarted = history(Long.MAX_VALUE);
+        assertEquals(FRAMES, restarted.lastSeq(ROOM));
+
+        HistoryRange fromSeq = restarted.read(ROOM, 1234, 0);
+        assertTrue(fromSeq.regionCount() > 1);
+        List<Long> seqs = new ArrayList<>();
+        fromSeq.forEachFrame(frame -> seqs.add(FrameStamps.readSeq(frame)));
+        assertEquals(FRAMES - 1233, seqs.size());
+        for (int i = 0; i < seqs.size(); i++) {
+            assertEquals(1234 + i, seqs.get(i));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(fromSeq.bytes(), fromSeq.transferTo(Channels.newChannel(out)));
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(seqs.size(), lines.length);
+        assertEquals(FRAMES, FrameStamps.readSeq(lines[lines.length - 1].getBytes(StandardCharsets.UTF_8)));
+
+        long since = millis[4001];
+        long[] first = {-1};
+        restarted.read(ROOM, -1, since).forEachFrame(frame -> {
+            first[0] = FrameStamps.readSeq(frame);
+            return false;
+        });
+        assertTrue(millis[(int) first[0]] >= since && millis[(int) first[0] - 1] < since);
+        restarted.shutdown();
+
+        RoomHistory capped = history(64 * 1024);
+        capped.append(ROOM, FRAMES + 1, FrameStamps.withSeq("{}".getBytes(StandardCharsets.UTF_8), FRAMES + 1));
+        capped.enforceRetention();
+        long[] oldest = {-1};
+        capped.read(ROOM, 0, 0).forEachFrame(frame -> {
+            oldest[0] = FrameStamps.readSeq(frame);
+            return false;
+        });
+        assertTrue(oldest[0] > 1);
+        assertEquals(FRAMES + 1, capped.lastSeq(ROOM));
+        capped.shutdown();
+    }
+
+    @Test
+    void refusesSeqRangesItCannotServeInFull() throws Exception {
+        RoomHistory history = history(64 * 1024);
+        assertNotNull(history.seqUnavailable(ROOM, 1, null), "no log of the room here");
+        for (int seq = 1; seq <= FRAMES; seq++) {
+            history.append(ROOM, seq, FrameStamps.withSeq(("{\"message\":\"" + seq + "\"}").getBytes(StandardCharsets.UTF_8), seq));
+        }
+        history.enforceRetention();
+
+        assertNull(history.seqUnavailable(ROOM, FRAMES, null));
+        assertNull(history.seqUnavailable(ROOM, FRAMES + 1, "node-1"), "up to date");
+        assertNull(history.seqUnavailable(ROOM, 0, "node-2"), "everything retained");
+        assertNotNull(history.seqUnavailable(ROOM, FRAMES, "node-2"), "numbered by another server");
+        assertNotNull(history.seqUnavailable(ROOM, FRAMES + 2, null), "past the end of this log");
+        assertNotNull(history.seqUnavailable(ROOM, 1, null), "expired");
+        history.shutdown();
+    }
+
+    @Test
+    void openedRangeKeepsItsLengthWhileRetentionRuns() throws Exception {
+        RoomHistory history = history(Long.MAX_VALUE);
+        for (int seq = 1; seq <= FRAMES; seq++) {
+            history.append(ROOM, seq, FrameStamps.withSeq(("{\"message\":\"" + seq + "\"}").getBytes(StandardCharsets.UTF_8), seq));
+        }
+        history.release(ROOM);
+        history.shutdown();
+
+        RoomHistory capped = history(64 * 1024);
+        HistoryRange pinned = capped.read(ROOM, 0, 0);
+        pinned.open(0);
+        assertTrue(pinned.regionCount() > 2);
+        long bytes = pinned.bytes();
+        capped.append(ROOM, FRAMES + 1, FrameStamps.withSeq("{}".getBytes(StandardCharsets.UTF_8), FRAMES + 1));
+        capped.enforceRetention();
+        assertNotNull(capped.seqUnavailable(ROOM, 1, null), "expired");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(bytes, pinned.transferTo(Channels.newChannel(out)));
+        pinned.close();
+
+        HistoryRange leased = capped.read(ROOM, 0, 0);
+        leased.open(60_000);
+        for (int seq = FRAMES + 2; seq <= 2 * FRAMES; seq++) {
+            capped.append(ROOM, seq, FrameStamps.withSeq(("{\"message\":\"" + seq + "\"}").getBytes(StandardCharsets.UTF_8), seq));
+        }
+        capped.enforceRetention();
+        assertTrue(Files.exists(leased.file(0)), "a leased segment outlives retention");
+        leased.close();
+        capped.shutdown();
+    }
+
+    @Test
+    void indexEntryPastTheLastFrameIsIgnoredOnRestart() throws Exception {
+        RoomHistory history = history(Long.MAX_VALUE);
+        for (int seq = 1; seq <= 10; seq++) {
+            history.append(ROOM, seq, FrameStamps.withSeq("{}".getBytes(StandardCharsets.UTF_8), seq));
+        }
+        history.release(ROOM);
+        history.shutdown();
+
+        // A crash between indexing frame 11 and writing it: preallocated zeros behind an entry for it
+        Path log = dir.resolve("node-1").resolve(ROOM).resolve(String.format("%020d", 1) + ".log");
+        Path index = log.resolveSibling(String.format("%020d", 1) + ".idx");
+        long end = Files.size(log);
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(1024), end);
+        }
+        Files.write(index, ByteBuffer.allocate(24).putLong(11).putLong(0).putLong(end).array(), StandardOpenOption.APPEND);
+
+        RoomHistory restarted = history(Long.MAX_VALUE);
+        assertEquals(10, restarted.lastSeq(ROOM));
+        restarted.append(ROOM, 11, FrameStamps.withSeq("{}".getBytes(StandardCharsets.UTF_8), 11));
+        List<Long> seqs = new ArrayList<>();
+        restarted.read(ROOM, 0, 0).forEachFrame(frame -> seqs.add(FrameStamps.readSeq(frame)));
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L), seqs);
+        assertEquals(11, restarted.lastSeq(ROOM));
+        restarted.shutdown();
+    }
+
+    @Test
+    void readingDoesNotKeepRoomsOpen() throws Exception {
+        RoomHistory history = history(Long.MAX_VALUE);
+        history.append(ROOM, 1, FrameStamps.withSeq("{}".getBytes(StandardCharsets.UTF_8), 1));
+        history.release(ROOM);
+        history.shutdown();
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        RoomHistory restarted = history(Long.MAX_VALUE, registry);
+        assertEquals(1, restarted.read(ROOM, 0, 0).regionCount());
+        assertNull(restarted.seqUnavailable(ROOM, 1, null));
+        restarted.enforceRetention();
+        // Only logs the lanes opened count towards the gauge
+        assertEquals(0.0, registry.get("chatflow.history.bytes").gauge().value());
+        restarted.shutdown();
+    }
+
+    private RoomHistory history(long retentionBytes) throws Exception {
+        return history(retentionBytes, new SimpleMeterRegistry());
+    }
+
+    private RoomHistory history(long retentionBytes, SimpleMeterRegistry registry) throws Exception {
+        return new RoomHistory(new ServerIdentity("node-1"), true, dir.toString(), 32 * 1024, 1024,
+                retentionBytes, 86_400_000, registry);
+    }
+}
\ No newline at end of file
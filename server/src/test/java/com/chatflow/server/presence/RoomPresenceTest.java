@@ -0,0 +1,107 @@
+package com.chatflow.server.presence;
+
+import com.chatflow.server.bus.MessageBus;
+import com.chatflow.server.config.ServerIdentity;
+import com.chatflow.server.handler.RoomDispatcher;
+import com.chatflow.server.handler.RoomSessionManager;
+import com.chatflow.server.model.UserInfo;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Feeds membership changes between flushes and checks that each flush publishes one
+ * coalesced diff per changed room and refreshes the snapshot.
+ */
+class RoomPresenceTest {
+
+    private static final String ROOM = "room3";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MessageBus bus = mock(MessageBus.class);
+    private RoomPresence presence;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        presence = new RoomPresence(mock(RoomSessionManager.class), bus, mock(RoomDispatcher.class),
+                objectMapper, new ServerIdentity("node-1"), true, 60_000, 4, false, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+    }
+
+    @Test
+    void coalescesChangesIntoOneDiffPerInterval() throws Exception {
+        presence.memberJoined(ROOM, user("u1"));
+        presence.memberJoined(ROOM, user("u2"));
+        presence.memberJoined(ROOM, user("u1"));
+        presence.memberLeft(ROOM, user("u1"));
+        presence.memberJoined(ROOM, user("u3"));
+        presence.memberLeft(ROOM, user("u3"));
+        presence.flush();
+
+        JsonNode diff = published();
+        assertEquals("PRESENCE", diff.get("status").asText());
+        assertEquals(List.of("u1", "u2"), strings(diff.get("joined")));
+        assertEquals(List.of(), strings(diff.get("left")));
+        assertEquals(2, diff.get("count").asInt());
+        assertEquals(List.of("u1", "u2"), strings(objectMapper.readTree(presence.snapshot(ROOM)).get("users")));
+
+        // Nothing changed, nothing sent
+        presence.flush();
+        verify(bus, never()).publish(eq(ROOM), any(byte[].class));
+
+        presence.memberLeft(ROOM, user("u1"));
+        presence.memberLeft(ROOM, user("u2"));
+        presence.flush();
+        diff = published();
+        assertEquals(List.of("u1", "u2"), strings(diff.get("left")));
+        assertEquals(0, diff.get("count").asInt());
+        assertEquals(0, objectMapper.readTree(presence.snapshot(ROOM)).get("count").asInt());
+    }
+
+    @Test
+    void recognizesItsOwnFrames() throws Exception {
+        presence.memberJoined(ROOM, user("u1"));
+        presence.flush();
+        ArgumentCaptor<byte[]> body = ArgumentCaptor.forClass(byte[].class);
+        verify(bus).publish(eq(ROOM), body.capture());
+
+        assertTrue(RoomPresence.isPresenceFrame(body.getValue()));
+        assertFalse(RoomPresence.isPresenceFrame("{\"sid\":\"0000000000000\",\"status\":\"PRESENCE\"}".getBytes()));
+    }
+
+    private JsonNode published() throws Exception {
+        ArgumentCaptor<byte[]> body = ArgumentCaptor.forClass(byte[].class);
+        verify(bus, times(1)).publish(eq(ROOM), body.capture());
+        clearInvocations(bus);
+        return objectMapper.readTree(body.getValue());
+    }
+
+    private static List<String> strings(JsonNode array) {
+        return StreamSupport.stream(array.spliterator(), false).map(JsonNode::asText).toList();
+    }
+
+    private static UserInfo user(String userId) {
+        return new UserInfo(userId, "name-" + userId, ROOM);
+    }
+}
\ No newline at end of file
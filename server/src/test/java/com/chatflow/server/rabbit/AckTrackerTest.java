@@ -0,0 +1,182 @@
+package com.chatflow.server.rabbit;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Completes deliveries out of order from several threads and checks that cumulative acks
+ * only ever cover completed tags, arrive in increasing order, and cover everything after a flush.
+ * Also restarts the delivery tags the way a recovered channel does.
+ */
+class AckTrackerTest {
+
+    private static final int DELIVERIES = 200_000;
+    private static final int PREFETCH = 512;
+
+    @Test
+    void cumulativeAcksCoverOnlyCompletedPrefix() throws Exception {
+        List<Long> acks = new ArrayList<>();
+        boolean[] done = new boolean[DELIVERIES + 1];
+        AckTracker.AckSink sink = new AckTracker.AckSink() {
+            @Override
+            public void ack(long deliveryTag, boolean multiple) {
+                // Called under the tracker's lock, so the list needs no locking of its own
+                assertTrue(multiple);
+                synchronized (done) {
+                    for (long tag = acks.isEmpty() ? 1 : acks.get(acks.size() - 1) + 1; tag <= deliveryTag; tag++) {
+                        assertTrue(done[(int) tag], "acked incomplete tag " + tag);
+                    }
+                }
+                acks.add(deliveryTag);
+            }
+
+            @Override
+            public void nack(long deliveryTag) {
+                throw new AssertionError("cumulative mode never nacks");
+            }
+        };
+        AckTracker tracker = new AckTracker(sink, AckMode.CUMULATIVE, 64, PREFETCH * 2);
+
+        ExecutorService lanes = Executors.newFixedThreadPool(4);
+        for (long tag = 1; tag <= DELIVERIES; tag++) {
+            while (tracker.unacked() >= PREFETCH) {
+                Thread.onSpinWait();
+            }
+            tracker.delivered(tag);
+            long deliveryTag = tag;
+            lanes.execute(() -> {
+                synchronized (done) {
+                    done[(int) deliveryTag] = true;
+                }
+                try {
+                    tracker.complete(deliveryTag, deliveryTag % 7 != 0);
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            });
+        }
+        lanes.shutdown();
+        assertTrue(lanes.awaitTermination(30, TimeUnit.SECONDS));
+        tracker.flush();
+
+        for (int i = 1; i < acks.size(); i++) {
+            assertTrue(acks.get(i) > acks.get(i - 1));
+        }
+        assertEquals(DELIVERIES, acks.get(acks.size() - 1));
+        assertEquals(0, tracker.unacked());
+        assertTrue(acks.size() < DELIVERIES / 32, "expected batched acks, got " + acks.size());
+    }
+
+    @Test
+    void cumulativeAcksFollowARecoveredChannel() throws Exception {
+        List<String> acks = new ArrayList<>();
+        AckTracker tracker = new AckTracker(recordingSink(acks), AckMode.CUMULATIVE, 1_000, 64);
+        long[] ids = new long[11];
+        for (int tag = 1; tag <= 10; tag++) {
+            ids[tag] = tracker.delivered(tag);
+        }
+        for (int tag = 1; tag <= 6; tag++) {
+            tracker.complete(ids[tag], true);
+        }
+        tracker.flush();
+        assertEquals(List.of("ack 6 multiple"), acks);
+
+        // The channel dies with 7..10 unacked; the broker requeues them and tags restart at 1
+        tracker.reset();
+        assertEquals(0, tracker.unacked());
+        for (int tag = 7; tag <= 10; tag++) {
+            tracker.complete(ids[tag], true);
+        }
+        tracker.flush();
+        assertEquals(1, acks.size(), "old tags are never acked on the new channel");
+
+        for (int tag = 1; tag <= 3; tag++) {
+            long id = tracker.delivered(tag);
+            tracker.complete(id, true);
+        }
+        assertEquals(3, tracker.unacked());
+        tracker.flush();
+        assertEquals(List.of("ack 6 multiple", "ack 3 multiple"), acks);
+        assertEquals(0, tracker.unacked());
+
+        // Shutdown and recovery listeners both reset; the second reset changes nothing
+        tracker.reset();
+        tracker.reset();
+        tracker.complete(tracker.delivered(1), true);
+        tracker.flush();
+        assertEquals(List.of("ack 6 multiple", "ack 3 multiple", "ack 1 multiple"), acks);
+    }
+
+    @Test
+    void singleAcksFollowARecoveredChannel() throws Exception {
+        List<String> acks = new ArrayList<>();
+        AckTracker tracker = new AckTracker(recordingSink(acks), AckMode.SINGLE, 1, 64);
+        long first = tracker.delivered(1);
+        long second = tracker.delivered(2);
+        tracker.complete(first, false);
+        assertEquals(1, tracker.unacked());
+
+        tracker.reset();
+        assertEquals(0, tracker.unacked());
+        tracker.complete(second, true);
+
+        tracker.complete(tracker.delivered(1), true);
+        assertEquals(List.of("nack 1", "ack 1"), acks);
+        assertEquals(0, tracker.unacked());
+    }
+
+    @Test
+    void consumerChannelListenersResetTheTracker() throws Exception {
+        List<String> acks = new ArrayList<>();
+        AckTracker tracker = new AckTracker(recordingSink(acks), AckMode.CUMULATIVE, 1_000, 64);
+        Channel channel = mock(Channel.class, withSettings().extraInterfaces(Recoverable.class));
+        RabbitMQConsumer.resetOnRecovery(channel, tracker);
+        ArgumentCaptor<ShutdownListener> shutdown = ArgumentCaptor.forClass(ShutdownListener.class);
+        verify(channel).addShutdownListener(shutdown.capture());
+        ArgumentCaptor<RecoveryListener> recovery = ArgumentCaptor.forClass(RecoveryListener.class);
+        verify((Recoverable) channel).addRecoveryListener(recovery.capture());
+
+        long stale = tracker.delivered(1);
+        tracker.delivered(2);
+        shutdown.getValue().shutdownCompleted(new ShutdownSignalException(true, false, null, channel));
+        tracker.complete(stale, true);
+        tracker.flush();
+        assertTrue(acks.isEmpty());
+
+        recovery.getValue().handleRecovery((Recoverable) channel);
+        tracker.complete(tracker.delivered(1), true);
+        tracker.flush();
+        assertEquals(List.of("ack 1 multiple"), acks);
+    }
+
+    private static AckTracker.AckSink recordingSink(List<String> acks) {
+        return new AckTracker.AckSink() {
+            @Override
+            public void ack(long deliveryTag, boolean multiple) {
+                acks.add("ack " + deliveryTag + (multiple ? " multiple" : ""));
+            }
+
+            @Override
+            public void nack(long deliveryTag) {
+                acks.add("nack " + deliveryTag);
+            }
+        };
+    }
+}
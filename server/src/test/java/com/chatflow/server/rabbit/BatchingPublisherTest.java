@@ -0,0 +1,135 @@
+package com.chatflow.server.rabbit;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Feeds rooms from several producers into a sink that stalls now and then, the way a
+ * publish does on a full confirm window, so linger and full-batch flushes race. Every
+ * producer's messages must come out of its room in the order it added them, and rooms that
+ * went quiet must not keep a batch.
+ */
+class BatchingPublisherTest {
+
+    private static final int ROOMS = 4;
+    private static final int PRODUCERS_PER_ROOM = 3;
+    private static final int MESSAGES = 3_000;
+
+    @Test
+    void roomsStayFifoAcrossBatches() throws Exception {
+        Map<String, List<String>> published = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> publishing = new ConcurrentHashMap<>();
+        AtomicInteger overlaps = new AtomicInteger();
+        AtomicInteger envelopes = new AtomicInteger();
+
+        BatchingPublisher.EnvelopeSink sink = (roomId, envelope, count, ingressNanos) -> {
+            AtomicInteger active = publishing.computeIfAbsent(roomId, id -> new AtomicInteger());
+            if (active.incrementAndGet() > 1) overlaps.incrementAndGet();
+            if (envelopes.incrementAndGet() % 16 == 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(3));
+            }
+            List<String> unpacked = new ArrayList<>();
+            BatchEnvelope.unpack(envelope, body -> unpacked.add(new String(body, StandardCharsets.UTF_8)));
+            assertEquals(count, unpacked.size());
+            List<String> room = published.computeIfAbsent(roomId, id -> new ArrayList<>());
+            synchronized (room) {
+                room.addAll(unpacked);
+            }
+            active.decrementAndGet();
+        };
+        BatchingPublisher publisher = new BatchingPublisher(sink, 1, 8, 4);
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int r = 0; r < ROOMS; r++) {
+            for (int p = 0; p < PRODUCERS_PER_ROOM; p++) {
+                String roomId = "room" + r;
+                int producer = p;
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < MESSAGES; i++) {
+                        publisher.add(roomId, (producer + ":" + i).getBytes(StandardCharsets.UTF_8));
+                        if (i % 100 == 0) {
+                            // Let some batches go out on the linger timer rather than full
+                            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2));
+                        }
+                    }
+                });
+                producers.add(thread);
+                thread.start();
+            }
+        }
+        start.countDown();
+        for (Thread thread : producers) {
+            thread.join();
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (total(published) < ROOMS * PRODUCERS_PER_ROOM * MESSAGES && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        publisher.shutdown();
+
+        assertEquals(ROOMS * PRODUCERS_PER_ROOM * MESSAGES, total(published));
+        assertEquals(0, overlaps.get());
+        for (Map.Entry<String, List<String>> room : published.entrySet()) {
+            int[] next = new int[PRODUCERS_PER_ROOM];
+            for (String message : room.getValue()) {
+                int colon = message.indexOf(':');
+                int producer = Integer.parseInt(message.substring(0, colon));
+                int seq = Integer.parseInt(message.substring(colon + 1));
+                assertEquals(next[producer]++, seq, room.getKey() + " producer " + producer + " out of order");
+            }
+        }
+        assertTrue(envelopes.get() < ROOMS * PRODUCERS_PER_ROOM * MESSAGES, "messages were batched");
+    }
+
+    @Test
+    void quietRoomsGiveUpTheirBatch() throws Exception {
+        AtomicInteger messages = new AtomicInteger();
+        BatchingPublisher publisher = new BatchingPublisher(
+                (roomId, envelope, count, ingressNanos) -> messages.addAndGet(count), 1, 8, 4);
+        int rooms = 1_000;
+        for (int r = 0; r < rooms; r++) {
+            publisher.add("room" + r, "hello".getBytes(StandardCharsets.UTF_8));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((messages.get() < rooms || publisher.activeRooms() > 0) && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(rooms, messages.get());
+        assertEquals(0, publisher.activeRooms());
+
+        // A room that speaks again gets a fresh batch
+        publisher.add("room0", "again".getBytes(StandardCharsets.UTF_8));
+        publisher.shutdown();
+        assertEquals(rooms + 1, messages.get());
+    }
+
+    private static int total(Map<String, List<String>> published) {
+        int total = 0;
+        for (List<String> room : published.values()) {
+            synchronized (room) {
+                total += room.size();
+            }
+        }
+        return total;
+    }
+}
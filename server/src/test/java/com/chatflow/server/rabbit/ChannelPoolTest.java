@@ -0,0 +1,175 @@
+package com.chatflow.server.rabbit;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the pool against mocked connections whose channels can be closed at will: threads
+ * racing to borrow never share a channel, an exhausted pool times out, and closed channels
+ * are aborted and replaced, by the healer if the first replacement fails.
+ */
+class ChannelPoolTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final Map<Channel, AtomicBoolean> open = new ConcurrentHashMap<>();
+    private final List<Channel> created = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicBoolean failCreate = new AtomicBoolean();
+    private ChannelPool pool;
+
+    @AfterEach
+    void closePool() throws Exception {
+        if (pool != null) pool.close();
+    }
+
+    @Test
+    void concurrentBorrowersNeverShareAChannel() throws Exception {
+        pool = pool(4, 5_000);
+        Set<Channel> held = ConcurrentHashMap.newKeySet();
+        AtomicInteger shared = new AtomicInteger();
+        AtomicInteger borrows = new AtomicInteger();
+
+        int threads = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < 2_000; i++) {
+                        Channel channel = pool.borrowChannel();
+                        if (!held.add(channel)) shared.incrementAndGet();
+                        Thread.onSpinWait();
+                        held.remove(channel);
+                        pool.returnChannel(channel);
+                        borrows.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(threads * 2_000, borrows.get());
+        assertEquals(0, shared.get());
+        assertEquals(4, pool.getAvailable());
+        assertEquals(4, created.size(), "no channel was replaced");
+    }
+
+    @Test
+    void exhaustedPoolTimesOut() throws Exception {
+        pool = pool(1, 50);
+        Channel only = pool.borrowChannel();
+
+        long start = System.nanoTime();
+        assertThrows(TimeoutException.class, pool::borrowChannel);
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(waitedMs >= 50, "waited " + waitedMs + " ms");
+        assertEquals(1.0, registry.get("chatflow.channelpool.timeouts").counter().count());
+
+        pool.returnChannel(only);
+        assertEquals(only, pool.borrowChannel());
+    }
+
+    @Test
+    void closedChannelIsAbortedAndReplaced() throws Exception {
+        pool = pool(1, 1_000);
+        Channel first = pool.borrowChannel();
+        open.get(first).set(false);
+        pool.returnChannel(first);
+
+        // Aborting takes the dead channel out of automatic recovery
+        verify(first).abort();
+        Channel second = pool.borrowChannel();
+        assertNotSame(first, second);
+        assertTrue(second.isOpen());
+        assertEquals(1.0, registry.get("chatflow.channelpool.replaced").counter().count());
+
+        // A channel that dies while sitting in the pool is replaced on borrow
+        pool.returnChannel(second);
+        open.get(second).set(false);
+        Channel third = pool.borrowChannel();
+        assertNotSame(second, third);
+        verify(second).abort();
+    }
+
+    @Test
+    void healerRefillsSlotsWhoseReplacementFailed() throws Exception {
+        pool = pool(2, 100);
+        Channel first = pool.borrowChannel();
+        open.get(first).set(false);
+        failCreate.set(true);
+        pool.returnChannel(first);
+        assertEquals(1, pool.getAvailable());
+        assertEquals(1.0, registry.get("chatflow.channelpool.size").gauge().value());
+
+        failCreate.set(false);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (pool.getAvailable() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, pool.getAvailable());
+        assertEquals(2.0, registry.get("chatflow.channelpool.size").gauge().value());
+    }
+
+    private ChannelPool pool(int size, long borrowTimeoutMs) throws Exception {
+        ConnectionFactory factory = mock(ConnectionFactory.class);
+        when(factory.newConnection(anyString())).thenAnswer(invocation -> connection());
+        return new ChannelPool("test", factory, size, 2, borrowTimeoutMs, registry, connection -> { }, channel -> { });
+    }
+
+    private Connection connection() throws IOException {
+        Connection connection = mock(Connection.class);
+        when(connection.isOpen()).thenReturn(true);
+        when(connection.createChannel()).thenAnswer(invocation -> {
+            if (failCreate.get()) throw new IOException("broker unavailable");
+            return channel();
+        });
+        return connection;
+    }
+
+    private Channel channel() throws IOException {
+        Channel channel = mock(Channel.class);
+        AtomicBoolean state = new AtomicBoolean(true);
+        open.put(channel, state);
+        when(channel.isOpen()).thenAnswer(invocation -> state.get());
+        doAnswer(invocation -> {
+            state.set(false);
+            return null;
+        }).when(channel).abort();
+        created.add(channel);
+        return channel;
+    }
+}
\ No newline at end of file
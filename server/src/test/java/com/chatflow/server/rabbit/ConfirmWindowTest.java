@@ -0,0 +1,145 @@
+package com.chatflow.server.rabbit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives a window the way a channel does: publishes take a slot, single and multiple acks
+ * or nacks give slots back exactly once, in any order, and a full window makes publishers
+ * wait.
+ */
+class ConfirmWindowTest {
+
+    private final List<Boolean> confirms = new ArrayList<>();
+
+    @Test
+    void multipleAckConfirmsEverythingUpToTheTag() throws Exception {
+        ConfirmWindow window = window(8);
+        publish(window, 1, 5);
+
+        window.handleAck(3, true);
+        assertEquals(List.of(true, true, true), confirms);
+        assertEquals(2, window.inFlight());
+
+        // Repeated or overlapping confirms are ignored
+        window.handleAck(3, true);
+        window.handleAck(2, false);
+        assertEquals(3, confirms.size());
+
+        window.handleAck(5, true);
+        assertEquals(5, confirms.size());
+        assertEquals(0, window.inFlight());
+    }
+
+    @Test
+    void nacksFreeSlotsAndReportFailure() throws Exception {
+        ConfirmWindow window = window(8);
+        publish(window, 1, 4);
+
+        window.handleNack(2, false);
+        window.handleAck(1, false);
+        window.handleNack(4, true);
+
+        assertEquals(List.of(false, true, false, false), confirms);
+        assertEquals(0, window.inFlight());
+    }
+
+    @Test
+    void abandonedPublishIsSkippedByLaterMultipleAck() throws Exception {
+        ConfirmWindow window = window(8);
+        publish(window, 1, 3);
+
+        window.abandon(2);
+        assertEquals(2, window.inFlight());
+        window.abandon(2);
+        assertEquals(2, window.inFlight(), "abandoning twice releases once");
+
+        window.handleAck(3, true);
+        assertEquals(List.of(true, true), confirms);
+        assertEquals(0, window.inFlight());
+    }
+
+    @Test
+    void fullWindowWaitsForAConfirm() throws Exception {
+        ConfirmWindow window = window(4);
+        publish(window, 1, 4);
+        assertEquals(4, window.inFlight());
+        assertFalse(window.acquire(10));
+
+        Thread confirmer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            window.handleAck(1, false);
+        });
+        confirmer.start();
+        assertTrue(window.acquire(5_000));
+        confirmer.join();
+        window.sent(5);
+        assertEquals(4, window.inFlight());
+
+        // Acking 5 must not confirm anything twice
+        window.handleAck(5, true);
+        assertEquals(5, confirms.size());
+        assertEquals(0, window.inFlight());
+    }
+
+    @Test
+    void closeGivesBackOutstandingSlots() throws Exception {
+        ConfirmWindow window = window(8);
+        publish(window, 11, 14);
+        window.handleAck(11, false);
+
+        assertEquals(3, window.close());
+        assertEquals(0, window.inFlight());
+        window.handleAck(14, true);
+        assertEquals(1, confirms.size(), "confirms after close are ignored");
+    }
+
+    @Test
+    void outOfOrderAcksAroundTheCapacityKeepEveryPermit() throws Exception {
+        ConfirmWindow window = window(4);
+        publish(window, 1, 4);
+
+        // Seq 1 stays outstanding while 2..4 are acked one by one, and publishing goes on
+        for (long seqNo = 2; seqNo <= 4; seqNo++) {
+            window.handleAck(seqNo, false);
+        }
+        publish(window, 5, 7);
+        assertEquals(4, window.inFlight());
+        assertFalse(window.acquire(0));
+
+        // The late ack of seq 1 still lands and frees its permit
+        window.handleAck(1, false);
+        assertEquals(3, window.inFlight());
+        assertEquals(4, confirms.size());
+
+        // Many laps later, nothing has leaked
+        for (long seqNo = 8; seqNo <= 400; seqNo++) {
+            publish(window, seqNo, seqNo);
+            window.handleAck(seqNo - 3, false);
+        }
+        window.handleAck(400, true);
+        assertEquals(0, window.inFlight());
+        assertEquals(400, confirms.size());
+    }
+
+    private ConfirmWindow window(int capacity) {
+        return new ConfirmWindow(capacity, (ack, latencyNanos) -> confirms.add(ack));
+    }
+
+    private static void publish(ConfirmWindow window, long from, long to) throws InterruptedException {
+        for (long seqNo = from; seqNo <= to; seqNo++) {
+            assertTrue(window.acquire(0));
+            window.sent(seqNo);
+        }
+    }
+}
\ No newline at end of file
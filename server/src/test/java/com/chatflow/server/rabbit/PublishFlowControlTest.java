@@ -0,0 +1,163 @@
+package com.chatflow.server.rabbit;
+
+import com.rabbitmq.client.BlockedCallback;
+import com.rabbitmq.client.BlockedListener;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.client.UnblockedCallback;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Kills and recovers a producer channel the way automatic recovery does: the same Channel
+ * object shuts down, then comes back with its sequence numbers restarted. The channel must
+ * end up in confirm mode with a fresh window that starts at the new sequence numbers. A
+ * blocked producer connection holds up only the channels opened on it.
+ */
+class PublishFlowControlTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final PublishFlowControl flowControl = new PublishFlowControl(true, 8, registry);
+
+    @Test
+    void windowComesBackWhenTheChannelRecovers() throws Exception {
+        Channel channel = recoverableChannel();
+        flowControl.onChannel(channel);
+        ConfirmWindow before = flowControl.window(channel);
+        assertNotNull(before);
+
+        assertTrue(before.acquire(0));
+        before.sent(1);
+        assertTrue(before.acquire(0));
+        before.sent(2);
+
+        shutdownListener(channel).shutdownCompleted(new ShutdownSignalException(true, false, null, channel));
+        assertNull(flowControl.window(channel), "no publishes on a dead channel");
+        verify(channel).removeConfirmListener(before);
+        assertEquals(2.0, registry.get("chatflow.publish.confirms").tag("result", "lost").counter().count());
+
+        // Recovery restarts the channel's sequence numbers; the new window starts empty
+        recoveryListener(channel).handleRecovery((Recoverable) channel);
+
+        ConfirmWindow after = flowControl.window(channel);
+        assertNotNull(after);
+        assertNotSame(before, after);
+        assertEquals(0, after.inFlight());
+        verify(channel, times(2)).confirmSelect();
+
+        ArgumentCaptor<ConfirmListener> listeners = ArgumentCaptor.forClass(ConfirmListener.class);
+        verify(channel, times(2)).addConfirmListener(listeners.capture());
+        assertEquals(after, listeners.getValue());
+
+        assertTrue(after.acquire(0));
+        after.sent(1);
+        after.handleAck(1, true);
+        assertEquals(1.0, registry.get("chatflow.publish.confirms").tag("result", "ack").counter().count());
+    }
+
+    @Test
+    void channelThatCannotBeRearmedIsAborted() throws Exception {
+        Channel channel = recoverableChannel();
+        flowControl.onChannel(channel);
+        shutdownListener(channel).shutdownCompleted(new ShutdownSignalException(true, false, null, channel));
+
+        doThrow(new IOException("confirm.select refused")).when(channel).confirmSelect();
+        recoveryListener(channel).handleRecovery((Recoverable) channel);
+
+        assertNull(flowControl.window(channel));
+        verify(channel).abort();
+    }
+
+    @Test
+    void blockedConnectionOnlyHoldsItsOwnChannels() throws Exception {
+        Connection first = connection("producer-0");
+        Connection second = connection("producer-1");
+        flowControl.onConnection(first);
+        flowControl.onConnection(second);
+
+        // Recovering channels report the underlying connection, which shares the pool's name
+        Connection underlying = connection("producer-0");
+        Channel onFirst = mock(Channel.class);
+        when(onFirst.getConnection()).thenReturn(underlying);
+        Channel onSecond = mock(Channel.class);
+        when(onSecond.getConnection()).thenReturn(second);
+
+        blockedListener(first).handleBlocked("memory alarm");
+        assertFalse(flowControl.awaitUnblocked(onFirst, 0));
+        assertTrue(flowControl.awaitUnblocked(onSecond, 0));
+        assertEquals(1.0, registry.get("chatflow.broker.blocked").gauge().value());
+
+        blockedListener(first).handleUnblocked();
+        assertTrue(flowControl.awaitUnblocked(onFirst, 0));
+        assertEquals(0.0, registry.get("chatflow.broker.blocked").gauge().value());
+
+        // A connection that drops while blocked does not stay blocked
+        blockedListener(second).handleBlocked("disk alarm");
+        ArgumentCaptor<ShutdownListener> shutdown = ArgumentCaptor.forClass(ShutdownListener.class);
+        verify(second).addShutdownListener(shutdown.capture());
+        shutdown.getValue().shutdownCompleted(new ShutdownSignalException(true, false, null, second));
+        assertTrue(flowControl.awaitUnblocked(onSecond, 0));
+    }
+
+    private static Connection connection(String name) {
+        Connection connection = mock(Connection.class);
+        when(connection.getClientProvidedName()).thenReturn(name);
+        return connection;
+    }
+
+    private static BlockedListener blockedListener(Connection connection) {
+        ArgumentCaptor<BlockedCallback> blocked = ArgumentCaptor.forClass(BlockedCallback.class);
+        ArgumentCaptor<UnblockedCallback> unblocked = ArgumentCaptor.forClass(UnblockedCallback.class);
+        verify(connection).addBlockedListener(blocked.capture(), unblocked.capture());
+        return new BlockedListener() {
+            @Override
+            public void handleBlocked(String reason) throws IOException {
+                blocked.getValue().handle(reason);
+            }
+
+            @Override
+            public void handleUnblocked() throws IOException {
+                unblocked.getValue().handle();
+            }
+        };
+    }
+
+    private static Channel recoverableChannel() {
+        Channel channel = mock(Channel.class, withSettings().extraInterfaces(Recoverable.class));
+        when(channel.isOpen()).thenReturn(true);
+        return channel;
+    }
+
+    private static ShutdownListener shutdownListener(Channel channel) {
+        ArgumentCaptor<ShutdownListener> captor = ArgumentCaptor.forClass(ShutdownListener.class);
+        verify(channel).addShutdownListener(captor.capture());
+        return captor.getValue();
+    }
+
+    private static RecoveryListener recoveryListener(Channel channel) {
+        ArgumentCaptor<RecoveryListener> captor = ArgumentCaptor.forClass(RecoveryListener.class);
+        verify((Recoverable) channel).addRecoveryListener(captor.capture());
+        return captor.getValue();
+    }
+}
\ No newline at end of file
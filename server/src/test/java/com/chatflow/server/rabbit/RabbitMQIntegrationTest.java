@@ -8,7 +8,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
-@SpringBootTest
+@SpringBootTest(properties = "chatflow.message-id.node=0")
 class RabbitMQSenderIntegrationTest {
 
     @Autowired
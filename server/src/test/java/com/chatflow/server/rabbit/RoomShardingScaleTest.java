@@ -0,0 +1,132 @@
+package com.chatflow.server.rabbit;
+
+import com.chatflow.server.bus.RoomSubscriptions;
+import com.chatflow.server.config.ServerIdentity;
+import com.chatflow.server.handler.OverflowPolicy;
+import com.chatflow.server.handler.RoomBroadcaster;
+import com.chatflow.server.handler.RoomDispatcher;
+import com.chatflow.server.handler.RoomSessionManager;
+import com.chatflow.server.history.RecentFrames;
+import com.chatflow.server.history.RoomHistory;
+import com.chatflow.server.model.UserInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Registers 100k rooms on one node against a mocked broker and checks that the number of
+ * queues, consumers and threads does not depend on the number of rooms.
+ */
+class RoomShardingScaleTest {
+
+    private static final int SHARDS = 8;
+    private static final int ROOMS = 100_000;
+
+    private final AtomicInteger bindings = new AtomicInteger();
+    private final AtomicInteger acks = new AtomicInteger();
+
+    private Channel channel;
+    private RoomSessionManager roomSessionManager;
+    private RoomDispatcher roomDispatcher;
+    private RabbitMQConsumer consumer;
+    private RoomSubscriptions subscriptions;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        channel = mock(Channel.class);
+        doAnswer(inv -> {
+            bindings.incrementAndGet();
+            return null;
+        }).when(channel).queueBind(anyString(), anyString(), anyString());
+        doAnswer(inv -> {
+            acks.incrementAndGet();
+            return null;
+        }).when(channel).basicAck(anyLong(), anyBoolean());
+        ChannelPool channelPool = mock(ChannelPool.class);
+        when(channelPool.borrowChannel()).thenReturn(channel);
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        roomSessionManager = new RoomSessionManager(1024, OverflowPolicy.DROP_OLDEST, 4, 65536, 5000, registry);
+        roomDispatcher = new RoomDispatcher(new RoomBroadcaster(roomSessionManager, new ObjectMapper(), registry),
+                roomSessionManager, new RoomHistory(new ServerIdentity("node-1"), false, "history", 1 << 20, 4096, 1 << 26, 60_000, registry),
+                new RecentFrames(roomSessionManager, false, 50, 32768, 0, registry),
+                4, 4096, true, 1 << 20, 0.0001, registry);
+        consumer = new RabbitMQConsumer(channelPool, roomDispatcher, new ServerIdentity("node-1"),
+                new StageMetrics(roomSessionManager, registry),
+                false, SHARDS, 250, AckMode.SINGLE, 64, 10, PrefetchMode.FIXED, 16, 2048, 50, false, registry);
+        subscriptions = new RoomSubscriptions(roomSessionManager,
+                new RabbitMQMessageBus(mock(RabbitMQSender.class), consumer), 30_000, registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        subscriptions.shutdown();
+        consumer.shutdown();
+        roomDispatcher.shutdown();
+        roomSessionManager.shutdown();
+    }
+
+    @Test
+    void queuesAndThreadsStayFlatAt100kRooms() throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        UserInfo user = new UserInfo();
+        user.setUserId("1");
+        user.setUsername("user1");
+        roomSessionManager.addUserSession(session, user);
+
+        joinRooms(session, 0, 1_000);
+        awaitCount(subscriptions::getSubscribedRoomCount, 1_000);
+        int threadsAt1k = Thread.getAllStackTraces().size();
+
+        joinRooms(session, 1_000, ROOMS);
+        awaitCount(subscriptions::getSubscribedRoomCount, ROOMS);
+        assertEquals(ROOMS, bindings.get());
+
+        ArgumentCaptor<Consumer> shardConsumers = ArgumentCaptor.forClass(Consumer.class);
+        verify(channel, times(SHARDS)).basicConsume(anyString(), eq(false), shardConsumers.capture());
+        List<Consumer> consumers = shardConsumers.getAllValues();
+        byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < ROOMS; i++) {
+            String roomId = "room" + i;
+            Envelope envelope = new Envelope(i + 1, false, RabbitMQInitializer.EXCHANGE_NAME, roomId);
+            consumers.get(consumer.shardOf(roomId)).handleDelivery("tag", envelope, null, body);
+        }
+        awaitCount(acks::get, ROOMS);
+
+        assertEquals(threadsAt1k, Thread.getAllStackTraces().size());
+        verify(channel, times(SHARDS)).queueDeclare(anyString(), eq(true), eq(false), eq(false), isNull());
+        verify(channel, never()).exchangeDeclare(anyString(), any(com.rabbitmq.client.BuiltinExchangeType.class), anyBoolean());
+        assertEquals(ROOMS, roomSessionManager.getActiveRooms().size());
+    }
+
+    private void joinRooms(WebSocketSession session, int from, int to) {
+        UserInfo user = roomSessionManager.getUser(session);
+        for (int i = from; i < to; i++) {
+            roomSessionManager.addUserToRoom(session, "room" + i, user);
+        }
+    }
+
+    private static void awaitCount(IntSupplier counter, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (counter.getAsInt() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, counter.getAsInt());
+    }
+}
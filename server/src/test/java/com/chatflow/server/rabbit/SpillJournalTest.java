@@ -0,0 +1,181 @@
+package com.chatflow.server.rabbit;
+
+import com.chatflow.server.config.ServerIdentity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Appends, replays and reopens journals on a temp directory: records come back in
+ * reservation order, a rejected record stays at the head, and a journal reopened after a
+ * crash resumes from the persisted replay offset. Small segments make every test roll.
+ */
+class SpillJournalTest {
+
+    // room "room1" + 40-byte body = 56 bytes per record, four records per segment
+    private static final int SEGMENT_BYTES = 256;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysRecordsInAppendOrderAcrossSegments() throws Exception {
+        SpillJournal journal = journal();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(journal.append("room1", body(i), i + 1));
+        }
+        assertEquals(10, journal.getPending());
+        assertEquals(3, segmentFiles());
+
+        List<Integer> replayed = new ArrayList<>();
+        while (journal.replayNext((roomId, body, batchCount) -> {
+            assertEquals("room1", roomId);
+            assertEquals(batchCount - 1, index(body));
+            return replayed.add(index(body));
+        })) {
+            // drain
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), replayed);
+        assertTrue(journal.isEmpty());
+        assertEquals(1, segmentFiles(), "fully replayed sealed segments are deleted");
+    }
+
+    @Test
+    void rejectedRecordStaysAtTheHead() throws Exception {
+        SpillJournal journal = journal();
+        journal.append("room1", body(0), 1);
+        journal.append("room1", body(1), 1);
+
+        assertFalse(journal.replayNext((roomId, body, batchCount) -> false));
+        assertFalse(journal.replayNext((roomId, body, batchCount) -> false));
+        assertEquals(2, journal.getPending());
+
+        List<Integer> replayed = new ArrayList<>();
+        assertTrue(journal.replayNext((roomId, body, batchCount) -> replayed.add(index(body))));
+        assertEquals(List.of(0), replayed);
+        assertEquals(1, journal.getPending());
+    }
+
+    @Test
+    void reopenedJournalResumesFromTheReplayOffset() throws Exception {
+        SpillJournal before = journal();
+        for (int i = 0; i < 6; i++) {
+            before.append("room1", body(i), 1);
+        }
+        // Two records replayed mid-segment, then the process dies without closing anything
+        assertTrue(before.replayNext((roomId, body, batchCount) -> true));
+        assertTrue(before.replayNext((roomId, body, batchCount) -> true));
+
+        SpillJournal after = journal();
+        assertEquals(4, after.getPending());
+
+        // New appends go to a fresh segment behind the recovered ones
+        after.append("room1", body(6), 1);
+        List<Integer> replayed = new ArrayList<>();
+        while (after.replayNext((roomId, body, batchCount) -> replayed.add(index(body)))) {
+            // drain
+        }
+        assertEquals(List.of(2, 3, 4, 5, 6), replayed);
+        assertTrue(after.isEmpty());
+
+        assertEquals(0, journal().getPending(), "nothing is replayed twice");
+    }
+
+    @Test
+    void fullyReplayedSegmentsAreDroppedOnRecovery() throws Exception {
+        SpillJournal before = journal();
+        for (int i = 0; i < 4; i++) {
+            before.append("room1", body(i), 1);
+        }
+        while (before.replayNext((roomId, body, batchCount) -> true)) {
+            // drain
+        }
+        assertEquals(1, segmentFiles());
+
+        SpillJournal after = journal();
+        assertTrue(after.isEmpty());
+        assertEquals(0, segmentFiles());
+    }
+
+    @Test
+    void concurrentAppendersKeepTheirOwnOrder() throws Exception {
+        SpillJournal journal = journal();
+        int threads = 4;
+        int perThread = 200;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String room = "room" + t;
+            Thread writer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    assertTrue(journal.append(room, body(i), 1));
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals(threads * perThread, journal.getPending());
+
+        Map<String, Integer> next = new HashMap<>();
+        int replayed = 0;
+        while (journal.replayNext((roomId, body, batchCount) -> {
+            int expected = next.getOrDefault(roomId, 0);
+            assertEquals(expected, index(body), roomId);
+            next.put(roomId, expected + 1);
+            return true;
+        })) {
+            replayed++;
+        }
+        assertEquals(threads * perThread, replayed);
+        assertTrue(journal.isEmpty());
+    }
+
+    @Test
+    void recordLargerThanASegmentIsRejected() throws Exception {
+        SpillJournal journal = journal();
+        assertFalse(journal.append("room1", new byte[SEGMENT_BYTES], 1));
+        assertTrue(journal.isEmpty());
+    }
+
+    private SpillJournal journal() throws IOException {
+        return new SpillJournal(new ServerIdentity("node-1"), dir.toString(), SEGMENT_BYTES, new SimpleMeterRegistry());
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir.resolve("node-1"))) {
+            return files.count();
+        }
+    }
+
+    private static byte[] body(int index) {
+        return String.format("%040d", index).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static int index(byte[] body) {
+        return Integer.parseInt(new String(body, StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,165 @@
+package com.chatflow.server.validation;
+
+import com.chatflow.server.model.ChatMessage;
+import com.chatflow.server.model.MessageType;
+import com.chatflow.server.model.QueueMessage;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import jakarta.validation.ValidatorFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the compiled validators report exactly the violations Hibernate Validator
+ * reports for the annotated models, compared by property, constraint type and message template.
+ */
+class CompiledValidatorConformanceTest {
+
+    private static final List<String> USERNAMES = Arrays.asList(
+            null, "", "ab", "abc", "user1234", "USER_1", "user 12", "ABCdef0123456789wxyz",
+            "ABCdef0123456789wxyz1", "élève", "abc\n", "12345", "a-b-c");
+    private static final List<String> USER_IDS = Arrays.asList(
+            null, "", "0", "1", "01", "123456", "1234567", "12a", "999999", "-1", "١٢");
+    private static final List<String> MESSAGES = Arrays.asList(
+            null, "", "x", "Hello", "x".repeat(500), "x".repeat(501), "😀".repeat(250),
+            "😀".repeat(251));
+
+    private static ValidatorFactory factory;
+    private static Validator hibernate;
+
+    @BeforeAll
+    static void setUp() {
+        factory = Validation.buildDefaultValidatorFactory();
+        hibernate = factory.getValidator();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        factory.close();
+    }
+
+    @Test
+    void chatMessageMatchesHibernateValidator() {
+        for (String username : USERNAMES) {
+            for (String message : MESSAGES) {
+                assertChatMessageConforms(chatMessage("m-1", "42", username, message, Instant.now(),
+                        MessageType.TEXT, "room1"));
+            }
+        }
+        assertChatMessageConforms(new ChatMessage());
+        assertChatMessageConforms(chatMessage(null, null, "user1", "hi", null, null, null));
+    }
+
+    @Test
+    void queueMessageMatchesHibernateValidator() {
+        for (String userId : USER_IDS) {
+            for (String username : USERNAMES) {
+                for (String message : MESSAGES) {
+                    assertQueueMessageConforms(queueMessage(userId, username, message, Instant.now(),
+                            MessageType.JOIN, "room1"));
+                }
+            }
+        }
+        assertQueueMessageConforms(new QueueMessage());
+    }
+
+    @Test
+    void randomInputsMatchHibernateValidator() {
+        Random random = new Random(6650);
+        for (int i = 0; i < 20_000; i++) {
+            String username = randomString(random, 24);
+            String userId = randomString(random, 8);
+            String message = random.nextInt(10) == 0 ? randomString(random, 600) : randomString(random, 8);
+            Instant timestamp = random.nextBoolean() ? Instant.now() : null;
+            MessageType type = random.nextInt(5) == 0 ? null : MessageType.TEXT;
+
+            assertChatMessageConforms(chatMessage("m", userId, username, message, timestamp, type, "room3"));
+            assertQueueMessageConforms(queueMessage(userId, username, message, timestamp, type, "room3"));
+        }
+    }
+
+    @Test
+    void validMessagesReportNothing() {
+        ChatMessage chat = chatMessage("m-1", "42", "user42", "Hello", Instant.now(), MessageType.TEXT, "room1");
+        QueueMessage queued = queueMessage("42", "user42", "Hello", Instant.now(), MessageType.TEXT, "room1");
+
+        assertEquals(0, ChatMessageValidator.validate(chat));
+        assertEquals(0, QueueMessageValidator.validate(queued));
+        assertEquals(0, hibernate.validate(chat).size());
+        assertEquals(0, hibernate.validate(queued).size());
+    }
+
+    private static void assertChatMessageConforms(ChatMessage m) {
+        Set<String> expected = describe(hibernate.validate(m));
+        Set<String> actual = ChatMessageValidator.violations(ChatMessageValidator.validate(m)).stream()
+                .map(r -> key(r.getProperty(), r.getConstraint().getSimpleName(), r.getMessageTemplate()))
+                .collect(Collectors.toSet());
+        assertEquals(expected, actual, () -> "username=" + m.getUsername() + " message=" + m.getMessage());
+    }
+
+    private static void assertQueueMessageConforms(QueueMessage m) {
+        Set<String> expected = describe(hibernate.validate(m));
+        Set<String> actual = QueueMessageValidator.violations(QueueMessageValidator.validate(m)).stream()
+                .map(r -> key(r.getProperty(), r.getConstraint().getSimpleName(), r.getMessageTemplate()))
+                .collect(Collectors.toSet());
+        assertEquals(expected, actual, () -> "userID=" + m.getUserID() + " username=" + m.getUsername()
+                + " message=" + m.getMessage());
+    }
+
+    private static <T> Set<String> describe(Set<ConstraintViolation<T>> violations) {
+        return violations.stream()
+                .map(v -> key(v.getPropertyPath().toString(),
+                        v.getConstraintDescriptor().getAnnotation().annotationType().getSimpleName(),
+                        v.getMessageTemplate()))
+                .collect(Collectors.toSet());
+    }
+
+    private static String key(String property, String constraint, String template) {
+        return property + "/" + constraint + "/" + template;
+    }
+
+    private static String randomString(Random random, int maxLength) {
+        if (random.nextInt(8) == 0) return null;
+        String alphabet = "abcXYZ0123456789 _-é\n";
+        int length = random.nextInt(maxLength + 1);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    private static ChatMessage chatMessage(String messageId, String userId, String username, String message,
+                                           Instant timestamp, MessageType type, String roomId) {
+        ChatMessage m = new ChatMessage();
+        m.setMessageId(messageId);
+        m.setUserId(userId);
+        m.setUsername(username);
+        m.setMessage(message);
+        m.setTimestamp(timestamp);
+        m.setMessageType(type);
+        m.setRoomId(roomId);
+        return m;
+    }
+
+    private static QueueMessage queueMessage(String userId, String username, String message,
+                                             Instant timestamp, MessageType type, String roomId) {
+        QueueMessage m = new QueueMessage();
+        m.setMessageID("m-1");
+        m.setUserID(userId);
+        m.setUsername(username);
+        m.setMessage(message);
+        m.setTimestamp(timestamp);
+        m.setMessageType(type);
+        m.setRoomID(roomId);
+        return m;
+    }
+}